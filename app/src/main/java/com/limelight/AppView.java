@@ -2,9 +2,12 @@ package com.limelight;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 
+import com.limelight.computers.AppListDiff;
 import com.limelight.computers.ComputerManagerListener;
 import com.limelight.computers.ComputerManagerService;
 import com.limelight.grid.AppGridAdapter;
@@ -57,7 +60,6 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
     private ComputerDetails computer;
     private ComputerManagerService.ApplistPoller poller;
     private SpinnerDialog blockingLoadSpinner;
-    private String lastRawApplist;
     private int lastRunningAppId;
     private boolean suspendGridUpdates;
     private boolean inForeground;
@@ -229,33 +231,61 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
                     return;
                 }
 
-                // App list is the same or empty
-                if (details.rawAppList == null || details.rawAppList.equals(lastRawApplist)) {
+                // Let's check if the running app ID changed
+                if (details.runningGameId != lastRunningAppId) {
+                    // Update the currently running game using the app ID
+                    lastRunningAppId = details.runningGameId;
+                    updateUiWithServerinfo(details);
+                }
+            }
 
-                    // Let's check if the running app ID changed
-                    if (details.runningGameId != lastRunningAppId) {
-                        // Update the currently running game using the app ID
-                        lastRunningAppId = details.runningGameId;
-                        updateUiWithServerinfo(details);
-                    }
+            @Override
+            public boolean notifyAppListUpdated(final ComputerDetails details, final AppListDiff diff) {
+                // Do nothing if updates are suspended. The poller will
+                // deliver these changes again after we resume updates.
+                if (suspendGridUpdates) {
+                    return false;
+                }
 
-                    return;
+                // Don't care about other computers
+                if (!details.uuid.equalsIgnoreCase(uuidString)) {
+                    return false;
                 }
 
                 lastRunningAppId = details.runningGameId;
-                lastRawApplist = details.rawAppList;
 
-                try {
-                    updateUiWithAppList(NvHTTP.getAppListByReader(new StringReader(details.rawAppList)));
-                    updateUiWithServerinfo(details);
+                updateUiWithAppListDiff(diff);
+                updateUiWithServerinfo(details);
 
-                    if (blockingLoadSpinner != null) {
-                        blockingLoadSpinner.dismiss();
-                        blockingLoadSpinner = null;
+                AppView.this.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (blockingLoadSpinner != null) {
+                            blockingLoadSpinner.dismiss();
+                            blockingLoadSpinner = null;
+                        }
                     }
-                } catch (XmlPullParserException | IOException e) {
-                    e.printStackTrace();
+                });
+
+                return true;
+            }
+
+            @Override
+            public void notifyBoxArtSyncProgress(ComputerDetails details, int completed, int total) {
+                // Don't care about other computers
+                if (completed != total || !details.uuid.equalsIgnoreCase(uuidString)) {
+                    return;
                 }
+
+                // Rebind the grid so any items that gave up on their art pick it up from the cache
+                AppView.this.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!suspendGridUpdates) {
+                            appGridAdapter.notifyDataSetChanged();
+                        }
+                    }
+                });
             }
         });
 
@@ -330,6 +360,7 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
     }
 
     private void populateAppGridWithCache() {
+        String lastRawApplist = null;
         try {
             // Try to load from cache
             lastRawApplist = CacheHelper.readInputStreamToString(CacheHelper.openCacheFileForInput(getCacheDir(), "applist", uuidString));
@@ -538,6 +569,63 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
         });
     }
 
+    private void updateUiWithAppListDiff(final AppListDiff diff) {
+        AppView.this.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                boolean updated = false;
+
+                HashMap<Integer, AppObject> existingApps = new HashMap<>();
+                for (int i = 0; i < appGridAdapter.getCount(); i++) {
+                    AppObject existingApp = (AppObject) appGridAdapter.getItem(i);
+                    existingApps.put(existingApp.app.getAppId(), existingApp);
+                }
+
+                for (NvApp app : diff.removed) {
+                    AppObject existingApp = existingApps.remove(app.getAppId());
+                    if (existingApp != null) {
+                        shortcutHelper.disableAppShortcut(computer, existingApp.app, "App removed from PC");
+                        appGridAdapter.removeApp(existingApp);
+                        updated = true;
+                    }
+                }
+
+                // Our grid may not exactly match the poller's previous list, so additions
+                // and changes are both handled as updates to existing apps if possible.
+                ArrayList<NvApp> addedOrChanged = new ArrayList<>(diff.added);
+                addedOrChanged.addAll(diff.changed);
+                for (NvApp app : addedOrChanged) {
+                    AppObject existingApp = existingApps.get(app.getAppId());
+                    if (existingApp != null) {
+                        // Found the app; update its properties
+                        if (!existingApp.app.getAppName().equals(app.getAppName())) {
+                            existingApp.app.setAppName(app.getAppName());
+                            updated = true;
+                        }
+                        existingApp.app.setHdrSupported(app.isHdrSupported());
+                    }
+                    else {
+                        // This app must be new
+                        AppObject newApp = new AppObject(app);
+                        appGridAdapter.addApp(newApp);
+                        existingApps.put(app.getAppId(), newApp);
+
+                        // We could have a leftover shortcut from last time this PC was paired
+                        // or if this app was removed then added again. Enable those shortcuts
+                        // again if present.
+                        shortcutHelper.enableAppShortcut(computer, app);
+
+                        updated = true;
+                    }
+                }
+
+                if (updated) {
+                    appGridAdapter.notifyDataSetChanged();
+                }
+            }
+        });
+    }
+
     private void updateUiWithAppList(final List<NvApp> appList) {
         AppView.this.runOnUiThread(new Runnable() {
             @Override
@@ -635,6 +723,15 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
                 }
             }
         });
+        listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {}
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                appGridAdapter.updateVisibleRange(firstVisibleItem, visibleItemCount);
+            }
+        });
         UiHelper.applyStatusBarPadding(listView);
         registerForContextMenu(listView);
         listView.requestFocus();
@@ -91,6 +91,9 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 {
     private int lastButtonState = 0;
 
+    // Sub-pixel relative motion not yet sent to the host
+    private float mouseRemainderX, mouseRemainderY;
+
     // Only 2 touches are supported
     private final TouchContext[] touchContextMap = new TouchContext[2];
     private long threeFingerDownTime = 0;
@@ -419,7 +422,10 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         // to track the state of the pipeline and time frames.
         int roundedRefreshRate = Math.round(displayRefreshRate);
         int chosenFrameRate = prefConfig.fps;
-        if (!prefConfig.disableFrameDrop || prefConfig.unlockFps) {
+        // These tweaks are only needed when frames are rendered as soon as they are decoded.
+        // The V-sync aligned frame pacers already present at most one frame per refresh.
+        if ((!prefConfig.disableFrameDrop || prefConfig.unlockFps) &&
+                prefConfig.framePacing == PreferenceConfiguration.FRAME_PACING_MIN_LATENCY) {
             if (Build.DEVICE.equals("coral") || Build.DEVICE.equals("flame")) {
                 // HACK: Pixel 4 (XL) ignores the preferred display mode and lowers refresh rate,
                 // causing frame pacing issues. See https://issuetracker.google.com/issues/143401475
@@ -945,6 +951,14 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                     message = getResources().getString(R.string.conn_hardware_latency)+" "+averageDecoderLat+" ms";
                 }
 
+                // Tail latency is often more noticeable than the average
+                if (message != null && decoderRenderer.getMaxEndToEndLatency() > 0) {
+                    message += "\n" + getResources().getString(R.string.conn_client_latency_tail,
+                            decoderRenderer.getEndToEndLatencyPercentile(95),
+                            decoderRenderer.getEndToEndLatencyPercentile(99),
+                            decoderRenderer.getMaxEndToEndLatency());
+                }
+
                 // Add the video codec to the post-stream toast
                 if (message != null) {
                     if (videoFormat == MoonBridge.VIDEO_FORMAT_H265_MAIN10) {
@@ -1267,12 +1281,21 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                 // dealing with a stylus without hover support, our position might be
                 // significantly different than before.
                 if (inputCaptureProvider.eventHasRelativeMouseAxes(event)) {
-                    // Send the deltas straight from the motion event
-                    short deltaX = (short)inputCaptureProvider.getRelativeAxisX(event);
-                    short deltaY = (short)inputCaptureProvider.getRelativeAxisY(event);
+                    if (prefConfig.highRateMouse) {
+                        // Send each batched sample individually rather than summing them
+                        for (int i = 0; i <= event.getHistorySize(); i++) {
+                            sendRelativeMouseSample(inputCaptureProvider.getRelativeAxisX(event, i),
+                                    inputCaptureProvider.getRelativeAxisY(event, i));
+                        }
+                    }
+                    else {
+                        // Send the deltas straight from the motion event
+                        short deltaX = (short)inputCaptureProvider.getRelativeAxisX(event);
+                        short deltaY = (short)inputCaptureProvider.getRelativeAxisY(event);
 
-                    if (deltaX != 0 || deltaY != 0) {
-                        conn.sendMouseMove(deltaX, deltaY);
+                        if (deltaX != 0 || deltaY != 0) {
+                            conn.sendMouseMove(deltaX, deltaY);
+                        }
                     }
                 }
                 else if ((eventSource & InputDevice.SOURCE_CLASS_POSITION) != 0) {
@@ -1295,8 +1318,18 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
                             // Touchpads must be smaller than (65535, 65535)
                             if (xMax <= Short.MAX_VALUE && yMax <= Short.MAX_VALUE) {
-                                conn.sendMousePosition((short)event.getX(), (short)event.getY(),
-                                                       (short)xMax, (short)yMax);
+                                if (prefConfig.highRateMouse) {
+                                    for (int i = 0; i < event.getHistorySize(); i++) {
+                                        conn.sendMousePositionSample((short)event.getHistoricalX(i), (short)event.getHistoricalY(i),
+                                                                     (short)xMax, (short)yMax);
+                                    }
+                                    conn.sendMousePositionSample((short)event.getX(), (short)event.getY(),
+                                                                 (short)xMax, (short)yMax);
+                                }
+                                else {
+                                    conn.sendMousePosition((short)event.getX(), (short)event.getY(),
+                                                           (short)xMax, (short)yMax);
+                                }
                             }
                         }
                     }
@@ -1558,6 +1591,19 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             }
         }
 
+        if (prefConfig.highRateMouse) {
+            // Send the batched samples first to preserve the path taken between frames
+            for (int i = 0; i < event.getHistorySize(); i++) {
+                sendMousePosition(view, event.getHistoricalX(0, i), event.getHistoricalY(0, i), false);
+            }
+            sendMousePosition(view, eventX, eventY, false);
+        }
+        else {
+            sendMousePosition(view, eventX, eventY, true);
+        }
+    }
+
+    private void sendMousePosition(View view, float eventX, float eventY, boolean coalesce) {
         // We may get values slightly outside our view region on ACTION_HOVER_ENTER and ACTION_HOVER_EXIT.
         // Normalize these to the view size. We can't just drop them because we won't always get an event
         // right at the boundary of the view, so dropping them would result in our cursor never really
@@ -1565,7 +1611,35 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         eventX = Math.min(Math.max(eventX, 0), view.getWidth());
         eventY = Math.min(Math.max(eventY, 0), view.getHeight());
 
-        conn.sendMousePosition((short)eventX, (short)eventY, (short)view.getWidth(), (short)view.getHeight());
+        if (coalesce) {
+            conn.sendMousePosition((short)eventX, (short)eventY, (short)view.getWidth(), (short)view.getHeight());
+        }
+        else {
+            conn.sendMousePositionSample((short)eventX, (short)eventY, (short)view.getWidth(), (short)view.getHeight());
+        }
+    }
+
+    private void sendRelativeMouseSample(float deltaX, float deltaY) {
+        // Carry fractional motion over to the next sample so slow movements of
+        // high DPI mice aren't truncated away one sample at a time.
+        mouseRemainderX += deltaX;
+        mouseRemainderY += deltaY;
+
+        int remainingX = (int)mouseRemainderX;
+        int remainingY = (int)mouseRemainderY;
+        mouseRemainderX -= remainingX;
+        mouseRemainderY -= remainingY;
+
+        // Split deltas that are too large to fit in a single packet
+        while (remainingX != 0 || remainingY != 0) {
+            short sendX = (short)Math.max(Math.min(remainingX, Short.MAX_VALUE), Short.MIN_VALUE);
+            short sendY = (short)Math.max(Math.min(remainingY, Short.MAX_VALUE), Short.MIN_VALUE);
+
+            conn.sendMouseMoveSample(sendX, sendY);
+
+            remainingX -= sendX;
+            remainingY -= sendY;
+        }
     }
 
     @Override
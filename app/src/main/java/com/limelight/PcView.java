@@ -6,6 +6,7 @@ import java.net.UnknownHostException;
 
 import com.limelight.binding.PlatformBinding;
 import com.limelight.binding.crypto.AndroidCryptoProvider;
+import com.limelight.computers.AppListDiff;
 import com.limelight.computers.ComputerManagerListener;
 import com.limelight.computers.ComputerManagerService;
 import com.limelight.grid.PcGridAdapter;
@@ -256,6 +257,17 @@ public class PcView extends Activity implements AdapterFragmentCallbacks {
                         });
                     }
                 }
+
+                @Override
+                public boolean notifyAppListUpdated(ComputerDetails details, AppListDiff diff) {
+                    // We don't display app lists
+                    return false;
+                }
+
+                @Override
+                public void notifyBoxArtSyncProgress(ComputerDetails details, int completed, int total) {
+                    // We don't display box art
+                }
             });
             runningPolling = true;
         }
@@ -8,6 +8,7 @@ import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.IBinder;
 
+import com.limelight.computers.AppListDiff;
 import com.limelight.computers.ComputerManagerListener;
 import com.limelight.computers.ComputerManagerService;
 import com.limelight.nvstream.http.ComputerDetails;
@@ -184,6 +185,17 @@ public class ShortcutTrampoline extends Activity {
                                 });
                             }
                         }
+
+                        @Override
+                        public boolean notifyAppListUpdated(ComputerDetails details, AppListDiff diff) {
+                            // We only care about the computer's state
+                            return false;
+                        }
+
+                        @Override
+                        public void notifyBoxArtSyncProgress(ComputerDetails details, int completed, int total) {
+                            // We only care about the computer's state
+                        }
                     });
                 }
             }.start();
@@ -1,5 +1,6 @@
 package com.limelight.binding.audio;
 
+import android.annotation.TargetApi;
 import android.media.AudioAttributes;
 import android.media.AudioFormat;
 import android.media.AudioManager;
@@ -10,10 +11,31 @@ import com.limelight.LimeLog;
 import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.jni.MoonBridge;
 
+import java.nio.ByteBuffer;
+
 public class AndroidAudioRenderer implements AudioRenderer {
+    // Only queue up to 40 ms of pending audio data in addition to what AudioTrack is buffering for us.
+    private static final int MAX_PENDING_AUDIO_MS = 40;
+
+    private static final int FRAME_WAIT_TIMEOUT_MS = 100;
+
+    // The host sends 5 ms frames of 48 KHz audio unless it's bandwidth constrained
+    private static final int PREWARM_SAMPLE_RATE = 48000;
+    private static final int PREWARM_SAMPLES_PER_FRAME = 240;
 
     private AudioTrack track;
 
+    // Created by prewarm() while the app launches and handed off to setup()
+    private AudioTrack prewarmedTrack;
+    private int prewarmedChannelCount;
+
+    // On Lollipop and later, audio is decoded into a native ring buffer and written
+    // to the AudioTrack from our own thread, so the audio receive thread never
+    // calls into Java or blocks on the audio device.
+    private boolean useDirectBuffer;
+    private int frameDurationMs;
+    private Thread playbackThread;
+
     private AudioTrack createAudioTrack(int channelConfig, int sampleRate, int bufferSize, boolean lowLatency) {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
             return new AudioTrack(AudioManager.STREAM_MUSIC,
@@ -63,28 +85,21 @@ public class AndroidAudioRenderer implements AudioRenderer {
         }
     }
 
-    @Override
-    public int setup(MoonBridge.AudioConfiguration audioConfiguration, int sampleRate, int samplesPerFrame) {
-        int channelConfig;
-        int bytesPerFrame;
-
-        switch (audioConfiguration.channelCount)
+    private static int getChannelConfig(int channelCount) {
+        switch (channelCount)
         {
             case 2:
-                channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
-                break;
+                return AudioFormat.CHANNEL_OUT_STEREO;
             case 4:
-                channelConfig = AudioFormat.CHANNEL_OUT_QUAD;
-                break;
+                return AudioFormat.CHANNEL_OUT_QUAD;
             case 6:
-                channelConfig = AudioFormat.CHANNEL_OUT_5POINT1;
-                break;
+                return AudioFormat.CHANNEL_OUT_5POINT1;
             case 8:
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
                     // AudioFormat.CHANNEL_OUT_7POINT1_SURROUND isn't available until Android 6.0,
                     // yet the CHANNEL_OUT_SIDE_LEFT and CHANNEL_OUT_SIDE_RIGHT constants were added
                     // in 5.0, so just hardcode the constant so we can work on Lollipop.
-                    channelConfig = 0x000018fc; // AudioFormat.CHANNEL_OUT_7POINT1_SURROUND
+                    return 0x000018fc; // AudioFormat.CHANNEL_OUT_7POINT1_SURROUND
                 }
                 else {
                     // On KitKat and lower, creation of the AudioTrack will fail if we specify
@@ -92,17 +107,19 @@ public class AndroidAudioRenderer implements AudioRenderer {
                     // the old CHANNEL_OUT_7POINT1 which uses left-of-center and right-of-center
                     // speakers instead of side-left and side-right. This non-standard layout
                     // is probably not what the user wants, but we don't really have a choice.
-                    channelConfig = AudioFormat.CHANNEL_OUT_7POINT1;
+                    return AudioFormat.CHANNEL_OUT_7POINT1;
                 }
-                break;
             default:
-                LimeLog.severe("Decoder returned unhandled channel count");
-                return -1;
+                return AudioFormat.CHANNEL_INVALID;
         }
+    }
 
-        LimeLog.info("Audio channel config: "+String.format("0x%X", channelConfig));
-
-        bytesPerFrame = audioConfiguration.channelCount * samplesPerFrame * 2;
+    // Returns an AudioTrack or null if none of our configurations worked. The track is
+    // only started if startPlaying is set.
+    private AudioTrack createStreamAudioTrack(int channelConfig, int channelCount, int sampleRate,
+                                              int samplesPerFrame, boolean startPlaying) {
+        int bytesPerFrame = channelCount * samplesPerFrame * 2;
+        AudioTrack newTrack = null;
 
         // We're not supposed to request less than the minimum
         // buffer size for our buffer, but it appears that we can
@@ -162,8 +179,10 @@ public class AndroidAudioRenderer implements AudioRenderer {
             }
 
             try {
-                track = createAudioTrack(channelConfig, sampleRate, bufferSize, lowLatency);
-                track.play();
+                newTrack = createAudioTrack(channelConfig, sampleRate, bufferSize, lowLatency);
+                if (startPlaying) {
+                    newTrack.play();
+                }
 
                 // Successfully created working AudioTrack. We're done here.
                 LimeLog.info("Audio track configuration: "+bufferSize+" "+lowLatency);
@@ -172,14 +191,72 @@ public class AndroidAudioRenderer implements AudioRenderer {
                 // Try to release the AudioTrack if we got far enough
                 e.printStackTrace();
                 try {
-                    if (track != null) {
-                        track.release();
-                        track = null;
+                    if (newTrack != null) {
+                        newTrack.release();
+                        newTrack = null;
                     }
                 } catch (Exception ignored) {}
             }
         }
 
+        return newTrack;
+    }
+
+    @Override
+    public void prewarm(MoonBridge.AudioConfiguration audioConfiguration) {
+        int channelConfig = getChannelConfig(audioConfiguration.channelCount);
+        if (channelConfig == AudioFormat.CHANNEL_INVALID) {
+            return;
+        }
+
+        // Guess that the host will use its default frame duration. If it doesn't,
+        // setup() will just create a new track with the right buffer size. The app
+        // launch can take a long time, so the track isn't started until setup().
+        prewarmedTrack = createStreamAudioTrack(channelConfig, audioConfiguration.channelCount,
+                PREWARM_SAMPLE_RATE, PREWARM_SAMPLES_PER_FRAME, false);
+        prewarmedChannelCount = audioConfiguration.channelCount;
+    }
+
+    @Override
+    public void discardPrewarmed() {
+        if (prewarmedTrack != null) {
+            prewarmedTrack.release();
+            prewarmedTrack = null;
+        }
+    }
+
+    @Override
+    public int setup(MoonBridge.AudioConfiguration audioConfiguration, int sampleRate, int samplesPerFrame) {
+        int channelConfig = getChannelConfig(audioConfiguration.channelCount);
+        if (channelConfig == AudioFormat.CHANNEL_INVALID) {
+            LimeLog.severe("Decoder returned unhandled channel count");
+            discardPrewarmed();
+            return -1;
+        }
+
+        LimeLog.info("Audio channel config: "+String.format("0x%X", channelConfig));
+
+        frameDurationMs = Math.max(1, (samplesPerFrame * 1000) / sampleRate);
+        useDirectBuffer = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+
+        if (prewarmedTrack != null && prewarmedChannelCount == audioConfiguration.channelCount &&
+                sampleRate == PREWARM_SAMPLE_RATE && samplesPerFrame == PREWARM_SAMPLES_PER_FRAME) {
+            try {
+                prewarmedTrack.play();
+
+                LimeLog.info("Using prewarmed audio track");
+                track = prewarmedTrack;
+                prewarmedTrack = null;
+                return 0;
+            } catch (Exception e) {
+                // Fall back to creating a new track below
+                e.printStackTrace();
+            }
+        }
+
+        discardPrewarmed();
+
+        track = createStreamAudioTrack(channelConfig, audioConfiguration.channelCount, sampleRate, samplesPerFrame, true);
         if (track == null) {
             // Couldn't create any audio track for playback
             return -2;
@@ -188,10 +265,58 @@ public class AndroidAudioRenderer implements AudioRenderer {
         return 0;
     }
 
+    @Override
+    public int getCapabilities() {
+        return useDirectBuffer ? MoonBridge.AUDIO_CAPABILITY_DIRECT_BUFFER : 0;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void renderFromRingBuffer() {
+        ByteBuffer ringBuffer = MoonBridge.getAudioRingBuffer();
+        int slotSize = MoonBridge.getAudioRingSlotSize();
+        int maxQueuedFrames = Math.max(1, MAX_PENDING_AUDIO_MS / frameDurationMs);
+
+        while (!Thread.currentThread().isInterrupted()) {
+            int frame = MoonBridge.waitForAudioFrame(FRAME_WAIT_TIMEOUT_MS, maxQueuedFrames);
+            if (frame == -2) {
+                // Audio is stopping
+                break;
+            }
+            else if (frame < 0) {
+                continue;
+            }
+
+            int offset = (frame & 0xFF) * slotSize;
+            ringBuffer.clear();
+            ringBuffer.position(offset);
+            ringBuffer.limit(offset + (frame >>> 8));
+
+            while (ringBuffer.hasRemaining()) {
+                int ret = track.write(ringBuffer, ringBuffer.remaining(), AudioTrack.WRITE_NON_BLOCKING);
+                if (ret < 0) {
+                    LimeLog.warning("AudioTrack write failed: "+ret);
+                    break;
+                }
+
+                if (ringBuffer.hasRemaining()) {
+                    // The track is full, so wait for some of it to play out
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+
+            MoonBridge.releaseAudioFrame();
+        }
+    }
+
     @Override
     public void playDecodedAudio(short[] audioData) {
         // Only queue up to 40 ms of pending audio data in addition to what AudioTrack is buffering for us.
-        if (MoonBridge.getPendingAudioDuration() < 40) {
+        if (MoonBridge.getPendingAudioDuration() < MAX_PENDING_AUDIO_MS) {
             // This will block until the write is completed. That can cause a backlog
             // of pending audio data, so we do the above check to be able to bound
             // latency at 40 ms in that situation.
@@ -203,10 +328,30 @@ public class AndroidAudioRenderer implements AudioRenderer {
     }
 
     @Override
-    public void start() {}
+    public void start() {
+        if (useDirectBuffer) {
+            playbackThread = new Thread() {
+                @Override
+                public void run() {
+                    renderFromRingBuffer();
+                }
+            };
+            playbackThread.setName("Audio - Renderer");
+            playbackThread.setPriority(Thread.MAX_PRIORITY);
+            playbackThread.start();
+        }
+    }
 
     @Override
-    public void stop() {}
+    public void stop() {
+        if (playbackThread != null) {
+            playbackThread.interrupt();
+            try {
+                playbackThread.join();
+            } catch (InterruptedException ignored) {}
+            playbackThread = null;
+        }
+    }
 
     @Override
     public void cleanup() {
@@ -32,6 +32,7 @@ import com.limelight.ui.GameGestures;
 import com.limelight.utils.Vector2d;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -49,10 +50,13 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
     private static final int EMULATED_SPECIAL_UP_DELAY_MS = 100;
     private static final int EMULATED_SELECT_UP_DELAY_MS = 30;
 
+    private static final int MAX_CONTROLLERS = 4;
+
     private final Vector2d inputVector = new Vector2d();
 
     private final SparseArray<InputDeviceContext> inputDeviceContexts = new SparseArray<>();
     private final SparseArray<UsbDeviceContext> usbDeviceContexts = new SparseArray<>();
+    private final ControllerState[] controllerStates = new ControllerState[MAX_CONTROLLERS];
 
     private final NvConnection conn;
     private final Activity activityContext;
@@ -122,6 +126,11 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         // most likely case.
         defaultContext.ignoreBack = true;
 
+        for (int i = 0; i < controllerStates.length; i++) {
+            controllerStates[i] = new ControllerState();
+        }
+        controllerStates[0].addMember(defaultContext);
+
         // Get the initially attached set of gamepads. As each gamepad receives
         // its initial InputEvent, we will move these from this set onto the
         // currentControllers set which will allow them to properly unplug
@@ -187,6 +196,11 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         newContext.reservedControllerNumber = existingContext.reservedControllerNumber;
         newContext.controllerNumber = existingContext.controllerNumber;
 
+        // The new context takes over the old one's share of the controller state
+        if (existingContext.assignedControllerNumber) {
+            controllerStates[existingContext.controllerNumber].replaceMember(existingContext, newContext);
+        }
+
         inputDeviceContexts.put(deviceId, newContext);
     }
 
@@ -302,7 +316,9 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         // We must do this after clearing the currentControllers entry so this
         // causes the device to be removed on the server PC.
         if (context.assignedControllerNumber) {
-            conn.sendControllerInput(context.controllerNumber, getActiveControllerMask(),
+            controllerStates[context.controllerNumber].removeMember(context);
+
+            sendControllerState(context.controllerNumber, getActiveControllerMask(),
                     (short) 0,
                     (byte) 0, (byte) 0,
                     (short) 0, (short) 0,
@@ -375,6 +391,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
         LimeLog.info("Assigned as controller "+context.controllerNumber);
         context.assignedControllerNumber = true;
+        controllerStates[context.controllerNumber].addMember(context);
     }
 
     private UsbDeviceContext createUsbDeviceContextForDevice(AbstractController device) {
@@ -813,57 +830,19 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
     private void sendControllerInputPacket(GenericControllerContext originalContext) {
         assignControllerNumberIfNeeded(originalContext);
 
-        // Take the context's controller number and fuse all inputs with the same number
         short controllerNumber = originalContext.controllerNumber;
-        short inputMap = 0;
-        byte leftTrigger = 0;
-        byte rightTrigger = 0;
-        short leftStickX = 0;
-        short leftStickY = 0;
-        short rightStickX = 0;
-        short rightStickY = 0;
+        ControllerState state = controllerStates[controllerNumber];
 
-        // In order to properly handle controllers that are split into multiple devices,
-        // we must aggregate all controllers with the same controller number into a single
-        // device before we send it.
-        for (int i = 0; i < inputDeviceContexts.size(); i++) {
-            GenericControllerContext context = inputDeviceContexts.valueAt(i);
-            if (context.assignedControllerNumber &&
-                    context.controllerNumber == controllerNumber &&
-                    context.mouseEmulationActive == originalContext.mouseEmulationActive) {
-                inputMap |= context.inputMap;
-                leftTrigger |= maxByMagnitude(leftTrigger, context.leftTrigger);
-                rightTrigger |= maxByMagnitude(rightTrigger, context.rightTrigger);
-                leftStickX |= maxByMagnitude(leftStickX, context.leftStickX);
-                leftStickY |= maxByMagnitude(leftStickY, context.leftStickY);
-                rightStickX |= maxByMagnitude(rightStickX, context.rightStickX);
-                rightStickY |= maxByMagnitude(rightStickY, context.rightStickY);
-            }
-        }
-        for (int i = 0; i < usbDeviceContexts.size(); i++) {
-            GenericControllerContext context = usbDeviceContexts.valueAt(i);
-            if (context.assignedControllerNumber &&
-                    context.controllerNumber == controllerNumber &&
-                    context.mouseEmulationActive == originalContext.mouseEmulationActive) {
-                inputMap |= context.inputMap;
-                leftTrigger |= maxByMagnitude(leftTrigger, context.leftTrigger);
-                rightTrigger |= maxByMagnitude(rightTrigger, context.rightTrigger);
-                leftStickX |= maxByMagnitude(leftStickX, context.leftStickX);
-                leftStickY |= maxByMagnitude(leftStickY, context.leftStickY);
-                rightStickX |= maxByMagnitude(rightStickX, context.rightStickX);
-                rightStickY |= maxByMagnitude(rightStickY, context.rightStickY);
-            }
+        // Only fuse the inputs again if something that feeds into them has changed
+        if (originalContext.updateReportedState()) {
+            state.dirty = true;
         }
-        if (defaultContext.controllerNumber == controllerNumber) {
-            inputMap |= defaultContext.inputMap;
-            leftTrigger |= maxByMagnitude(leftTrigger, defaultContext.leftTrigger);
-            rightTrigger |= maxByMagnitude(rightTrigger, defaultContext.rightTrigger);
-            leftStickX |= maxByMagnitude(leftStickX, defaultContext.leftStickX);
-            leftStickY |= maxByMagnitude(leftStickY, defaultContext.leftStickY);
-            rightStickX |= maxByMagnitude(rightStickX, defaultContext.rightStickX);
-            rightStickY |= maxByMagnitude(rightStickY, defaultContext.rightStickY);
+        if (state.dirty || state.mouseEmulationActive != originalContext.mouseEmulationActive) {
+            aggregateControllerState(state, originalContext.mouseEmulationActive);
         }
 
+        short inputMap = state.inputMap;
+
         if (originalContext.mouseEmulationActive) {
             int changedMask = inputMap ^  originalContext.mouseEmulationLastInputMap;
 
@@ -899,18 +878,91 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
                 }
             }
 
-            conn.sendControllerInput(controllerNumber, getActiveControllerMask(),
+            sendControllerState(controllerNumber, getActiveControllerMask(),
                     (short)0, (byte)0, (byte)0, (short)0, (short)0, (short)0, (short)0);
         }
         else {
-            conn.sendControllerInput(controllerNumber, getActiveControllerMask(),
+            sendControllerState(controllerNumber, getActiveControllerMask(),
                     inputMap,
-                    leftTrigger, rightTrigger,
-                    leftStickX, leftStickY,
-                    rightStickX, rightStickY);
+                    state.leftTrigger, state.rightTrigger,
+                    state.leftStickX, state.leftStickY,
+                    state.rightStickX, state.rightStickY);
         }
     }
 
+    // In order to properly handle controllers that are split into multiple devices,
+    // we must aggregate all contexts with the same controller number into a single
+    // device before we send it.
+    private void aggregateControllerState(ControllerState state, boolean mouseEmulationActive) {
+        short inputMap = 0;
+        byte leftTrigger = 0;
+        byte rightTrigger = 0;
+        short leftStickX = 0;
+        short leftStickY = 0;
+        short rightStickX = 0;
+        short rightStickY = 0;
+
+        for (int i = 0; i < state.members.size(); i++) {
+            GenericControllerContext context = state.members.get(i);
+            if (context == defaultContext || context.mouseEmulationActive == mouseEmulationActive) {
+                inputMap |= context.inputMap;
+                leftTrigger |= maxByMagnitude(leftTrigger, context.leftTrigger);
+                rightTrigger |= maxByMagnitude(rightTrigger, context.rightTrigger);
+                leftStickX |= maxByMagnitude(leftStickX, context.leftStickX);
+                leftStickY |= maxByMagnitude(leftStickY, context.leftStickY);
+                rightStickX |= maxByMagnitude(rightStickX, context.rightStickX);
+                rightStickY |= maxByMagnitude(rightStickY, context.rightStickY);
+            }
+        }
+
+        state.inputMap = inputMap;
+        state.leftTrigger = leftTrigger;
+        state.rightTrigger = rightTrigger;
+        state.leftStickX = leftStickX;
+        state.leftStickY = leftStickY;
+        state.rightStickX = rightStickX;
+        state.rightStickY = rightStickY;
+        state.mouseEmulationActive = mouseEmulationActive;
+        state.dirty = false;
+    }
+
+    // Drops packets that wouldn't change anything on the host, like repeated
+    // stick events that fall within the deadzone
+    private void sendControllerState(short controllerNumber, short activeGamepadMask,
+                                     short inputMap,
+                                     byte leftTrigger, byte rightTrigger,
+                                     short leftStickX, short leftStickY,
+                                     short rightStickX, short rightStickY) {
+        ControllerState state = controllerStates[controllerNumber];
+        if (state.sentState &&
+                state.sentActiveGamepadMask == activeGamepadMask &&
+                state.sentInputMap == inputMap &&
+                state.sentLeftTrigger == leftTrigger &&
+                state.sentRightTrigger == rightTrigger &&
+                state.sentLeftStickX == leftStickX &&
+                state.sentLeftStickY == leftStickY &&
+                state.sentRightStickX == rightStickX &&
+                state.sentRightStickY == rightStickY) {
+            return;
+        }
+
+        state.sentState = true;
+        state.sentActiveGamepadMask = activeGamepadMask;
+        state.sentInputMap = inputMap;
+        state.sentLeftTrigger = leftTrigger;
+        state.sentRightTrigger = rightTrigger;
+        state.sentLeftStickX = leftStickX;
+        state.sentLeftStickY = leftStickY;
+        state.sentRightStickX = rightStickX;
+        state.sentRightStickY = rightStickY;
+
+        conn.sendControllerInput(controllerNumber, activeGamepadMask,
+                inputMap,
+                leftTrigger, rightTrigger,
+                leftStickX, leftStickY,
+                rightStickX, rightStickY);
+    }
+
     // Return a valid keycode, 0 to consume, or -1 to not consume the event
     // Device MAY BE NULL
     private int handleRemapping(InputDeviceContext context, KeyEvent event) {
@@ -1299,6 +1351,10 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         }
 
         context.mouseEmulationActive = !context.mouseEmulationActive;
+        if (context.assignedControllerNumber) {
+            // This changes which contexts are fused together
+            controllerStates[context.controllerNumber].dirty = true;
+        }
         Toast.makeText(activityContext, "Mouse emulation is: " + (context.mouseEmulationActive ? "ON" : "OFF"), Toast.LENGTH_SHORT).show();
 
         if (context.mouseEmulationActive) {
@@ -1879,6 +1935,34 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         public Timer mouseEmulationTimer;
         public short mouseEmulationLastInputMap;
 
+        // The state last folded into the controller state
+        private short reportedInputMap;
+        private byte reportedLeftTrigger, reportedRightTrigger;
+        private short reportedLeftStickX, reportedLeftStickY;
+        private short reportedRightStickX, reportedRightStickY;
+
+        // Returns true if the input state has changed since the last call
+        public boolean updateReportedState() {
+            if (reportedInputMap == inputMap &&
+                    reportedLeftTrigger == leftTrigger &&
+                    reportedRightTrigger == rightTrigger &&
+                    reportedLeftStickX == leftStickX &&
+                    reportedLeftStickY == leftStickY &&
+                    reportedRightStickX == rightStickX &&
+                    reportedRightStickY == rightStickY) {
+                return false;
+            }
+
+            reportedInputMap = inputMap;
+            reportedLeftTrigger = leftTrigger;
+            reportedRightTrigger = rightTrigger;
+            reportedLeftStickX = leftStickX;
+            reportedLeftStickY = leftStickY;
+            reportedRightStickX = rightStickX;
+            reportedRightStickY = rightStickY;
+            return true;
+        }
+
         public void destroy() {
             if (mouseEmulationTimer != null) {
                 mouseEmulationTimer.cancel();
@@ -1887,6 +1971,50 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         }
     }
 
+    // The fused input of every context assigned to a controller number. This is kept up to
+    // date as contexts change, so sending a packet doesn't need to look at every device.
+    static class ControllerState {
+        public final ArrayList<GenericControllerContext> members = new ArrayList<>();
+
+        // Set when a member's input or the set of members has changed
+        public boolean dirty = true;
+        public boolean mouseEmulationActive;
+
+        public short inputMap;
+        public byte leftTrigger, rightTrigger;
+        public short leftStickX, leftStickY;
+        public short rightStickX, rightStickY;
+
+        // The last packet sent to the host for this controller
+        public boolean sentState;
+        public short sentActiveGamepadMask;
+        public short sentInputMap;
+        public byte sentLeftTrigger, sentRightTrigger;
+        public short sentLeftStickX, sentLeftStickY;
+        public short sentRightStickX, sentRightStickY;
+
+        public void addMember(GenericControllerContext context) {
+            members.add(context);
+            dirty = true;
+        }
+
+        public void removeMember(GenericControllerContext context) {
+            members.remove(context);
+            dirty = true;
+        }
+
+        public void replaceMember(GenericControllerContext oldContext, GenericControllerContext newContext) {
+            int index = members.indexOf(oldContext);
+            if (index >= 0) {
+                members.set(index, newContext);
+            }
+            else {
+                members.add(newContext);
+            }
+            dirty = true;
+        }
+    }
+
     class InputDeviceContext extends GenericControllerContext {
         public String name;
         public VibratorManager vibratorManager;
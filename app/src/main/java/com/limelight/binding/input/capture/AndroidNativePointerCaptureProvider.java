@@ -67,4 +67,24 @@ public class AndroidNativePointerCaptureProvider extends AndroidPointerIconCaptu
         }
         return y;
     }
+
+    @Override
+    public float getRelativeAxisX(MotionEvent event, int historyPos) {
+        int axis = (event.getSource() == InputDevice.SOURCE_MOUSE_RELATIVE) ?
+                MotionEvent.AXIS_X : MotionEvent.AXIS_RELATIVE_X;
+        if (historyPos < event.getHistorySize()) {
+            return event.getHistoricalAxisValue(axis, historyPos);
+        }
+        return event.getAxisValue(axis);
+    }
+
+    @Override
+    public float getRelativeAxisY(MotionEvent event, int historyPos) {
+        int axis = (event.getSource() == InputDevice.SOURCE_MOUSE_RELATIVE) ?
+                MotionEvent.AXIS_Y : MotionEvent.AXIS_RELATIVE_Y;
+        if (historyPos < event.getHistorySize()) {
+            return event.getHistoricalAxisValue(axis, historyPos);
+        }
+        return event.getAxisValue(axis);
+    }
 }
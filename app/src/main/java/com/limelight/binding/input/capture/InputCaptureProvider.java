@@ -33,4 +33,14 @@ public abstract class InputCaptureProvider {
     public float getRelativeAxisY(MotionEvent event) {
         return 0;
     }
+
+    // These return the motion of a single sample rather than the whole event. Positions
+    // below getHistorySize() are historical samples and getHistorySize() is the current one.
+    public float getRelativeAxisX(MotionEvent event, int historyPos) {
+        return 0;
+    }
+
+    public float getRelativeAxisY(MotionEvent event, int historyPos) {
+        return 0;
+    }
 }
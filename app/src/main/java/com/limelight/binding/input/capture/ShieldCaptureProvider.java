@@ -90,4 +90,20 @@ public class ShieldCaptureProvider extends InputCaptureProvider {
     public float getRelativeAxisY(MotionEvent event) {
         return event.getAxisValue(AXIS_RELATIVE_Y);
     }
+
+    @Override
+    public float getRelativeAxisX(MotionEvent event, int historyPos) {
+        if (historyPos < event.getHistorySize()) {
+            return event.getHistoricalAxisValue(AXIS_RELATIVE_X, historyPos);
+        }
+        return event.getAxisValue(AXIS_RELATIVE_X);
+    }
+
+    @Override
+    public float getRelativeAxisY(MotionEvent event, int historyPos) {
+        if (historyPos < event.getHistorySize()) {
+            return event.getHistoricalAxisValue(AXIS_RELATIVE_Y, historyPos);
+        }
+        return event.getAxisValue(AXIS_RELATIVE_Y);
+    }
 }
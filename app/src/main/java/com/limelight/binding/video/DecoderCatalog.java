@@ -0,0 +1,308 @@
+package com.limelight.binding.video;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+
+import com.limelight.BuildConfig;
+import com.limelight.LimeLog;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+// Everything we know about the device's decoders. The MediaCodecList is only enumerated
+// once per process, and each decoder's capabilities and quirk decisions are persisted,
+// so later launches on the same build and GPU don't need to query every codec again.
+class DecoderCatalog {
+    private static final String PREF_NAME = "DecoderCatalog";
+
+    private static final String FINGERPRINT_PREF_STRING = "Fingerprint";
+    private static final String GL_RENDERER_PREF_STRING = "Renderer";
+    private static final String APP_VERSION_PREF_STRING = "AppVersion";
+    private static final String EXYNOS4_PREF_STRING = "Exynos4";
+    private static final String DECODERS_PREF_STRING = "Decoders";
+
+    static final int LOW_LATENCY_VENDOR_NONE = 0;
+    static final int LOW_LATENCY_VENDOR_QUALCOMM = 1;
+    static final int LOW_LATENCY_VENDOR_KIRIN = 2;
+    static final int LOW_LATENCY_VENDOR_EXYNOS = 3;
+
+    private static List<MediaCodecInfo> codecInfos;
+
+    static class TypeCapabilities {
+        final String mimeType;
+
+        // Set if getCapabilitiesForType() threw for this type
+        boolean broken;
+        boolean lowLatency;
+        boolean adaptivePlayback;
+        int[] profiles = new int[0];
+
+        TypeCapabilities(String mimeType) {
+            this.mimeType = mimeType;
+        }
+
+        boolean supportsProfile(int profile) {
+            for (int supportedProfile : profiles) {
+                if (supportedProfile == profile) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private JSONObject toJson() throws JSONException {
+            JSONArray profileArray = new JSONArray();
+            for (int profile : profiles) {
+                profileArray.put(profile);
+            }
+
+            return new JSONObject()
+                    .put("mime", mimeType)
+                    .put("broken", broken)
+                    .put("lowLatency", lowLatency)
+                    .put("adaptivePlayback", adaptivePlayback)
+                    .put("profiles", profileArray);
+        }
+
+        private static TypeCapabilities fromJson(JSONObject json) throws JSONException {
+            TypeCapabilities caps = new TypeCapabilities(json.getString("mime"));
+            caps.broken = json.getBoolean("broken");
+            caps.lowLatency = json.getBoolean("lowLatency");
+            caps.adaptivePlayback = json.getBoolean("adaptivePlayback");
+
+            JSONArray profileArray = json.getJSONArray("profiles");
+            caps.profiles = new int[profileArray.length()];
+            for (int i = 0; i < profileArray.length(); i++) {
+                caps.profiles[i] = profileArray.getInt(i);
+            }
+            return caps;
+        }
+    }
+
+    static class Decoder {
+        final String name;
+
+        // Attached once the decoder is found in this process's MediaCodecList
+        MediaCodecInfo info;
+
+        boolean alias;
+        boolean blacklisted;
+        boolean directSubmit;
+        boolean spsBitstreamFixup;
+        boolean baselineSpsHack;
+        boolean constrainedHighProfile;
+        boolean adaptivePlaybackBlacklisted;
+        boolean blacklisted49Fps;
+        boolean blacklisted59Fps;
+        boolean refFrameInvalidationAvc;
+        boolean refFrameInvalidationHevc;
+        boolean hevcWhitelisted;
+        boolean hevcDeprioritized;
+        boolean maxOperatingRate;
+        int lowLatencyVendor = LOW_LATENCY_VENDOR_NONE;
+
+        private final HashMap<String, TypeCapabilities> types = new HashMap<>();
+
+        Decoder(String name) {
+            this.name = name;
+        }
+
+        void addType(TypeCapabilities caps) {
+            types.put(caps.mimeType.toLowerCase(Locale.ENGLISH), caps);
+        }
+
+        // Returns null if the decoder doesn't support this type
+        TypeCapabilities getType(String mimeType) {
+            return types.get(mimeType.toLowerCase(Locale.ENGLISH));
+        }
+
+        private JSONObject toJson() throws JSONException {
+            JSONArray typeArray = new JSONArray();
+            for (TypeCapabilities caps : types.values()) {
+                typeArray.put(caps.toJson());
+            }
+
+            return new JSONObject()
+                    .put("name", name)
+                    .put("alias", alias)
+                    .put("blacklisted", blacklisted)
+                    .put("directSubmit", directSubmit)
+                    .put("spsBitstreamFixup", spsBitstreamFixup)
+                    .put("baselineSpsHack", baselineSpsHack)
+                    .put("constrainedHighProfile", constrainedHighProfile)
+                    .put("adaptivePlaybackBlacklisted", adaptivePlaybackBlacklisted)
+                    .put("blacklisted49Fps", blacklisted49Fps)
+                    .put("blacklisted59Fps", blacklisted59Fps)
+                    .put("refFrameInvalidationAvc", refFrameInvalidationAvc)
+                    .put("refFrameInvalidationHevc", refFrameInvalidationHevc)
+                    .put("hevcWhitelisted", hevcWhitelisted)
+                    .put("hevcDeprioritized", hevcDeprioritized)
+                    .put("maxOperatingRate", maxOperatingRate)
+                    .put("lowLatencyVendor", lowLatencyVendor)
+                    .put("types", typeArray);
+        }
+
+        private static Decoder fromJson(JSONObject json) throws JSONException {
+            Decoder decoder = new Decoder(json.getString("name"));
+            decoder.alias = json.getBoolean("alias");
+            decoder.blacklisted = json.getBoolean("blacklisted");
+            decoder.directSubmit = json.getBoolean("directSubmit");
+            decoder.spsBitstreamFixup = json.getBoolean("spsBitstreamFixup");
+            decoder.baselineSpsHack = json.getBoolean("baselineSpsHack");
+            decoder.constrainedHighProfile = json.getBoolean("constrainedHighProfile");
+            decoder.adaptivePlaybackBlacklisted = json.getBoolean("adaptivePlaybackBlacklisted");
+            decoder.blacklisted49Fps = json.getBoolean("blacklisted49Fps");
+            decoder.blacklisted59Fps = json.getBoolean("blacklisted59Fps");
+            decoder.refFrameInvalidationAvc = json.getBoolean("refFrameInvalidationAvc");
+            decoder.refFrameInvalidationHevc = json.getBoolean("refFrameInvalidationHevc");
+            decoder.hevcWhitelisted = json.getBoolean("hevcWhitelisted");
+            decoder.hevcDeprioritized = json.getBoolean("hevcDeprioritized");
+            decoder.maxOperatingRate = json.getBoolean("maxOperatingRate");
+            decoder.lowLatencyVendor = json.getInt("lowLatencyVendor");
+
+            JSONArray typeArray = json.getJSONArray("types");
+            for (int i = 0; i < typeArray.length(); i++) {
+                decoder.addType(TypeCapabilities.fromJson(typeArray.getJSONObject(i)));
+            }
+            return decoder;
+        }
+    }
+
+    // Decoders in MediaCodecList order
+    private final ArrayList<Decoder> decoders = new ArrayList<>();
+    private final HashMap<String, Decoder> decodersByName = new HashMap<>();
+    private boolean exynos4;
+
+    private DecoderCatalog() {}
+
+    @SuppressWarnings("deprecation")
+    @SuppressLint("NewApi")
+    static synchronized List<MediaCodecInfo> getCodecInfos() {
+        if (codecInfos == null) {
+            ArrayList<MediaCodecInfo> infoList = new ArrayList<>();
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                MediaCodecList mcl = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+                Collections.addAll(infoList, mcl.getCodecInfos());
+            }
+            else {
+                for (int i = 0; i < MediaCodecList.getCodecCount(); i++) {
+                    infoList.add(MediaCodecList.getCodecInfoAt(i));
+                }
+            }
+
+            codecInfos = Collections.unmodifiableList(infoList);
+        }
+
+        return codecInfos;
+    }
+
+    // The decisions depend on our quirk lists, the OS build, and the GPU, so the
+    // persisted catalog is only trusted if none of those have changed.
+    static DecoderCatalog load(Context context, String glRenderer) {
+        SharedPreferences prefs = context.getSharedPreferences(PREF_NAME, 0);
+        DecoderCatalog catalog = new DecoderCatalog();
+
+        boolean cacheValid = Build.FINGERPRINT.equals(prefs.getString(FINGERPRINT_PREF_STRING, null)) &&
+                glRenderer.equals(prefs.getString(GL_RENDERER_PREF_STRING, null)) &&
+                prefs.getInt(APP_VERSION_PREF_STRING, -1) == BuildConfig.VERSION_CODE;
+
+        HashMap<String, Decoder> cachedDecoders = new HashMap<>();
+        if (cacheValid) {
+            try {
+                JSONArray decoderArray = new JSONArray(prefs.getString(DECODERS_PREF_STRING, "[]"));
+                for (int i = 0; i < decoderArray.length(); i++) {
+                    Decoder decoder = Decoder.fromJson(decoderArray.getJSONObject(i));
+                    cachedDecoders.put(decoder.name, decoder);
+                }
+            } catch (JSONException e) {
+                e.printStackTrace();
+                cachedDecoders.clear();
+                cacheValid = false;
+            }
+        }
+
+        boolean dirty = !cacheValid;
+        for (MediaCodecInfo codecInfo : getCodecInfos()) {
+            // Skip encoders
+            if (codecInfo.isEncoder()) {
+                continue;
+            }
+
+            Decoder decoder = cachedDecoders.get(codecInfo.getName());
+            if (decoder == null) {
+                decoder = MediaCodecHelper.evaluateDecoder(codecInfo);
+                dirty = true;
+            }
+
+            decoder.info = codecInfo;
+            catalog.decoders.add(decoder);
+            catalog.decodersByName.put(decoder.name, decoder);
+        }
+
+        // Drop any decoders that have disappeared since we saved the catalog
+        if (cachedDecoders.size() != catalog.decoders.size()) {
+            dirty = true;
+        }
+
+        if (cacheValid) {
+            catalog.exynos4 = prefs.getBoolean(EXYNOS4_PREF_STRING, false);
+        }
+        else {
+            catalog.exynos4 = MediaCodecHelper.probeExynos4Device();
+        }
+
+        if (dirty) {
+            LimeLog.info("Saving decoder catalog with "+catalog.decoders.size()+" decoders");
+            catalog.save(prefs, glRenderer);
+        }
+        else {
+            LimeLog.info("Loaded decoder catalog with "+catalog.decoders.size()+" decoders");
+        }
+
+        return catalog;
+    }
+
+    private void save(SharedPreferences prefs, String glRenderer) {
+        JSONArray decoderArray = new JSONArray();
+        try {
+            for (Decoder decoder : decoders) {
+                decoderArray.put(decoder.toJson());
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        prefs.edit()
+                .putString(FINGERPRINT_PREF_STRING, Build.FINGERPRINT)
+                .putString(GL_RENDERER_PREF_STRING, glRenderer)
+                .putInt(APP_VERSION_PREF_STRING, BuildConfig.VERSION_CODE)
+                .putBoolean(EXYNOS4_PREF_STRING, exynos4)
+                .putString(DECODERS_PREF_STRING, decoderArray.toString())
+                .apply();
+    }
+
+    List<Decoder> getDecoders() {
+        return decoders;
+    }
+
+    Decoder getDecoder(String decoderName) {
+        return decodersByName.get(decoderName);
+    }
+
+    boolean isExynos4() {
+        return exynos4;
+    }
+}
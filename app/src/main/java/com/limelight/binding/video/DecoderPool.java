@@ -0,0 +1,136 @@
+package com.limelight.binding.video;
+
+import android.annotation.TargetApi;
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Surface;
+
+import com.limelight.LimeLog;
+
+// Keeps the last decoder alive for a short time after a stream ends, so a quick
+// reconnect (like after a Wi-Fi roam) with the same format can skip allocating and
+// configuring a new codec. Parked decoders are flushed and pointed at a placeholder
+// surface, since the stream's surface goes away with its activity. Switching output
+// surfaces requires Marshmallow.
+@TargetApi(Build.VERSION_CODES.M)
+class DecoderPool {
+    private static final long GRACE_PERIOD_MS = 10000;
+
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+
+    private static MediaCodec parkedDecoder;
+    private static String parkedDecoderName;
+    private static String parkedFormat;
+    private static SurfaceTexture placeholderTexture;
+    private static Surface placeholderSurface;
+
+    private static final Runnable expiry = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (DecoderPool.class) {
+                if (parkedDecoder != null) {
+                    LimeLog.info("Releasing unused pooled decoder: "+parkedDecoderName);
+                    releaseParked();
+                }
+            }
+        }
+    };
+
+    // Formats are built the same way for the same stream parameters, so
+    // identical string forms mean the decoder was configured identically.
+    private static String describeFormat(MediaFormat format) {
+        return format.toString();
+    }
+
+    // Must be called with the class lock held
+    private static void releaseParked() {
+        handler.removeCallbacks(expiry);
+
+        if (parkedDecoder != null) {
+            try {
+                parkedDecoder.release();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        parkedDecoder = null;
+        parkedDecoderName = null;
+        parkedFormat = null;
+
+        if (placeholderSurface != null) {
+            placeholderSurface.release();
+            placeholderSurface = null;
+        }
+        if (placeholderTexture != null) {
+            placeholderTexture.release();
+            placeholderTexture = null;
+        }
+    }
+
+    // Takes ownership of a started decoder that is no longer needed. It's released
+    // immediately if it can't be parked.
+    static synchronized void park(MediaCodec decoder, String decoderName, MediaFormat configuredFormat) {
+        // We only keep one decoder around
+        releaseParked();
+
+        try {
+            placeholderTexture = new SurfaceTexture(0);
+            placeholderSurface = new Surface(placeholderTexture);
+
+            // Drop any pending buffers and detach from the stream's surface
+            decoder.flush();
+            decoder.setOutputSurface(placeholderSurface);
+        } catch (Exception e) {
+            e.printStackTrace();
+            parkedDecoder = decoder;
+            releaseParked();
+            return;
+        }
+
+        parkedDecoder = decoder;
+        parkedDecoderName = decoderName;
+        parkedFormat = describeFormat(configuredFormat);
+        handler.postDelayed(expiry, GRACE_PERIOD_MS);
+
+        LimeLog.info("Parked decoder for reuse: "+decoderName);
+    }
+
+    static synchronized boolean hasDecoder(String decoderName) {
+        return parkedDecoder != null && parkedDecoderName.equals(decoderName);
+    }
+
+    // Returns a started decoder rendering to the given surface or null if we
+    // don't have one that was configured identically
+    static synchronized MediaCodec take(String decoderName, MediaFormat format, Surface surface) {
+        if (parkedDecoder == null) {
+            return null;
+        }
+
+        if (!parkedDecoderName.equals(decoderName) || !parkedFormat.equals(describeFormat(format))) {
+            // This decoder won't be useful for the new stream, so free it now
+            LimeLog.info("Pooled decoder doesn't match the new stream");
+            releaseParked();
+            return null;
+        }
+
+        MediaCodec decoder = parkedDecoder;
+        try {
+            decoder.setOutputSurface(surface);
+        } catch (Exception e) {
+            e.printStackTrace();
+            releaseParked();
+            return null;
+        }
+
+        // The decoder is now owned by the caller
+        parkedDecoder = null;
+        releaseParked();
+
+        LimeLog.info("Reusing pooled decoder: "+decoderName);
+        return decoder;
+    }
+}
@@ -0,0 +1,41 @@
+package com.limelight.binding.video;
+
+import android.os.Build;
+
+import com.limelight.LimeLog;
+import com.limelight.preferences.PreferenceConfiguration;
+
+abstract class FramePacer {
+    protected final MediaCodecDecoderRenderer renderer;
+
+    FramePacer(MediaCodecDecoderRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    static FramePacer create(MediaCodecDecoderRenderer renderer, int framePacing, boolean legacyFrameDropRendering) {
+        // The V-sync aligned strategies require timestamped output buffer release
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            switch (framePacing) {
+                case PreferenceConfiguration.FRAME_PACING_VSYNC:
+                    LimeLog.info("Using V-sync aligned frame pacing");
+                    return new VsyncFramePacer(renderer, 1);
+                case PreferenceConfiguration.FRAME_PACING_BALANCED:
+                    LimeLog.info("Using balanced frame pacing");
+                    return new VsyncFramePacer(renderer, 2);
+                default:
+                    break;
+            }
+        }
+
+        return new LowestLatencyFramePacer(renderer, legacyFrameDropRendering);
+    }
+
+    void start() {}
+
+    void stop() {}
+
+    // This is called in decode order on the thread receiving decoder output. The pacer takes
+    // ownership of the output buffer and must eventually render or drop it via the renderer.
+    // moreFramesPending is set if a newer frame is already waiting behind this one.
+    abstract void onFrameDecoded(int bufferIndex, long presentationTimeUs, boolean moreFramesPending);
+}
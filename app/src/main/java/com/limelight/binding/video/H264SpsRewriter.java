@@ -0,0 +1,427 @@
+package com.limelight.binding.video;
+
+import java.util.Arrays;
+
+// Applies our H.264 SPS fixups directly on the bitstream. The host sends the same SPS
+// with every IDR frame, so patched results are cached by their raw bytes and repeated
+// SPS NALUs (like during recovery from packet loss) don't need to be parsed again.
+//
+// The fixed-position fields (profile, constraint flags, and level) are edited in place.
+// Everything after them is copied bit-for-bit except the Exp-Golomb and VUI fields we
+// change, since those can change the length of the rest of the SPS.
+class H264SpsRewriter {
+    private static final int MAX_CACHED_SPS = 4;
+
+    private static final int NALU_HEADER_LENGTH = 5;
+
+    // A value of -1 leaves the field alone
+    private final int levelIdc;
+    private final int numRefFrames;
+    private final boolean stripVideoSignalInfo;
+    private final boolean bitstreamRestrictions;
+    private final boolean constrainedHighProfile;
+
+    private final byte[][] cachedInputs = new byte[MAX_CACHED_SPS][];
+    private final byte[][] cachedOutputs = new byte[MAX_CACHED_SPS][];
+    private int nextCacheSlot;
+
+    private byte[] inputRbsp = new byte[64];
+    private int inputRbspLength;
+    private int readBitOffset;
+
+    private byte[] outputRbsp = new byte[64];
+    private int writeBitOffset;
+
+    static class SpsFormatException extends Exception {
+        SpsFormatException(String message) {
+            super(message);
+        }
+    }
+
+    H264SpsRewriter(int levelIdc, int numRefFrames, boolean stripVideoSignalInfo,
+                    boolean bitstreamRestrictions, boolean constrainedHighProfile) {
+        this.levelIdc = levelIdc;
+        this.numRefFrames = numRefFrames;
+        this.stripVideoSignalInfo = stripVideoSignalInfo;
+        this.bitstreamRestrictions = bitstreamRestrictions;
+        this.constrainedHighProfile = constrainedHighProfile;
+    }
+
+    // Returns the patched SPS (including the Annex B start code and NALU header) or null
+    // if this SPS hasn't been rewritten before. The returned array must not be modified.
+    byte[] getCached(byte[] sps, int length) {
+        for (int i = 0; i < MAX_CACHED_SPS; i++) {
+            byte[] cachedInput = cachedInputs[i];
+            if (cachedInput != null && cachedInput.length == length && regionEquals(cachedInput, sps, length)) {
+                return cachedOutputs[i];
+            }
+        }
+        return null;
+    }
+
+    void putCached(byte[] sps, int length, byte[] patchedSps) {
+        cachedInputs[nextCacheSlot] = Arrays.copyOf(sps, length);
+        cachedOutputs[nextCacheSlot] = patchedSps;
+        nextCacheSlot = (nextCacheSlot + 1) % MAX_CACHED_SPS;
+    }
+
+    private static boolean regionEquals(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Throws SpsFormatException for SPS syntax we don't handle here (like scaling matrices)
+    // so the caller can fall back to the full SPS parser.
+    byte[] rewrite(byte[] sps, int length) throws SpsFormatException {
+        if (length <= NALU_HEADER_LENGTH) {
+            throw new SpsFormatException("SPS too short");
+        }
+
+        unescape(sps, NALU_HEADER_LENGTH, length);
+
+        readBitOffset = 0;
+        writeBitOffset = 0;
+        if (outputRbsp.length < inputRbspLength + 16) {
+            outputRbsp = new byte[inputRbspLength + 16];
+        }
+        else {
+            Arrays.fill(outputRbsp, (byte) 0);
+        }
+
+        int profileIdc = copyBits(8);
+
+        // Constraint flags 4 & 5 are only set for constrained high profile
+        int constraintFlags = readBits(8) & ~0x0C;
+        if (profileIdc == 100 && constrainedHighProfile) {
+            constraintFlags |= 0x0C;
+        }
+        writeBits(constraintFlags, 8);
+
+        int originalLevelIdc = readBits(8);
+        writeBits(levelIdc >= 0 ? levelIdc : originalLevelIdc, 8);
+
+        // seq_parameter_set_id
+        copyUe();
+
+        if (profileIdc == 100 || profileIdc == 110 || profileIdc == 122 || profileIdc == 244 ||
+                profileIdc == 44 || profileIdc == 83 || profileIdc == 86 || profileIdc == 118 ||
+                profileIdc == 128 || profileIdc == 138 || profileIdc == 139 || profileIdc == 134 ||
+                profileIdc == 135) {
+            // chroma_format_idc and separate_colour_plane_flag
+            if (copyUe() == 3) {
+                copyBits(1);
+            }
+
+            // bit_depth_luma_minus8, bit_depth_chroma_minus8, and qpprime_y_zero_transform_bypass_flag
+            copyUe();
+            copyUe();
+            copyBits(1);
+
+            if (copyBits(1) != 0) {
+                throw new SpsFormatException("Scaling matrices are not supported");
+            }
+        }
+
+        // log2_max_frame_num_minus4
+        copyUe();
+
+        long picOrderCntType = copyUe();
+        if (picOrderCntType == 0) {
+            // log2_max_pic_order_cnt_lsb_minus4
+            copyUe();
+        }
+        else if (picOrderCntType == 1) {
+            // delta_pic_order_always_zero_flag, offset_for_non_ref_pic, and offset_for_top_to_bottom_field
+            copyBits(1);
+            copyUe();
+            copyUe();
+
+            long cycleLength = copyUe();
+            if (cycleLength > 255) {
+                throw new SpsFormatException("Invalid num_ref_frames_in_pic_order_cnt_cycle");
+            }
+            for (int i = 0; i < cycleLength; i++) {
+                copyUe();
+            }
+        }
+
+        long refFrames = readUe();
+        if (numRefFrames >= 0) {
+            refFrames = numRefFrames;
+        }
+        writeUe(refFrames);
+
+        // gaps_in_frame_num_value_allowed_flag, pic_width_in_mbs_minus1, and pic_height_in_map_units_minus1
+        copyBits(1);
+        copyUe();
+        copyUe();
+
+        // frame_mbs_only_flag and mb_adaptive_frame_field_flag
+        if (copyBits(1) == 0) {
+            copyBits(1);
+        }
+
+        // direct_8x8_inference_flag
+        copyBits(1);
+
+        // frame_cropping_flag and the crop offsets
+        if (copyBits(1) != 0) {
+            copyUe();
+            copyUe();
+            copyUe();
+            copyUe();
+        }
+
+        if (copyBits(1) == 0) {
+            throw new SpsFormatException("SPS has no VUI parameters");
+        }
+
+        rewriteVui(refFrames);
+
+        // rbsp_trailing_bits
+        writeBits(1, 1);
+        int outputRbspLength = (writeBitOffset + 7) / 8;
+
+        return escape(sps, outputRbspLength);
+    }
+
+    private void rewriteVui(long refFrames) throws SpsFormatException {
+        // aspect_ratio_info_present_flag
+        if (copyBits(1) != 0) {
+            // Extended_SAR has the sample aspect ratio inline
+            if (copyBits(8) == 255) {
+                copyBits(16);
+                copyBits(16);
+            }
+        }
+
+        // overscan_info_present_flag
+        if (copyBits(1) != 0) {
+            copyBits(1);
+        }
+
+        // video_signal_type_present_flag
+        if (stripVideoSignalInfo) {
+            if (readBits(1) != 0) {
+                readBits(4);
+                if (readBits(1) != 0) {
+                    readBits(24);
+                }
+            }
+            writeBits(0, 1);
+        }
+        else if (copyBits(1) != 0) {
+            // video_format, video_full_range_flag, and colour description
+            copyBits(4);
+            if (copyBits(1) != 0) {
+                copyBits(24);
+            }
+        }
+
+        // chroma_loc_info_present_flag
+        if (stripVideoSignalInfo) {
+            if (readBits(1) != 0) {
+                readUe();
+                readUe();
+            }
+            writeBits(0, 1);
+        }
+        else if (copyBits(1) != 0) {
+            copyUe();
+            copyUe();
+        }
+
+        // timing_info_present_flag
+        if (copyBits(1) != 0) {
+            copyBits(32);
+            copyBits(32);
+            copyBits(1);
+        }
+
+        boolean nalHrd = copyBits(1) != 0;
+        if (nalHrd) {
+            copyHrdParameters();
+        }
+        boolean vclHrd = copyBits(1) != 0;
+        if (vclHrd) {
+            copyHrdParameters();
+        }
+        if (nalHrd || vclHrd) {
+            // low_delay_hrd_flag
+            copyBits(1);
+        }
+
+        // pic_struct_present_flag
+        copyBits(1);
+
+        // These are the values we use if the host didn't send bitstream restrictions
+        int motionVectorsOverPicBoundaries = 1;
+        long log2MaxMvLengthHorizontal = 16;
+        long log2MaxMvLengthVertical = 16;
+        long numReorderFrames = 0;
+
+        if (readBits(1) != 0) {
+            motionVectorsOverPicBoundaries = readBits(1);
+            readUe();
+            readUe();
+            log2MaxMvLengthHorizontal = readUe();
+            log2MaxMvLengthVertical = readUe();
+            numReorderFrames = readUe();
+            readUe();
+        }
+
+        if (bitstreamRestrictions) {
+            writeBits(1, 1);
+            writeBits(motionVectorsOverPicBoundaries, 1);
+
+            // max_bytes_per_pic_denom and max_bits_per_mb_denom are set to their defaults
+            writeUe(2);
+            writeUe(1);
+
+            writeUe(log2MaxMvLengthHorizontal);
+            writeUe(log2MaxMvLengthVertical);
+            writeUe(numReorderFrames);
+
+            // Some devices throw errors if max_dec_frame_buffering < num_ref_frames
+            writeUe(refFrames);
+        }
+        else {
+            writeBits(0, 1);
+        }
+    }
+
+    private void copyHrdParameters() throws SpsFormatException {
+        long cpbCount = copyUe() + 1;
+        if (cpbCount > 32) {
+            throw new SpsFormatException("Invalid cpb_cnt_minus1");
+        }
+
+        // bit_rate_scale and cpb_size_scale
+        copyBits(8);
+
+        for (int i = 0; i < cpbCount; i++) {
+            // bit_rate_value_minus1, cpb_size_value_minus1, and cbr_flag
+            copyUe();
+            copyUe();
+            copyBits(1);
+        }
+
+        // initial_cpb_removal_delay_length_minus1, cpb_removal_delay_length_minus1,
+        // dpb_output_delay_length_minus1, and time_offset_length
+        copyBits(20);
+    }
+
+    // Strips emulation prevention bytes from the NALU payload into inputRbsp
+    private void unescape(byte[] sps, int offset, int length) {
+        if (inputRbsp.length < length - offset) {
+            inputRbsp = new byte[length - offset];
+        }
+
+        int zeroCount = 0;
+        inputRbspLength = 0;
+        for (int i = offset; i < length; i++) {
+            byte b = sps[i];
+            if (zeroCount >= 2 && b == 0x03) {
+                zeroCount = 0;
+                continue;
+            }
+
+            inputRbsp[inputRbspLength++] = b;
+            zeroCount = (b == 0) ? zeroCount + 1 : 0;
+        }
+    }
+
+    // Builds the final NALU from the original start code and header and the escaped outputRbsp
+    private byte[] escape(byte[] sps, int outputRbspLength) {
+        int escapedLength = 0;
+        int zeroCount = 0;
+        for (int i = 0; i < outputRbspLength; i++) {
+            byte b = outputRbsp[i];
+            if (zeroCount >= 2 && (b & 0xFF) <= 0x03) {
+                escapedLength++;
+                zeroCount = 0;
+            }
+            escapedLength++;
+            zeroCount = (b == 0) ? zeroCount + 1 : 0;
+        }
+
+        byte[] nalu = new byte[NALU_HEADER_LENGTH + escapedLength];
+        System.arraycopy(sps, 0, nalu, 0, NALU_HEADER_LENGTH);
+
+        int offset = NALU_HEADER_LENGTH;
+        zeroCount = 0;
+        for (int i = 0; i < outputRbspLength; i++) {
+            byte b = outputRbsp[i];
+            if (zeroCount >= 2 && (b & 0xFF) <= 0x03) {
+                nalu[offset++] = 0x03;
+                zeroCount = 0;
+            }
+            nalu[offset++] = b;
+            zeroCount = (b == 0) ? zeroCount + 1 : 0;
+        }
+
+        return nalu;
+    }
+
+    private int readBits(int count) throws SpsFormatException {
+        if (readBitOffset + count > inputRbspLength * 8) {
+            throw new SpsFormatException("Unexpected end of SPS");
+        }
+
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            int bit = (inputRbsp[readBitOffset >> 3] >> (7 - (readBitOffset & 7))) & 1;
+            value = (value << 1) | bit;
+            readBitOffset++;
+        }
+        return value;
+    }
+
+    private void writeBits(long value, int count) {
+        if ((writeBitOffset + count + 7) / 8 > outputRbsp.length) {
+            outputRbsp = Arrays.copyOf(outputRbsp, outputRbsp.length * 2 + count / 8);
+        }
+
+        for (int i = count - 1; i >= 0; i--) {
+            if (((value >> i) & 1) != 0) {
+                outputRbsp[writeBitOffset >> 3] |= (byte) (0x80 >>> (writeBitOffset & 7));
+            }
+            writeBitOffset++;
+        }
+    }
+
+    private int copyBits(int count) throws SpsFormatException {
+        int value = readBits(count);
+        writeBits(value & 0xFFFFFFFFL, count);
+        return value;
+    }
+
+    // Signed Exp-Golomb values have the same bit layout, so we don't need to distinguish them
+    private long readUe() throws SpsFormatException {
+        int leadingZeros = 0;
+        while (readBits(1) == 0) {
+            if (++leadingZeros > 31) {
+                throw new SpsFormatException("Invalid Exp-Golomb code");
+            }
+        }
+
+        return (1L << leadingZeros) - 1 + (readBits(leadingZeros) & 0xFFFFFFFFL);
+    }
+
+    private void writeUe(long value) {
+        long codeNum = value + 1;
+        int bits = 64 - Long.numberOfLeadingZeros(codeNum);
+        writeBits(0, bits - 1);
+        writeBits(codeNum, bits);
+    }
+
+    private long copyUe() throws SpsFormatException {
+        long value = readUe();
+        writeUe(value);
+        return value;
+    }
+}
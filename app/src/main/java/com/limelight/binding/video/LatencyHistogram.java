@@ -0,0 +1,114 @@
+package com.limelight.binding.video;
+
+// A fixed-size, log-bucketed histogram of millisecond latencies. Values below
+// LINEAR_BUCKETS are recorded exactly. Above that, each power of two is split
+// into SUB_BUCKETS buckets, which bounds the error of reported percentiles to
+// 1/SUB_BUCKETS of the value. Recording never allocates.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = SUB_BUCKETS * 2;
+
+    // Anything larger is clamped into the last bucket
+    private static final int MAX_TRACKABLE_VALUE = 0xFFFF;
+
+    private static final int BUCKET_COUNT = getBucketIndex(MAX_TRACKABLE_VALUE) + 1;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private int maxValue;
+
+    private static int getBucketIndex(int value) {
+        if (value < LINEAR_BUCKETS) {
+            return value;
+        }
+
+        // Find the power of two containing this value, then the sub-bucket within it
+        int magnitude = 31 - Integer.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (value >> shift) - SUB_BUCKETS;
+
+        return LINEAR_BUCKETS + (magnitude - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static int getBucketMidpoint(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+
+        int magnitude = (index - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        int shift = magnitude - SUB_BUCKET_BITS;
+
+        return ((SUB_BUCKETS + subBucket) << shift) + ((1 << shift) >> 1);
+    }
+
+    void record(long valueMs) {
+        int value;
+
+        if (valueMs < 0) {
+            return;
+        }
+        else if (valueMs > MAX_TRACKABLE_VALUE) {
+            value = MAX_TRACKABLE_VALUE;
+        }
+        else {
+            value = (int) valueMs;
+        }
+
+        counts[getBucketIndex(value)]++;
+        totalCount++;
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+
+    // Returns the latency that the specified percentage of samples are at or below
+    int getPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        long targetCount = (long) Math.ceil(totalCount * percentile / 100.0);
+        if (targetCount < 1) {
+            targetCount = 1;
+        }
+
+        long runningCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            runningCount += counts[i];
+            if (runningCount >= targetCount) {
+                // Never report a value higher than what we've actually seen
+                return Math.min(getBucketMidpoint(i), maxValue);
+            }
+        }
+
+        return maxValue;
+    }
+
+    int getMax() {
+        return maxValue;
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.totalCount += other.totalCount;
+        this.maxValue = Math.max(this.maxValue, other.maxValue);
+    }
+
+    void copy(LatencyHistogram other) {
+        System.arraycopy(other.counts, 0, this.counts, 0, BUCKET_COUNT);
+        this.totalCount = other.totalCount;
+        this.maxValue = other.maxValue;
+    }
+
+    void clear() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.counts[i] = 0;
+        }
+        this.totalCount = 0;
+        this.maxValue = 0;
+    }
+}
@@ -0,0 +1,28 @@
+package com.limelight.binding.video;
+
+class LowestLatencyFramePacer extends FramePacer {
+    private final boolean legacyFrameDropRendering;
+
+    LowestLatencyFramePacer(MediaCodecDecoderRenderer renderer, boolean legacyFrameDropRendering) {
+        super(renderer);
+        this.legacyFrameDropRendering = legacyFrameDropRendering;
+    }
+
+    @Override
+    void onFrameDecoded(int bufferIndex, long presentationTimeUs, boolean moreFramesPending) {
+        // Only the newest frame is worth rendering
+        if (moreFramesPending) {
+            renderer.dropFrame(bufferIndex);
+        }
+        else if (legacyFrameDropRendering) {
+            // Use a PTS that will cause this frame to be dropped if another comes in within
+            // the same V-sync period
+            renderer.renderFrame(bufferIndex, presentationTimeUs, System.nanoTime());
+        }
+        else {
+            // Use a PTS that will cause this frame to never be dropped if frame dropping
+            // is disabled
+            renderer.renderFrame(bufferIndex, presentationTimeUs, 0);
+        }
+    }
+}
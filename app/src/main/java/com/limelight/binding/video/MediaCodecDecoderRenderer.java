@@ -1,7 +1,10 @@
 package com.limelight.binding.video;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 import org.jcodec.codecs.h264.H264Utils;
 import org.jcodec.codecs.h264.io.model.SeqParameterSet;
@@ -13,6 +16,7 @@ import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 import com.limelight.nvstream.jni.MoonBridge;
 import com.limelight.preferences.PreferenceConfiguration;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
@@ -20,6 +24,9 @@ import android.media.MediaFormat;
 import android.media.MediaCodec.BufferInfo;
 import android.media.MediaCodec.CodecException;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.os.SystemClock;
 import android.util.Range;
 import android.view.SurfaceHolder;
@@ -32,6 +39,15 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
     // Used on versions < 5.0
     private ByteBuffer[] legacyInputBuffers;
 
+    // Only used if the decoder hands us input buffers that aren't direct
+    private ByteBuffer picDataStagingBuffer;
+
+    // Used in asynchronous mode on versions >= 6.0
+    private HandlerThread codecCallbackThread;
+    private ConcurrentLinkedQueue<Integer> asyncInputBuffers;
+    private volatile Thread asyncInputWaiter;
+    private static final long ASYNC_INPUT_WAIT_NS = 1000000;
+
     private MediaCodecInfo avcDecoder;
     private MediaCodecInfo hevcDecoder;
 
@@ -43,7 +59,13 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
 
     private Context context;
     private MediaCodec videoDecoder;
+    private String selectedDecoderName;
+    private MediaCodec prewarmedDecoder;
+    private String prewarmedDecoderName;
+    private long setupTimeMs;
+    private boolean decodedFirstFrame;
     private Thread rendererThread;
+    private FramePacer framePacer;
     private boolean needsSpsBitstreamFixup, isExynos4;
     private boolean adaptivePlayback, directSubmit;
     private boolean constrainedHighProfile;
@@ -67,6 +89,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
 
     private boolean needsBaselineSpsHack;
     private SeqParameterSet savedSps;
+    private H264SpsRewriter spsRewriter;
 
     private RendererException initialException;
     private long initialExceptionTimestamp;
@@ -76,6 +99,33 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
     private VideoStats lastWindowVideoStats;
     private VideoStats globalVideoStats;
 
+    // Double-buffered stats snapshots consumed by the perf overlay publisher thread
+    private final VideoStats[] perfOverlaySnapshots = new VideoStats[2];
+    private int perfOverlayWriteIndex;
+    private volatile int perfOverlayReadIndex;
+    private volatile boolean perfOverlayUpdatePending;
+    private HandlerThread perfOverlayThread;
+    private Handler perfOverlayHandler;
+    private final Runnable perfOverlayPublisher = new Runnable() {
+        @Override
+        public void run() {
+            publishPerfOverlay(perfOverlaySnapshots[perfOverlayReadIndex]);
+            perfOverlayUpdatePending = false;
+        }
+    };
+
+    // Matches decoded frames back to the network time of their decode unit. This is
+    // written by the submit thread and read by the thread receiving decoder output.
+    private static final int PENDING_FRAME_SLOTS = 32;
+    private final long[] pendingFrameTimestampsUs = new long[PENDING_FRAME_SLOTS];
+    private final int[] pendingFrameNetworkTimesMs = new int[PENDING_FRAME_SLOTS];
+    private int pendingFrameHead, pendingFrameCount;
+
+    // Per output buffer timing, held while the frame pacer owns the buffer
+    private static final int OUTPUT_BUFFER_SLOTS = 64;
+    private final long[] outputBufferDecodeTimesMs = new long[OUTPUT_BUFFER_SLOTS];
+    private final int[] outputBufferNetworkTimesMs = new int[OUTPUT_BUFFER_SLOTS];
+
     private long lastTimestampUs;
     private int lastFrameNumber;
     private int refreshRate;
@@ -146,6 +196,8 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
         this.activeWindowVideoStats = new VideoStats();
         this.lastWindowVideoStats = new VideoStats();
         this.globalVideoStats = new VideoStats();
+        this.perfOverlaySnapshots[0] = new VideoStats();
+        this.perfOverlaySnapshots[1] = new VideoStats();
 
         avcDecoder = findAvcDecoder();
         if (avcDecoder != null) {
@@ -234,8 +286,63 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
         return this.videoFormat;
     }
 
+    @Override
+    public void prewarm() {
+        // The host will pick HEVC if we both support it, so that's our best guess
+        MediaCodecInfo decoderInfo = hevcDecoder != null ? hevcDecoder : avcDecoder;
+        if (decoderInfo == null) {
+            return;
+        }
+
+        // Don't allocate another instance if the last stream's decoder is still around
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && DecoderPool.hasDecoder(decoderInfo.getName())) {
+            return;
+        }
+
+        try {
+            prewarmedDecoder = MediaCodec.createByCodecName(decoderInfo.getName());
+            prewarmedDecoderName = decoderInfo.getName();
+            LimeLog.info("Prewarmed decoder: "+decoderInfo.getName());
+        } catch (Exception e) {
+            // We'll try again in setup()
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void discardPrewarmed() {
+        if (prewarmedDecoder != null) {
+            prewarmedDecoder.release();
+            prewarmedDecoder = null;
+        }
+    }
+
+    private MediaCodec createDecoder(MediaCodecInfo decoderInfo) throws IOException {
+        if (prewarmedDecoder != null) {
+            MediaCodec decoder = prewarmedDecoder;
+            prewarmedDecoder = null;
+
+            if (prewarmedDecoderName.equals(decoderInfo.getName())) {
+                LimeLog.info("Using prewarmed decoder");
+                return decoder;
+            }
+
+            // We guessed wrong about the video format
+            decoder.release();
+        }
+
+        return MediaCodec.createByCodecName(decoderInfo.getName());
+    }
+
+    // Decoders can only be handed to a new stream if we can switch their output
+    // surface and don't need to register new asynchronous callbacks
+    private boolean canPoolDecoder() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && !prefs.asyncDecoder && adaptivePlayback;
+    }
+
     @Override
     public int setup(int format, int width, int height, int redrawRate) {
+        this.setupTimeMs = MediaCodecHelper.getMonotonicMillis();
         this.initialWidth = width;
         this.initialHeight = height;
         this.videoFormat = format;
@@ -277,6 +384,13 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
             }
 
             refFrameInvalidationActive = refFrameInvalidationAvc;
+
+            // These are the same SPS fixups that patchSps() applies using jcodec
+            spsRewriter = new H264SpsRewriter(getPatchedLevelIdc(),
+                    refFrameInvalidationActive ? -1 : 1,
+                    Build.VERSION.SDK_INT < Build.VERSION_CODES.O,
+                    needsSpsBitstreamFixup || isExynos4 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.O,
+                    constrainedHighProfile);
         }
         else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H265) != 0) {
             mimeType = "video/hevc";
@@ -296,15 +410,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
         }
 
         adaptivePlayback = MediaCodecHelper.decoderSupportsAdaptivePlayback(selectedDecoderInfo, mimeType);
-
-        // Codecs have been known to throw all sorts of crazy runtime exceptions
-        // due to implementation problems
-        try {
-            videoDecoder = MediaCodec.createByCodecName(selectedDecoderInfo.getName());
-        } catch (Exception e) {
-            e.printStackTrace();
-            return -4;
-        }
+        selectedDecoderName = selectedDecoderInfo.getName();
 
         MediaFormat videoFormat = MediaFormat.createVideoFormat(mimeType, width, height);
 
@@ -328,7 +434,45 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
         configuredFormat = videoFormat;
         LimeLog.info("Configuring with format: "+configuredFormat);
 
+        framePacer = FramePacer.create(this, prefs.framePacing, legacyFrameDropRendering);
+
+        // A decoder kept from the last stream is already configured and started
+        if (canPoolDecoder()) {
+            videoDecoder = DecoderPool.take(selectedDecoderName, videoFormat, renderTarget.getSurface());
+            if (videoDecoder != null) {
+                discardPrewarmed();
+
+                try {
+                    inputFormat = videoDecoder.getInputFormat();
+                    videoDecoder.setVideoScalingMode(MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT);
+                } catch (Exception e) {
+                    // cleanup() won't be called if we fail here
+                    e.printStackTrace();
+                    videoDecoder.release();
+                    return -5;
+                }
+
+                LimeLog.info("Using pooled codec "+selectedDecoderName+" for hardware decoding "+mimeType);
+                return 0;
+            }
+        }
+
+        // Codecs have been known to throw all sorts of crazy runtime exceptions
+        // due to implementation problems
+        try {
+            videoDecoder = createDecoder(selectedDecoderInfo);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -4;
+        }
+
         try {
+            // The callback must be set prior to configure() to put the codec in asynchronous mode
+            if (prefs.asyncDecoder && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                LimeLog.info("Using asynchronous decoder mode");
+                setupAsyncCallbacks();
+            }
+
             videoDecoder.configure(videoFormat, renderTarget.getSurface(), null, 0);
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -418,6 +562,165 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
         }
     }
 
+    // Called by the frame pacer to display a decoded frame
+    void renderFrame(int bufferIndex, long presentationTimeUs, long renderTimeNanos) {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                videoDecoder.releaseOutputBuffer(bufferIndex, renderTimeNanos);
+            }
+            else {
+                videoDecoder.releaseOutputBuffer(bufferIndex, true);
+            }
+        } catch (Exception e) {
+            handleDecoderException(e, null, 0, false);
+            return;
+        }
+
+        activeWindowVideoStats.totalFramesRendered++;
+
+        // Time the frame spent held by the pacer only counts towards the decode-to-render
+        // and end-to-end figures. Decoder time was already recorded when it was dequeued.
+        if (bufferIndex < OUTPUT_BUFFER_SLOTS) {
+            long nowMs = MediaCodecHelper.getMonotonicMillis();
+            activeWindowVideoStats.decodeToRenderHistogram.record(nowMs - outputBufferDecodeTimesMs[bufferIndex]);
+            if (outputBufferNetworkTimesMs[bufferIndex] >= 0) {
+                activeWindowVideoStats.endToEndHistogram.record(outputBufferNetworkTimesMs[bufferIndex] +
+                        nowMs - (presentationTimeUs / 1000));
+            }
+        }
+    }
+
+    // Called by the frame pacer to discard a decoded frame without displaying it
+    void dropFrame(int bufferIndex) {
+        try {
+            videoDecoder.releaseOutputBuffer(bufferIndex, false);
+        } catch (Exception e) {
+            handleDecoderException(e, null, 0, false);
+        }
+    }
+
+    private void pushPendingFrame(long timestampUs, int networkTimeMs) {
+        synchronized (pendingFrameTimestampsUs) {
+            // Overwrite the oldest entry if output has fallen far behind
+            if (pendingFrameCount == PENDING_FRAME_SLOTS) {
+                pendingFrameHead = (pendingFrameHead + 1) % PENDING_FRAME_SLOTS;
+                pendingFrameCount--;
+            }
+
+            int slot = (pendingFrameHead + pendingFrameCount) % PENDING_FRAME_SLOTS;
+            pendingFrameTimestampsUs[slot] = timestampUs;
+            pendingFrameNetworkTimesMs[slot] = networkTimeMs;
+            pendingFrameCount++;
+        }
+    }
+
+    // Returns the network time for the frame with this timestamp or -1 if unknown
+    private int popPendingFrame(long timestampUs) {
+        synchronized (pendingFrameTimestampsUs) {
+            while (pendingFrameCount > 0) {
+                long pendingTimestampUs = pendingFrameTimestampsUs[pendingFrameHead];
+                if (pendingTimestampUs > timestampUs) {
+                    // This entry belongs to a later frame
+                    break;
+                }
+
+                int networkTimeMs = pendingFrameNetworkTimesMs[pendingFrameHead];
+                pendingFrameHead = (pendingFrameHead + 1) % PENDING_FRAME_SLOTS;
+                pendingFrameCount--;
+
+                // Entries for frames that produced no output are skipped
+                if (pendingTimestampUs == timestampUs) {
+                    return networkTimeMs;
+                }
+            }
+
+            return -1;
+        }
+    }
+
+    private void handOffFrame(int bufferIndex, long presentationTimeUs, boolean moreFramesPending) {
+        long decodeTimeMs = MediaCodecHelper.getMonotonicMillis();
+
+        if (!decodedFirstFrame) {
+            decodedFirstFrame = true;
+            LimeLog.info("First frame decoded "+(decodeTimeMs - setupTimeMs)+" ms after decoder setup");
+        }
+
+        // Add delta time to the totals (excluding probable outliers)
+        long delta = decodeTimeMs - (presentationTimeUs / 1000);
+        activeWindowVideoStats.enqueueToDecodeHistogram.record(delta);
+        if (delta >= 0 && delta < 1000) {
+            activeWindowVideoStats.decoderTimeMs += delta;
+            if (!USE_FRAME_RENDER_TIME) {
+                activeWindowVideoStats.totalTimeMs += delta;
+            }
+        }
+
+        int networkTimeMs = popPendingFrame(presentationTimeUs);
+        if (bufferIndex < OUTPUT_BUFFER_SLOTS) {
+            outputBufferDecodeTimesMs[bufferIndex] = decodeTimeMs;
+            outputBufferNetworkTimesMs[bufferIndex] = networkTimeMs;
+        }
+
+        framePacer.onFrameDecoded(bufferIndex, presentationTimeUs, moreFramesPending);
+    }
+
+    private void handleOutputFormatChanged() {
+        LimeLog.info("Output format changed");
+        outputFormat = videoDecoder.getOutputFormat();
+        LimeLog.info("New output format: " + outputFormat);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setupAsyncCallbacks() {
+        asyncInputBuffers = new ConcurrentLinkedQueue<>();
+
+        // Codec callbacks are delivered on a dedicated thread rather than polled by the
+        // renderer thread, so output buffers are released as soon as they are decoded.
+        codecCallbackThread = new HandlerThread("Video - Codec Callbacks", Process.THREAD_PRIORITY_DISPLAY);
+        codecCallbackThread.start();
+
+        videoDecoder.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(MediaCodec codec, int index) {
+                asyncInputBuffers.offer(index);
+
+                // Wake the submitting thread if it's waiting for a buffer
+                Thread waiter = asyncInputWaiter;
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
+                }
+            }
+
+            @Override
+            public void onOutputBufferAvailable(MediaCodec codec, int index, BufferInfo info) {
+                try {
+                    numFramesOut++;
+
+                    if (stopping) {
+                        codec.releaseOutputBuffer(index, false);
+                        return;
+                    }
+
+                    // We can't tell if more frames are pending in asynchronous mode
+                    handOffFrame(index, info.presentationTimeUs, false);
+                } catch (Exception e) {
+                    handleDecoderException(e, null, 0, false);
+                }
+            }
+
+            @Override
+            public void onError(MediaCodec codec, CodecException e) {
+                handleDecoderException(e, null, 0, false);
+            }
+
+            @Override
+            public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                handleOutputFormatChanged();
+            }
+        }, new Handler(codecCallbackThread.getLooper()));
+    }
+
     private void startRendererThread()
     {
         rendererThread = new Thread() {
@@ -434,9 +737,9 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
 
                             numFramesOut++;
 
-                            // Get the last output buffer in the queue
+                            // Drain the queue, letting the pacer know which frames have newer ones behind them
                             while ((outIndex = videoDecoder.dequeueOutputBuffer(info, 0)) >= 0) {
-                                videoDecoder.releaseOutputBuffer(lastIndex, false);
+                                handOffFrame(lastIndex, presentationTimeUs, true);
 
                                 numFramesOut++;
 
@@ -444,41 +747,14 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
                                 presentationTimeUs = info.presentationTimeUs;
                             }
 
-                            // Render the last buffer
-                            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                                if (legacyFrameDropRendering) {
-                                    // Use a PTS that will cause this frame to be dropped if another comes in within
-                                    // the same V-sync period
-                                    videoDecoder.releaseOutputBuffer(lastIndex, System.nanoTime());
-                                }
-                                else {
-                                    // Use a PTS that will cause this frame to never be dropped if frame dropping
-                                    // is disabled
-                                    videoDecoder.releaseOutputBuffer(lastIndex, 0);
-                                }
-                            }
-                            else {
-                                videoDecoder.releaseOutputBuffer(lastIndex, true);
-                            }
-
-                            activeWindowVideoStats.totalFramesRendered++;
-
-                            // Add delta time to the totals (excluding probable outliers)
-                            long delta = MediaCodecHelper.getMonotonicMillis() - (presentationTimeUs / 1000);
-                            if (delta >= 0 && delta < 1000) {
-                                activeWindowVideoStats.decoderTimeMs += delta;
-                                if (!USE_FRAME_RENDER_TIME) {
-                                    activeWindowVideoStats.totalTimeMs += delta;
-                                }
-                            }
+                            // Hand off the last buffer
+                            handOffFrame(lastIndex, presentationTimeUs, false);
                         } else {
                             switch (outIndex) {
                                 case MediaCodec.INFO_TRY_AGAIN_LATER:
                                     break;
                                 case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
-                                    LimeLog.info("Output format changed");
-                                    outputFormat = videoDecoder.getOutputFormat();
-                                    LimeLog.info("New output format: " + outputFormat);
+                                    handleOutputFormatChanged();
                                     break;
                                 default:
                                     break;
@@ -502,8 +778,23 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
         startTime = MediaCodecHelper.getMonotonicMillis();
 
         try {
-            while (index < 0 && !stopping) {
-                index = videoDecoder.dequeueInputBuffer(10000);
+            if (asyncInputBuffers != null) {
+                asyncInputWaiter = Thread.currentThread();
+                while (index < 0 && !stopping) {
+                    Integer asyncIndex = asyncInputBuffers.poll();
+                    if (asyncIndex != null) {
+                        index = asyncIndex;
+                    }
+                    else {
+                        // onInputBufferAvailable() will unpark us early when a buffer frees up
+                        LockSupport.parkNanos(ASYNC_INPUT_WAIT_NS);
+                    }
+                }
+            }
+            else {
+                while (index < 0 && !stopping) {
+                    index = videoDecoder.dequeueInputBuffer(10000);
+                }
             }
         } catch (Exception e) {
             handleDecoderException(e, null, 0, true);
@@ -533,9 +824,59 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
         return index;
     }
 
+    private void publishPerfOverlay(VideoStats lastTwo) {
+        VideoStatsFps fps = lastTwo.getFps();
+        String decoder;
+
+        if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
+            decoder = avcDecoder.getName();
+        } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H265) != 0) {
+            decoder = hevcDecoder.getName();
+        } else {
+            decoder = "(unknown)";
+        }
+
+        float decodeTimeMs = (float)lastTwo.decoderTimeMs / lastTwo.totalFramesReceived;
+        long rttInfo = MoonBridge.getEstimatedRttInfo();
+        StringBuilder sb = new StringBuilder();
+        sb.append(context.getString(R.string.perf_overlay_streamdetails, initialWidth + "x" + initialHeight, fps.totalFps)).append('\n');
+        sb.append(context.getString(R.string.perf_overlay_decoder, decoder)).append('\n');
+        sb.append(context.getString(R.string.perf_overlay_incomingfps, fps.receivedFps)).append('\n');
+        sb.append(context.getString(R.string.perf_overlay_renderingfps, fps.renderedFps)).append('\n');
+        sb.append(context.getString(R.string.perf_overlay_netdrops,
+                (float)lastTwo.framesLost / lastTwo.totalFrames * 100)).append('\n');
+        sb.append(context.getString(R.string.perf_overlay_netlatency,
+                (int)(rttInfo >> 32), (int)rttInfo)).append('\n');
+        sb.append(context.getString(R.string.perf_overlay_dectime, decodeTimeMs)).append('\n');
+        appendPercentiles(sb, R.string.perf_overlay_queuetime_percentiles, lastTwo.networkToEnqueueHistogram).append('\n');
+        appendPercentiles(sb, R.string.perf_overlay_dectime_percentiles, lastTwo.enqueueToDecodeHistogram).append('\n');
+        appendPercentiles(sb, R.string.perf_overlay_rendertime_percentiles, lastTwo.decodeToRenderHistogram).append('\n');
+        appendPercentiles(sb, R.string.perf_overlay_latency_percentiles, lastTwo.endToEndHistogram);
+        perfListener.onPerfUpdate(sb.toString());
+    }
+
+    private StringBuilder appendPercentiles(StringBuilder sb, int resId, LatencyHistogram histogram) {
+        return sb.append(context.getString(resId,
+                histogram.getPercentile(50),
+                histogram.getPercentile(95),
+                histogram.getPercentile(99),
+                histogram.getMax()));
+    }
+
     @Override
     public void start() {
-        startRendererThread();
+        framePacer.start();
+
+        if (prefs.enablePerfOverlay) {
+            perfOverlayThread = new HandlerThread("Video - Stats Publisher", Process.THREAD_PRIORITY_BACKGROUND);
+            perfOverlayThread.start();
+            perfOverlayHandler = new Handler(perfOverlayThread.getLooper());
+        }
+
+        // Output buffers are handled by codec callbacks in asynchronous mode
+        if (asyncInputBuffers == null) {
+            startRendererThread();
+        }
     }
 
     // !!! May be called even if setup()/start() fails !!!
@@ -555,14 +896,34 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
         prepareForStop();
 
         // Wait for the renderer thread to shut down
-        try {
-            rendererThread.join();
-        } catch (InterruptedException ignored) { }
+        if (rendererThread != null) {
+            try {
+                rendererThread.join();
+            } catch (InterruptedException ignored) { }
+        }
+
+        if (framePacer != null) {
+            framePacer.stop();
+        }
+
+        if (perfOverlayThread != null) {
+            perfOverlayThread.quit();
+        }
     }
 
     @Override
     public void cleanup() {
-        videoDecoder.release();
+        // Keep a healthy decoder around in case the user reconnects shortly
+        if (canPoolDecoder() && initialException == null && !reportedCrash) {
+            DecoderPool.park(videoDecoder, selectedDecoderName, configuredFormat);
+        }
+        else {
+            videoDecoder.release();
+        }
+
+        if (codecCallbackThread != null) {
+            codecCallbackThread.quit();
+        }
     }
 
     private boolean queueInputBuffer(int inputBufferIndex, int offset, int length, long timestampUs, int codecFlags) {
@@ -617,6 +978,138 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
         }
     }
 
+    // Some decoders rely on H264 level to decide how many buffers are needed
+    // Since we only need one frame buffered, we'll set the level as low as we can
+    // for known resolution combinations. Reference frame invalidation may need
+    // these, so leave them be for those decoders. Returns -1 to leave the level alone.
+    private int getPatchedLevelIdc() {
+        if (refFrameInvalidationActive) {
+            return -1;
+        }
+
+        if (initialWidth <= 720 && initialHeight <= 480 && refreshRate <= 60) {
+            // Max 5 buffered frames at 720x480x60
+            return 31;
+        }
+        else if (initialWidth <= 1280 && initialHeight <= 720 && refreshRate <= 60) {
+            // Max 5 buffered frames at 1280x720x60
+            return 32;
+        }
+        else if (initialWidth <= 1920 && initialHeight <= 1080 && refreshRate <= 60) {
+            // Max 4 buffered frames at 1920x1080x64
+            return 42;
+        }
+        else {
+            // Leave the profile alone (currently 5.0)
+            return -1;
+        }
+    }
+
+    private byte[] patchSps(byte[] decodeUnitData, int decodeUnitLength) {
+        if (!needsBaselineSpsHack) {
+            try {
+                byte[] patchedSps = spsRewriter.rewrite(decodeUnitData, decodeUnitLength);
+                LimeLog.info("Patched SPS ("+decodeUnitLength+" -> "+patchedSps.length+" bytes)");
+                return patchedSps;
+            } catch (H264SpsRewriter.SpsFormatException e) {
+                // Fall back to the full parser below
+                LimeLog.warning("Unable to rewrite SPS in place: "+e.getMessage());
+            }
+        }
+
+        ByteBuffer spsBuf = ByteBuffer.wrap(decodeUnitData);
+
+        // Skip to the start of the NALU data
+        spsBuf.position(5);
+
+        // The H264Utils.readSPS function safely handles
+        // Annex B NALUs (including NALUs with escape sequences)
+        SeqParameterSet sps = H264Utils.readSPS(spsBuf);
+
+        int levelIdc = getPatchedLevelIdc();
+        if (levelIdc >= 0) {
+            LimeLog.info("Patching level_idc to "+levelIdc);
+            sps.levelIdc = levelIdc;
+        }
+
+        // TI OMAP4 requires a reference frame count of 1 to decode successfully. Exynos 4
+        // also requires this fixup.
+        //
+        // I'm doing this fixup for all devices because I haven't seen any devices that
+        // this causes issues for. At worst, it seems to do nothing and at best it fixes
+        // issues with video lag, hangs, and crashes.
+        //
+        // It does break reference frame invalidation, so we will not do that for decoders
+        // where we've enabled reference frame invalidation.
+        if (!refFrameInvalidationActive) {
+            LimeLog.info("Patching num_ref_frames in SPS");
+            sps.numRefFrames = 1;
+        }
+
+        // GFE 2.5.11 changed the SPS to add additional extensions
+        // Some devices don't like these so we remove them here on old devices.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            sps.vuiParams.videoSignalTypePresentFlag = false;
+            sps.vuiParams.colourDescriptionPresentFlag = false;
+            sps.vuiParams.chromaLocInfoPresentFlag = false;
+        }
+
+        // Some older devices used to choke on a bitstream restrictions, so we won't provide them
+        // unless explicitly whitelisted. For newer devices, leave the bitstream restrictions present.
+        if (needsSpsBitstreamFixup || isExynos4 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // The SPS that comes in the current H264 bytestream doesn't set bitstream_restriction_flag
+            // or max_dec_frame_buffering which increases decoding latency on Tegra.
+
+            // GFE 2.5.11 started sending bitstream restrictions
+            if (sps.vuiParams.bitstreamRestriction == null) {
+                LimeLog.info("Adding bitstream restrictions");
+                sps.vuiParams.bitstreamRestriction = new VUIParameters.BitstreamRestriction();
+                sps.vuiParams.bitstreamRestriction.motionVectorsOverPicBoundariesFlag = true;
+                sps.vuiParams.bitstreamRestriction.log2MaxMvLengthHorizontal = 16;
+                sps.vuiParams.bitstreamRestriction.log2MaxMvLengthVertical = 16;
+                sps.vuiParams.bitstreamRestriction.numReorderFrames = 0;
+            }
+            else {
+                LimeLog.info("Patching bitstream restrictions");
+            }
+
+            // Some devices throw errors if maxDecFrameBuffering < numRefFrames
+            sps.vuiParams.bitstreamRestriction.maxDecFrameBuffering = sps.numRefFrames;
+
+            // These values are the defaults for the fields, but they are more aggressive
+            // than what GFE sends in 2.5.11, but it doesn't seem to cause picture problems.
+            sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
+            sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
+
+            // log2_max_mv_length_horizontal and log2_max_mv_length_vertical are set to more
+            // conservative values by GFE 2.5.11. We'll let those values stand.
+        }
+        else {
+            // Devices that didn't/couldn't get bitstream restrictions before GFE 2.5.11
+            // will continue to not receive them now
+            sps.vuiParams.bitstreamRestriction = null;
+        }
+
+        // If we need to hack this SPS to say we're baseline, do so now
+        if (needsBaselineSpsHack) {
+            LimeLog.info("Hacking SPS to baseline");
+            sps.profileIdc = 66;
+            savedSps = sps;
+        }
+
+        // Patch the SPS constraint flags
+        doProfileSpecificSpsPatching(sps);
+
+        // The H264Utils.writeSPS function safely handles
+        // Annex B NALUs (including NALUs with escape sequences)
+        ByteBuffer escapedNalu = H264Utils.writeSPS(sps, decodeUnitLength);
+
+        byte[] patchedSps = new byte[5 + escapedNalu.limit()];
+        System.arraycopy(decodeUnitData, 0, patchedSps, 0, 5);
+        escapedNalu.get(patchedSps, 5, escapedNalu.limit());
+        return patchedSps;
+    }
+
     @SuppressWarnings("deprecation")
     @Override
     public int submitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
@@ -640,34 +1133,17 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
 
         // Flip stats windows roughly every second
         if (SystemClock.uptimeMillis() >= activeWindowVideoStats.measurementStartTimestamp + 1000) {
-            if (prefs.enablePerfOverlay) {
-                VideoStats lastTwo = new VideoStats();
-                lastTwo.add(lastWindowVideoStats);
-                lastTwo.add(activeWindowVideoStats);
-                VideoStatsFps fps = lastTwo.getFps();
-                String decoder;
-
-                if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
-                    decoder = avcDecoder.getName();
-                } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H265) != 0) {
-                    decoder = hevcDecoder.getName();
-                } else {
-                    decoder = "(unknown)";
-                }
-
-                float decodeTimeMs = (float)lastTwo.decoderTimeMs / lastTwo.totalFramesReceived;
-                long rttInfo = MoonBridge.getEstimatedRttInfo();
-                StringBuilder sb = new StringBuilder();
-                sb.append(context.getString(R.string.perf_overlay_streamdetails, initialWidth + "x" + initialHeight, fps.totalFps)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_decoder, decoder)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_incomingfps, fps.receivedFps)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_renderingfps, fps.renderedFps)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_netdrops,
-                        (float)lastTwo.framesLost / lastTwo.totalFrames * 100)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_netlatency,
-                        (int)(rttInfo >> 32), (int)rttInfo)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_dectime, decodeTimeMs));
-                perfListener.onPerfUpdate(sb.toString());
+            if (perfOverlayHandler != null && !perfOverlayUpdatePending) {
+                // Snapshot the last two windows into the buffer the publisher isn't reading.
+                // The overlay text is built on the publisher thread to keep this path allocation-free.
+                VideoStats snapshot = perfOverlaySnapshots[perfOverlayWriteIndex];
+                snapshot.copy(lastWindowVideoStats);
+                snapshot.add(activeWindowVideoStats);
+
+                perfOverlayReadIndex = perfOverlayWriteIndex;
+                perfOverlayWriteIndex ^= 1;
+                perfOverlayUpdatePending = true;
+                perfOverlayHandler.post(perfOverlayPublisher);
             }
 
             globalVideoStats.add(activeWindowVideoStats);
@@ -702,119 +1178,22 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
         int codecFlags = 0;
 
         // H264 SPS
-        if (decodeUnitData[4] == 0x67) {
+        if (decodeUnitType == MoonBridge.BUFFER_TYPE_SPS && (videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
             numSpsIn++;
 
-            ByteBuffer spsBuf = ByteBuffer.wrap(decodeUnitData);
-
-            // Skip to the start of the NALU data
-            spsBuf.position(5);
-
-            // The H264Utils.readSPS function safely handles
-            // Annex B NALUs (including NALUs with escape sequences)
-            SeqParameterSet sps = H264Utils.readSPS(spsBuf);
-
-            // Some decoders rely on H264 level to decide how many buffers are needed
-            // Since we only need one frame buffered, we'll set the level as low as we can
-            // for known resolution combinations. Reference frame invalidation may need
-            // these, so leave them be for those decoders.
-            if (!refFrameInvalidationActive) {
-                if (initialWidth <= 720 && initialHeight <= 480 && refreshRate <= 60) {
-                    // Max 5 buffered frames at 720x480x60
-                    LimeLog.info("Patching level_idc to 31");
-                    sps.levelIdc = 31;
-                }
-                else if (initialWidth <= 1280 && initialHeight <= 720 && refreshRate <= 60) {
-                    // Max 5 buffered frames at 1280x720x60
-                    LimeLog.info("Patching level_idc to 32");
-                    sps.levelIdc = 32;
-                }
-                else if (initialWidth <= 1920 && initialHeight <= 1080 && refreshRate <= 60) {
-                    // Max 4 buffered frames at 1920x1080x64
-                    LimeLog.info("Patching level_idc to 42");
-                    sps.levelIdc = 42;
-                }
-                else {
-                    // Leave the profile alone (currently 5.0)
+            // The host sends the same SPS with every IDR frame, so reuse our earlier rewrite
+            // if we've seen this one before. The baseline hack is only applied to the first
+            // SPS, so that one is never cached.
+            byte[] patchedSps = needsBaselineSpsHack ? null : spsRewriter.getCached(decodeUnitData, decodeUnitLength);
+            if (patchedSps == null) {
+                patchedSps = patchSps(decodeUnitData, decodeUnitLength);
+                if (!needsBaselineSpsHack) {
+                    spsRewriter.putCached(decodeUnitData, decodeUnitLength, patchedSps);
                 }
             }
 
-            // TI OMAP4 requires a reference frame count of 1 to decode successfully. Exynos 4
-            // also requires this fixup.
-            //
-            // I'm doing this fixup for all devices because I haven't seen any devices that
-            // this causes issues for. At worst, it seems to do nothing and at best it fixes
-            // issues with video lag, hangs, and crashes.
-            //
-            // It does break reference frame invalidation, so we will not do that for decoders
-            // where we've enabled reference frame invalidation.
-            if (!refFrameInvalidationActive) {
-                LimeLog.info("Patching num_ref_frames in SPS");
-                sps.numRefFrames = 1;
-            }
-
-            // GFE 2.5.11 changed the SPS to add additional extensions
-            // Some devices don't like these so we remove them here on old devices.
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
-                sps.vuiParams.videoSignalTypePresentFlag = false;
-                sps.vuiParams.colourDescriptionPresentFlag = false;
-                sps.vuiParams.chromaLocInfoPresentFlag = false;
-            }
-
-            // Some older devices used to choke on a bitstream restrictions, so we won't provide them
-            // unless explicitly whitelisted. For newer devices, leave the bitstream restrictions present.
-            if (needsSpsBitstreamFixup || isExynos4 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                // The SPS that comes in the current H264 bytestream doesn't set bitstream_restriction_flag
-                // or max_dec_frame_buffering which increases decoding latency on Tegra.
-
-                // GFE 2.5.11 started sending bitstream restrictions
-                if (sps.vuiParams.bitstreamRestriction == null) {
-                    LimeLog.info("Adding bitstream restrictions");
-                    sps.vuiParams.bitstreamRestriction = new VUIParameters.BitstreamRestriction();
-                    sps.vuiParams.bitstreamRestriction.motionVectorsOverPicBoundariesFlag = true;
-                    sps.vuiParams.bitstreamRestriction.log2MaxMvLengthHorizontal = 16;
-                    sps.vuiParams.bitstreamRestriction.log2MaxMvLengthVertical = 16;
-                    sps.vuiParams.bitstreamRestriction.numReorderFrames = 0;
-                }
-                else {
-                    LimeLog.info("Patching bitstream restrictions");
-                }
-
-                // Some devices throw errors if maxDecFrameBuffering < numRefFrames
-                sps.vuiParams.bitstreamRestriction.maxDecFrameBuffering = sps.numRefFrames;
-
-                // These values are the defaults for the fields, but they are more aggressive
-                // than what GFE sends in 2.5.11, but it doesn't seem to cause picture problems.
-                sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
-                sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
-
-                // log2_max_mv_length_horizontal and log2_max_mv_length_vertical are set to more
-                // conservative values by GFE 2.5.11. We'll let those values stand.
-            }
-            else {
-                // Devices that didn't/couldn't get bitstream restrictions before GFE 2.5.11
-                // will continue to not receive them now
-                sps.vuiParams.bitstreamRestriction = null;
-            }
-
-            // If we need to hack this SPS to say we're baseline, do so now
-            if (needsBaselineSpsHack) {
-                LimeLog.info("Hacking SPS to baseline");
-                sps.profileIdc = 66;
-                savedSps = sps;
-            }
-
-            // Patch the SPS constraint flags
-            doProfileSpecificSpsPatching(sps);
-
-            // The H264Utils.writeSPS function safely handles
-            // Annex B NALUs (including NALUs with escape sequences)
-            ByteBuffer escapedNalu = H264Utils.writeSPS(sps, decodeUnitLength);
-
             // Batch this to submit together with PPS
-            spsBuffer = new byte[5 + escapedNalu.limit()];
-            System.arraycopy(decodeUnitData, 0, spsBuffer, 0, 5);
-            escapedNalu.get(spsBuffer, 5, escapedNalu.limit());
+            spsBuffer = patchedSps;
             return MoonBridge.DR_OK;
         }
         else if (decodeUnitType == MoonBridge.BUFFER_TYPE_VPS) {
@@ -904,6 +1283,10 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
             }
 
             numFramesIn++;
+
+            // Remember the network time so it can be included in the end-to-end latency
+            activeWindowVideoStats.networkToEnqueueHistogram.record(enqueueTimeMs - receiveTimeMs);
+            pushPendingFrame(timestampUs, (int)(enqueueTimeMs - receiveTimeMs));
         }
 
         if (decodeUnitLength > buf.limit() - buf.position()) {
@@ -916,8 +1299,14 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
             throw new RendererException(this, exception);
         }
 
-        // Copy data from our buffer list into the input buffer
-        buf.put(decodeUnitData, 0, decodeUnitLength);
+        if (decodeUnitData != null) {
+            // Copy the parameter set into the input buffer
+            buf.put(decodeUnitData, 0, decodeUnitLength);
+        }
+        else {
+            // Have the native code copy the frame data straight into the input buffer
+            putPicData(buf, decodeUnitLength);
+        }
 
         if (!queueInputBuffer(inputBufferIndex,
                 0, buf.position(),
@@ -942,6 +1331,24 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
         return MoonBridge.DR_OK;
     }
 
+    private void putPicData(ByteBuffer buf, int length) {
+        int written = MoonBridge.copyPicData(buf, buf.position());
+        if (written < 0) {
+            // The input buffer isn't direct, so we must bounce through a direct staging buffer
+            if (picDataStagingBuffer == null || picDataStagingBuffer.capacity() < length) {
+                picDataStagingBuffer = ByteBuffer.allocateDirect(length);
+            }
+
+            picDataStagingBuffer.clear();
+            written = MoonBridge.copyPicData(picDataStagingBuffer, 0);
+            picDataStagingBuffer.limit(written);
+            buf.put(picDataStagingBuffer);
+        }
+        else {
+            buf.position(buf.position() + written);
+        }
+    }
+
     private boolean replaySps() {
         int inputIndex = dequeueInputBuffer();
         if (inputIndex < 0) {
@@ -1014,6 +1421,22 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
         return (int)(globalVideoStats.decoderTimeMs / globalVideoStats.totalFramesReceived);
     }
 
+    public int getEndToEndLatencyPercentile(double percentile) {
+        return globalVideoStats.endToEndHistogram.getPercentile(percentile);
+    }
+
+    public int getMaxEndToEndLatency() {
+        return globalVideoStats.endToEndHistogram.getMax();
+    }
+
+    public int getDecoderLatencyPercentile(double percentile) {
+        return globalVideoStats.enqueueToDecodeHistogram.getPercentile(percentile);
+    }
+
+    public int getMaxDecoderLatency() {
+        return globalVideoStats.enqueueToDecodeHistogram.getMax();
+    }
+
     static class DecoderHungException extends RuntimeException {
         private int hangTimeMs;
 
@@ -1105,6 +1528,8 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
             str += "Input format: "+renderer.inputFormat+"\n";
             str += "Output format: "+renderer.outputFormat+"\n";
             str += "Adaptive playback: "+renderer.adaptivePlayback+"\n";
+            str += "Async decoder: "+(renderer.asyncInputBuffers != null)+"\n";
+            str += "Frame pacer: "+((renderer.framePacer != null) ? renderer.framePacer.getClass().getSimpleName():"(none)")+"\n";
             str += "GL Renderer: "+renderer.glRenderer+"\n";
             str += "Build fingerprint: "+Build.FINGERPRINT+"\n";
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
@@ -1125,6 +1550,9 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer {
             str += "Frame losses: "+renderer.globalVideoStats.framesLost+" in "+renderer.globalVideoStats.frameLossEvents+" loss events\n";
             str += "Average end-to-end client latency: "+renderer.getAverageEndToEndLatency()+"ms\n";
             str += "Average hardware decoder latency: "+renderer.getAverageDecoderLatency()+"ms\n";
+            str += "End-to-end client latency p50/p95/p99/max: "+renderer.getEndToEndLatencyPercentile(50)+"/"+
+                    renderer.getEndToEndLatencyPercentile(95)+"/"+renderer.getEndToEndLatencyPercentile(99)+"/"+
+                    renderer.getMaxEndToEndLatency()+"ms\n";
 
             if (currentBuffer != null) {
                 str += "Current buffer: ";
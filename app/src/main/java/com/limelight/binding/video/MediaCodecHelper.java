@@ -3,19 +3,16 @@ package com.limelight.binding.video;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import android.annotation.SuppressLint;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.content.pm.ConfigurationInfo;
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaCodecInfo.CodecCapabilities;
 import android.media.MediaCodecInfo.CodecProfileLevel;
 import android.media.MediaFormat;
@@ -49,6 +46,7 @@ public class MediaCodecHelper {
     private static boolean isLowEndSnapdragon = false;
     private static boolean isAdreno620 = false;
     private static boolean initialized = false;
+    private static DecoderCatalog catalog;
 
     static {
         directSubmitPrefixes = new LinkedList<>();
@@ -353,14 +351,26 @@ public class MediaCodecHelper {
             }
         }
 
+        // This must happen after the runtime additions to our decoder lists above
+        catalog = DecoderCatalog.load(context, glRenderer);
+
         initialized = true;
     }
 
-    private static boolean isDecoderInList(List<String> decoderList, String decoderName) {
+    private static DecoderCatalog.Decoder getDecoder(String decoderName) {
         if (!initialized) {
             throw new IllegalStateException("MediaCodecHelper must be initialized before use");
         }
 
+        DecoderCatalog.Decoder decoder = catalog.getDecoder(decoderName);
+        if (decoder == null) {
+            // Not in the MediaCodecList, so we can only evaluate it by name
+            decoder = evaluateDecoderName(decoderName);
+        }
+        return decoder;
+    }
+
+    private static boolean isDecoderInList(List<String> decoderList, String decoderName) {
         for (String badPrefix : decoderList) {
             if (decoderName.length() >= badPrefix.length()) {
                 String prefix = decoderName.substring(0, badPrefix.length());
@@ -377,22 +387,6 @@ public class MediaCodecHelper {
         return System.nanoTime() / 1000000L;
     }
 
-    private static boolean decoderSupportsAndroidRLowLatency(MediaCodecInfo decoderInfo, String mimeType) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-            try {
-                if (decoderInfo.getCapabilitiesForType(mimeType).isFeatureSupported(CodecCapabilities.FEATURE_LowLatency)) {
-                    LimeLog.info("Low latency decoding mode supported (FEATURE_LowLatency)");
-                    return true;
-                }
-            } catch (Exception e) {
-                // Tolerate buggy codecs
-                e.printStackTrace();
-            }
-        }
-
-        return false;
-    }
-
     private static boolean decoderSupportsMaxOperatingRate(String decoderName) {
         // Operate at maximum rate to lower latency as much as possible on
         // some Qualcomm platforms. We could also set KEY_PRIORITY to 0 (realtime)
@@ -408,8 +402,121 @@ public class MediaCodecHelper {
                 !isAdreno620;
     }
 
+    // Evaluates every decision that depends only on the decoder's name
+    private static DecoderCatalog.Decoder evaluateDecoderName(String decoderName) {
+        DecoderCatalog.Decoder decoder = new DecoderCatalog.Decoder(decoderName);
+
+        decoder.blacklisted = isDecoderInList(blacklistedDecoderPrefixes, decoderName);
+        decoder.directSubmit = isDecoderInList(directSubmitPrefixes, decoderName);
+        decoder.spsBitstreamFixup = isDecoderInList(spsFixupBitstreamFixupDecoderPrefixes, decoderName);
+        decoder.baselineSpsHack = isDecoderInList(baselineProfileHackPrefixes, decoderName);
+        decoder.constrainedHighProfile = isDecoderInList(constrainedHighProfilePrefixes, decoderName);
+        decoder.adaptivePlaybackBlacklisted = isDecoderInList(blacklistedAdaptivePlaybackPrefixes, decoderName);
+        decoder.blacklisted49Fps = isDecoderInList(blacklisted49FpsDecoderPrefixes, decoderName);
+        decoder.blacklisted59Fps = isDecoderInList(blacklisted59FpsDecoderPrefixes, decoderName);
+        decoder.refFrameInvalidationHevc = isDecoderInList(refFrameInvalidationHevcPrefixes, decoderName);
+        decoder.maxOperatingRate = decoderSupportsMaxOperatingRate(decoderName);
+
+        // This device seems to crash constantly at 720p, so try disabling
+        // RFI to see if we can get that under control.
+        if (!Build.DEVICE.equals("b3") && !Build.DEVICE.equals("b5")) {
+            decoder.refFrameInvalidationAvc = isDecoderInList(refFrameInvalidationAvcPrefixes, decoderName);
+        }
+
+        // Google didn't have official support for HEVC (or more importantly, a CTS test) until
+        // Lollipop. I've seen some MediaTek devices on 4.4 crash when attempting to use HEVC,
+        // so I'm restricting HEVC usage to Lollipop and higher.
+        //
+        // Software decoders are terrible and we never want to use them.
+        // We want to catch decoders like:
+        // OMX.qcom.video.decoder.hevcswvdec
+        // OMX.SEC.hevc.sw.dec
+        //
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && !decoderName.contains("sw")) {
+            decoder.hevcDeprioritized = isDecoderInList(deprioritizedHevcDecoders, decoderName);
+            decoder.hevcWhitelisted = !decoder.hevcDeprioritized && isDecoderInList(whitelistedHevcDecoders, decoderName);
+        }
+
+        if (isDecoderInList(qualcommDecoderPrefixes, decoderName)) {
+            decoder.lowLatencyVendor = DecoderCatalog.LOW_LATENCY_VENDOR_QUALCOMM;
+        }
+        else if (isDecoderInList(kirinDecoderPrefixes, decoderName)) {
+            decoder.lowLatencyVendor = DecoderCatalog.LOW_LATENCY_VENDOR_KIRIN;
+        }
+        else if (isDecoderInList(exynosDecoderPrefixes, decoderName)) {
+            decoder.lowLatencyVendor = DecoderCatalog.LOW_LATENCY_VENDOR_EXYNOS;
+        }
+
+        return decoder;
+    }
+
+    // Runs a decoder through all of our quirk lists and queries its capabilities. The results
+    // are persisted by DecoderCatalog, so this is normally only done after a system update.
+    static DecoderCatalog.Decoder evaluateDecoder(MediaCodecInfo codecInfo) {
+        DecoderCatalog.Decoder decoder = evaluateDecoderName(codecInfo.getName());
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            decoder.alias = codecInfo.isAlias();
+
+            // Use the new isSoftwareOnly() function on Android Q
+            if (!IS_EMULATOR && codecInfo.isSoftwareOnly()) {
+                decoder.blacklisted = true;
+            }
+        }
+
+        for (String mimeType : codecInfo.getSupportedTypes()) {
+            DecoderCatalog.TypeCapabilities typeCaps = new DecoderCatalog.TypeCapabilities(mimeType);
+
+            CodecCapabilities caps;
+            try {
+                caps = codecInfo.getCapabilitiesForType(mimeType);
+            } catch (Exception e) {
+                // Some buggy devices seem to throw exceptions from getCapabilitiesForType()
+                e.printStackTrace();
+                typeCaps.broken = true;
+                decoder.addType(typeCaps);
+                continue;
+            }
+
+            typeCaps.profiles = new int[caps.profileLevels.length];
+            for (int i = 0; i < caps.profileLevels.length; i++) {
+                typeCaps.profiles[i] = caps.profileLevels[i].profile;
+            }
+
+            try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                    typeCaps.lowLatency = caps.isFeatureSupported(CodecCapabilities.FEATURE_LowLatency);
+                }
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    typeCaps.adaptivePlayback = caps.isFeatureSupported(CodecCapabilities.FEATURE_AdaptivePlayback);
+                }
+            } catch (Exception e) {
+                // Tolerate buggy codecs
+                e.printStackTrace();
+            }
+
+            decoder.addType(typeCaps);
+        }
+
+        return decoder;
+    }
+
+    private static boolean decoderSupportsAndroidRLowLatency(DecoderCatalog.Decoder decoder, String mimeType) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            DecoderCatalog.TypeCapabilities caps = decoder.getType(mimeType);
+            if (caps != null && caps.lowLatency) {
+                LimeLog.info("Low latency decoding mode supported (FEATURE_LowLatency)");
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     public static void setDecoderLowLatencyOptions(MediaFormat videoFormat, MediaCodecInfo decoderInfo, String mimeType) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && decoderSupportsAndroidRLowLatency(decoderInfo, mimeType)) {
+        DecoderCatalog.Decoder decoder = getDecoder(decoderInfo.getName());
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && decoderSupportsAndroidRLowLatency(decoder, mimeType)) {
             videoFormat.setInteger(MediaFormat.KEY_LOW_LATENCY, 1);
         }
         else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
@@ -421,25 +528,25 @@ public class MediaCodecHelper {
             // https://cs.android.com/android/_/android/platform/frameworks/av/+/01c10f8cdcd58d1e7025f426a72e6e75ba5d7fc2
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 // Try vendor-specific low latency options
-                if (isDecoderInList(qualcommDecoderPrefixes, decoderInfo.getName())) {
+                if (decoder.lowLatencyVendor == DecoderCatalog.LOW_LATENCY_VENDOR_QUALCOMM) {
                     // Examples of Qualcomm's vendor extensions for Snapdragon 845:
                     // https://cs.android.com/android/platform/superproject/+/master:hardware/qcom/sdm845/media/mm-video-v4l2/vidc/vdec/src/omx_vdec_extensions.hpp
                     // https://cs.android.com/android/_/android/platform/hardware/qcom/sm8150/media/+/0621ceb1c1b19564999db8293574a0e12952ff6c
                     videoFormat.setInteger("vendor.qti-ext-dec-low-latency.enable", 1);
                 }
-                else if (isDecoderInList(kirinDecoderPrefixes, decoderInfo.getName())) {
+                else if (decoder.lowLatencyVendor == DecoderCatalog.LOW_LATENCY_VENDOR_KIRIN) {
                     // Kirin low latency options
                     // https://developer.huawei.com/consumer/cn/forum/topic/0202325564295980115
                     videoFormat.setInteger("vendor.hisi-ext-low-latency-video-dec.video-scene-for-low-latency-req", 1);
                     videoFormat.setInteger("vendor.hisi-ext-low-latency-video-dec.video-scene-for-low-latency-rdy", -1);
                 }
-                else if (isDecoderInList(exynosDecoderPrefixes, decoderInfo.getName())) {
+                else if (decoder.lowLatencyVendor == DecoderCatalog.LOW_LATENCY_VENDOR_EXYNOS) {
                     // Exynos low latency option for H.264 decoder
                     videoFormat.setInteger("vendor.rtc-ext-dec-low-latency.enable", 1);
                 }
             }
 
-            if (MediaCodecHelper.decoderSupportsMaxOperatingRate(decoderInfo.getName())) {
+            if (decoder.maxOperatingRate) {
                 videoFormat.setInteger(MediaFormat.KEY_OPERATING_RATE, Short.MAX_VALUE);
             }
         }
@@ -448,22 +555,17 @@ public class MediaCodecHelper {
     public static boolean decoderSupportsAdaptivePlayback(MediaCodecInfo decoderInfo, String mimeType) {
         // Possibly enable adaptive playback on KitKat and above
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            if (isDecoderInList(blacklistedAdaptivePlaybackPrefixes, decoderInfo.getName())) {
+            DecoderCatalog.Decoder decoder = getDecoder(decoderInfo.getName());
+            if (decoder.adaptivePlaybackBlacklisted) {
                 LimeLog.info("Decoder blacklisted for adaptive playback");
                 return false;
             }
 
-            try {
-                if (decoderInfo.getCapabilitiesForType(mimeType).
-                        isFeatureSupported(CodecCapabilities.FEATURE_AdaptivePlayback))
-                {
-                    // This will make getCapabilities() return that adaptive playback is supported
-                    LimeLog.info("Adaptive playback supported (FEATURE_AdaptivePlayback)");
-                    return true;
-                }
-            } catch (Exception e) {
-                // Tolerate buggy codecs
-                e.printStackTrace();
+            DecoderCatalog.TypeCapabilities caps = decoder.getType(mimeType);
+            if (caps != null && caps.adaptivePlayback) {
+                // This will make getCapabilities() return that adaptive playback is supported
+                LimeLog.info("Adaptive playback supported (FEATURE_AdaptivePlayback)");
+                return true;
             }
         }
         
@@ -471,27 +573,27 @@ public class MediaCodecHelper {
     }
 
     public static boolean decoderNeedsConstrainedHighProfile(String decoderName) {
-        return isDecoderInList(constrainedHighProfilePrefixes, decoderName);
+        return getDecoder(decoderName).constrainedHighProfile;
     }
 
     public static boolean decoderCanDirectSubmit(String decoderName) {
-        return isDecoderInList(directSubmitPrefixes, decoderName) && !isExynos4Device();
+        return getDecoder(decoderName).directSubmit && !isExynos4Device();
     }
     
     public static boolean decoderNeedsSpsBitstreamRestrictions(String decoderName) {
-        return isDecoderInList(spsFixupBitstreamFixupDecoderPrefixes, decoderName);
+        return getDecoder(decoderName).spsBitstreamFixup;
     }
 
     public static boolean decoderNeedsBaselineSpsHack(String decoderName) {
-        return isDecoderInList(baselineProfileHackPrefixes, decoderName);
+        return getDecoder(decoderName).baselineSpsHack;
     }
 
     public static boolean decoderBlacklistedForFrameRate(String decoderName, int fps) {
         if (fps == 49) {
-            return isDecoderInList(blacklisted49FpsDecoderPrefixes, decoderName);
+            return getDecoder(decoderName).blacklisted49Fps;
         }
         else if (fps == 59) {
-            return isDecoderInList(blacklisted59FpsDecoderPrefixes, decoderName);
+            return getDecoder(decoderName).blacklisted59Fps;
         }
         else {
             return false;
@@ -504,17 +606,11 @@ public class MediaCodecHelper {
             return false;
         }
 
-        // This device seems to crash constantly at 720p, so try disabling
-        // RFI to see if we can get that under control.
-        if (Build.DEVICE.equals("b3") || Build.DEVICE.equals("b5")) {
-            return false;
-        }
-
-        return isDecoderInList(refFrameInvalidationAvcPrefixes, decoderName);
+        return getDecoder(decoderName).refFrameInvalidationAvc;
     }
 
     public static boolean decoderSupportsRefFrameInvalidationHevc(String decoderName) {
-        return isDecoderInList(refFrameInvalidationHevcPrefixes, decoderName);
+        return getDecoder(decoderName).refFrameInvalidationHevc;
     }
 
     public static boolean decoderIsWhitelistedForHevc(String decoderName, boolean meteredData, PreferenceConfiguration prefs) {
@@ -532,29 +628,14 @@ public class MediaCodecHelper {
             return false;
         }*/
 
-        // Google didn't have official support for HEVC (or more importantly, a CTS test) until
-        // Lollipop. I've seen some MediaTek devices on 4.4 crash when attempting to use HEVC,
-        // so I'm restricting HEVC usage to Lollipop and higher.
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-            return false;
-        }
-
-        //
-        // Software decoders are terrible and we never want to use them.
-        // We want to catch decoders like:
-        // OMX.qcom.video.decoder.hevcswvdec
-        // OMX.SEC.hevc.sw.dec
-        //
-        if (decoderName.contains("sw")) {
-            return false;
-        }
+        DecoderCatalog.Decoder decoder = getDecoder(decoderName);
 
         // Some devices have HEVC decoders that we prefer not to use
         // typically because it can't support reference frame invalidation.
         // However, we will use it for HDR and for streaming over mobile networks
         // since it works fine otherwise. We will also use it for 4K because RFI
         // is currently disabled due to issues with video corruption.
-        if (isDecoderInList(deprioritizedHevcDecoders, decoderName)) {
+        if (decoder.hevcDeprioritized) {
             if (meteredData || (prefs.width == 3840 && prefs.height == 2160)) {
                 LimeLog.info("Selected deprioritized decoder");
                 return true;
@@ -564,31 +645,13 @@ public class MediaCodecHelper {
             }
         }
 
-        return isDecoderInList(whitelistedHevcDecoders, decoderName);
-    }
-    
-    @SuppressWarnings("deprecation")
-    @SuppressLint("NewApi")
-    private static LinkedList<MediaCodecInfo> getMediaCodecList() {
-        LinkedList<MediaCodecInfo> infoList = new LinkedList<>();
-        
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            MediaCodecList mcl = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
-            Collections.addAll(infoList, mcl.getCodecInfos());
-        }
-        else {
-            for (int i = 0; i < MediaCodecList.getCodecCount(); i++) {
-                infoList.add(MediaCodecList.getCodecInfoAt(i));
-            }   
-        }
-        
-        return infoList;
+        return decoder.hevcWhitelisted;
     }
     
     @SuppressWarnings("RedundantThrows")
     public static String dumpDecoders() throws Exception {
         String str = "";
-        for (MediaCodecInfo codecInfo : getMediaCodecList()) {
+        for (MediaCodecInfo codecInfo : DecoderCatalog.getCodecInfos()) {
             // Skip encoders
             if (codecInfo.isEncoder()) {
                 continue;
@@ -617,16 +680,11 @@ public class MediaCodecHelper {
         }
         
         for (String preferredDecoder : preferredDecoders) {
-            for (MediaCodecInfo codecInfo : getMediaCodecList()) {
-                // Skip encoders
-                if (codecInfo.isEncoder()) {
-                    continue;
-                }
-                
+            for (DecoderCatalog.Decoder decoder : catalog.getDecoders()) {
                 // Check for preferred decoders
-                if (preferredDecoder.equalsIgnoreCase(codecInfo.getName())) {
-                    LimeLog.info("Preferred decoder choice is "+codecInfo.getName());
-                    return codecInfo;
+                if (preferredDecoder.equalsIgnoreCase(decoder.name)) {
+                    LimeLog.info("Preferred decoder choice is "+decoder.name);
+                    return decoder.info;
                 }
             }
         }
@@ -634,18 +692,10 @@ public class MediaCodecHelper {
         return null;
     }
 
-    private static boolean isCodecBlacklisted(MediaCodecInfo codecInfo) {
-        // Use the new isSoftwareOnly() function on Android Q
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            if (!IS_EMULATOR && codecInfo.isSoftwareOnly()) {
-                LimeLog.info("Skipping software-only decoder: "+codecInfo.getName());
-                return true;
-            }
-        }
-
-        // Check for explicitly blacklisted decoders
-        if (isDecoderInList(blacklistedDecoderPrefixes, codecInfo.getName())) {
-            LimeLog.info("Skipping blacklisted decoder: "+codecInfo.getName());
+    private static boolean isCodecBlacklisted(DecoderCatalog.Decoder decoder) {
+        // This covers both software-only decoders on Q+ and explicitly blacklisted decoders
+        if (decoder.blacklisted) {
+            LimeLog.info("Skipping blacklisted decoder: "+decoder.name);
             return true;
         }
 
@@ -653,30 +703,25 @@ public class MediaCodecHelper {
     }
     
     public static MediaCodecInfo findFirstDecoder(String mimeType) {
-        for (MediaCodecInfo codecInfo : getMediaCodecList()) {
-            // Skip encoders
-            if (codecInfo.isEncoder()) {
-                continue;
-            }
+        if (!initialized) {
+            throw new IllegalStateException("MediaCodecHelper must be initialized before use");
+        }
 
+        for (DecoderCatalog.Decoder decoder : catalog.getDecoders()) {
             // Skip compatibility aliases on Q+
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                if (codecInfo.isAlias()) {
-                    continue;
-                }
+            if (decoder.alias) {
+                continue;
             }
             
             // Find a decoder that supports the specified video format
-            for (String mime : codecInfo.getSupportedTypes()) {
-                if (mime.equalsIgnoreCase(mimeType)) {
-                    // Skip blacklisted codecs
-                    if (isCodecBlacklisted(codecInfo)) {
-                        continue;
-                    }
-
-                    LimeLog.info("First decoder choice is "+codecInfo.getName());
-                    return codecInfo;
+            if (decoder.getType(mimeType) != null) {
+                // Skip blacklisted codecs
+                if (isCodecBlacklisted(decoder)) {
+                    continue;
                 }
+
+                LimeLog.info("First decoder choice is "+decoder.name);
+                return decoder.info;
             }
         }
         
@@ -707,6 +752,10 @@ public class MediaCodecHelper {
     // and we want to be sure all callers are handling this possibility
     @SuppressWarnings("RedundantThrows")
     private static MediaCodecInfo findKnownSafeDecoder(String mimeType, int requiredProfile) throws Exception {
+        if (!initialized) {
+            throw new IllegalStateException("MediaCodecHelper must be initialized before use");
+        }
+
         // Some devices (Exynos devces, at least) have two sets of decoders.
         // The first set of decoders are C2 which do not support FEATURE_LowLatency,
         // but the second set of OMX decoders do support FEATURE_LowLatency. We want
@@ -716,48 +765,40 @@ public class MediaCodecHelper {
         // the standard ones (like c2.qti.hevc.decoder) do not. Like Exynos, the decoders
         // with FEATURE_LowLatency support are listed after the standard ones.
         for (int i = 0; i < 2; i++) {
-            for (MediaCodecInfo codecInfo : getMediaCodecList()) {
-                // Skip encoders
-                if (codecInfo.isEncoder()) {
+            for (DecoderCatalog.Decoder decoder : catalog.getDecoders()) {
+                // Skip compatibility aliases on Q+
+                if (decoder.alias) {
                     continue;
                 }
 
-                // Skip compatibility aliases on Q+
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                    if (codecInfo.isAlias()) {
+                // Find a decoder that supports the requested video format
+                DecoderCatalog.TypeCapabilities caps = decoder.getType(mimeType);
+                if (caps != null) {
+                    LimeLog.info("Examining decoder capabilities of " + decoder.name + " (round " + (i + 1) + ")");
+
+                    // Skip blacklisted codecs
+                    if (isCodecBlacklisted(decoder)) {
                         continue;
                     }
-                }
-
-                // Find a decoder that supports the requested video format
-                for (String mime : codecInfo.getSupportedTypes()) {
-                    if (mime.equalsIgnoreCase(mimeType)) {
-                        LimeLog.info("Examining decoder capabilities of " + codecInfo.getName() + " (round " + (i + 1) + ")");
 
-                        // Skip blacklisted codecs
-                        if (isCodecBlacklisted(codecInfo)) {
-                            continue;
-                        }
+                    if (caps.broken) {
+                        throw new IllegalArgumentException("Unable to query capabilities of " + decoder.name);
+                    }
 
-                        CodecCapabilities caps = codecInfo.getCapabilitiesForType(mime);
+                    if (i == 0 && !decoderSupportsAndroidRLowLatency(decoder, mimeType)) {
+                        LimeLog.info("Skipping decoder that lacks FEATURE_LowLatency for round 1");
+                        continue;
+                    }
 
-                        if (i == 0 && !decoderSupportsAndroidRLowLatency(codecInfo, mime)) {
-                            LimeLog.info("Skipping decoder that lacks FEATURE_LowLatency for round 1");
-                            continue;
+                    if (requiredProfile != -1) {
+                        if (caps.supportsProfile(requiredProfile)) {
+                            LimeLog.info("Decoder " + decoder.name + " supports required profile");
+                            return decoder.info;
                         }
 
-                        if (requiredProfile != -1) {
-                            for (CodecProfileLevel profile : caps.profileLevels) {
-                                if (profile.profile == requiredProfile) {
-                                    LimeLog.info("Decoder " + codecInfo.getName() + " supports required profile");
-                                    return codecInfo;
-                                }
-                            }
-
-                            LimeLog.info("Decoder " + codecInfo.getName() + " does NOT support required profile");
-                        } else {
-                            return codecInfo;
-                        }
+                        LimeLog.info("Decoder " + decoder.name + " does NOT support required profile");
+                    } else {
+                        return decoder.info;
                     }
                 }
             }
@@ -788,6 +829,14 @@ public class MediaCodecHelper {
     }
     
     public static boolean isExynos4Device() {
+        if (catalog != null) {
+            return catalog.isExynos4();
+        }
+
+        return probeExynos4Device();
+    }
+
+    static boolean probeExynos4Device() {
         try {
             // Try reading CPU info too look for 
             String cpuInfo = readCpuinfo();
@@ -13,6 +13,11 @@ class VideoStats {
     int framesLost;
     long measurementStartTimestamp;
 
+    final LatencyHistogram networkToEnqueueHistogram = new LatencyHistogram();
+    final LatencyHistogram enqueueToDecodeHistogram = new LatencyHistogram();
+    final LatencyHistogram decodeToRenderHistogram = new LatencyHistogram();
+    final LatencyHistogram endToEndHistogram = new LatencyHistogram();
+
     void add(VideoStats other) {
         this.decoderTimeMs += other.decoderTimeMs;
         this.totalTimeMs += other.totalTimeMs;
@@ -21,6 +26,10 @@ class VideoStats {
         this.totalFramesRendered += other.totalFramesRendered;
         this.frameLossEvents += other.frameLossEvents;
         this.framesLost += other.framesLost;
+        this.networkToEnqueueHistogram.add(other.networkToEnqueueHistogram);
+        this.enqueueToDecodeHistogram.add(other.enqueueToDecodeHistogram);
+        this.decodeToRenderHistogram.add(other.decodeToRenderHistogram);
+        this.endToEndHistogram.add(other.endToEndHistogram);
 
         if (this.measurementStartTimestamp == 0) {
             this.measurementStartTimestamp = other.measurementStartTimestamp;
@@ -38,6 +47,10 @@ class VideoStats {
         this.frameLossEvents = other.frameLossEvents;
         this.framesLost = other.framesLost;
         this.measurementStartTimestamp = other.measurementStartTimestamp;
+        this.networkToEnqueueHistogram.copy(other.networkToEnqueueHistogram);
+        this.enqueueToDecodeHistogram.copy(other.enqueueToDecodeHistogram);
+        this.decodeToRenderHistogram.copy(other.decodeToRenderHistogram);
+        this.endToEndHistogram.copy(other.endToEndHistogram);
     }
 
     void clear() {
@@ -49,6 +62,10 @@ class VideoStats {
         this.frameLossEvents = 0;
         this.framesLost = 0;
         this.measurementStartTimestamp = 0;
+        this.networkToEnqueueHistogram.clear();
+        this.enqueueToDecodeHistogram.clear();
+        this.decodeToRenderHistogram.clear();
+        this.endToEndHistogram.clear();
     }
 
     VideoStatsFps getFps() {
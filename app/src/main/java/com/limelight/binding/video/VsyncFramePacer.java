@@ -0,0 +1,150 @@
+package com.limelight.binding.video;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.view.Choreographer;
+
+// Queues decoded frames and releases at most one per display V-sync. With a queue
+// depth of 1, the newest frame is shown on each V-sync. Larger depths buffer extra
+// frames to absorb network and decoder jitter at the cost of latency.
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class VsyncFramePacer extends FramePacer implements Choreographer.FrameCallback {
+    private final int maxQueuedFrames;
+    private final int[] queuedBufferIndices;
+    private final long[] queuedPresentationTimesUs;
+    private int queuedFrameCount;
+
+    private HandlerThread pacerThread;
+    private volatile boolean stopped;
+
+    VsyncFramePacer(MediaCodecDecoderRenderer renderer, int maxQueuedFrames) {
+        super(renderer);
+        this.maxQueuedFrames = maxQueuedFrames;
+        this.queuedBufferIndices = new int[maxQueuedFrames];
+        this.queuedPresentationTimesUs = new long[maxQueuedFrames];
+    }
+
+    @Override
+    void start() {
+        // Choreographer callbacks are delivered on the Looper of the thread that registers them
+        pacerThread = new HandlerThread("Video - Frame Pacer", Process.THREAD_PRIORITY_DISPLAY);
+        pacerThread.start();
+
+        new Handler(pacerThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().postFrameCallback(VsyncFramePacer.this);
+            }
+        });
+    }
+
+    @Override
+    void stop() {
+        synchronized (this) {
+            stopped = true;
+        }
+
+        if (pacerThread == null) {
+            return;
+        }
+
+        // The frame callback and the queued buffers both belong to the pacer thread. Once we
+        // return, the decoder may be flushed and handed to another session, so nothing queued
+        // here can be released after that.
+        new Handler(pacerThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().removeFrameCallback(VsyncFramePacer.this);
+                dropQueuedFrames();
+            }
+        });
+        pacerThread.quitSafely();
+
+        try {
+            pacerThread.join();
+        } catch (InterruptedException ignored) {}
+
+        // Catch anything that was queued after our runnable ran
+        dropQueuedFrames();
+    }
+
+    private void dropQueuedFrames() {
+        while (true) {
+            int bufferIndex;
+
+            synchronized (this) {
+                if (queuedFrameCount == 0) {
+                    return;
+                }
+                bufferIndex = dequeueFrame();
+            }
+
+            renderer.dropFrame(bufferIndex);
+        }
+    }
+
+    @Override
+    void onFrameDecoded(int bufferIndex, long presentationTimeUs, boolean moreFramesPending) {
+        int droppedBufferIndex = -1;
+
+        synchronized (this) {
+            if (stopped) {
+                // Nothing will render this frame after we've stopped
+                droppedBufferIndex = bufferIndex;
+            }
+            else {
+                // If the queue is full, drop the oldest frame to make room
+                if (queuedFrameCount == maxQueuedFrames) {
+                    droppedBufferIndex = dequeueFrame();
+                }
+
+                queuedBufferIndices[queuedFrameCount] = bufferIndex;
+                queuedPresentationTimesUs[queuedFrameCount] = presentationTimeUs;
+                queuedFrameCount++;
+            }
+        }
+
+        if (droppedBufferIndex >= 0) {
+            renderer.dropFrame(droppedBufferIndex);
+        }
+    }
+
+    // Must be called while holding the lock on this object
+    private int dequeueFrame() {
+        int bufferIndex = queuedBufferIndices[0];
+
+        queuedFrameCount--;
+        System.arraycopy(queuedBufferIndices, 1, queuedBufferIndices, 0, queuedFrameCount);
+        System.arraycopy(queuedPresentationTimesUs, 1, queuedPresentationTimesUs, 0, queuedFrameCount);
+
+        return bufferIndex;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (stopped) {
+            return;
+        }
+
+        int bufferIndex = -1;
+        long presentationTimeUs = 0;
+
+        synchronized (this) {
+            if (queuedFrameCount > 0) {
+                presentationTimeUs = queuedPresentationTimesUs[0];
+                bufferIndex = dequeueFrame();
+            }
+        }
+
+        if (bufferIndex >= 0) {
+            // This V-sync has already begun, so using its timestamp will have
+            // the frame displayed on the next V-sync
+            renderer.renderFrame(bufferIndex, presentationTimeUs, frameTimeNanos);
+        }
+
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
@@ -0,0 +1,42 @@
+package com.limelight.computers;
+
+import com.limelight.nvstream.http.NvApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// The changes between two app lists from the same computer, matched by app ID
+public class AppListDiff {
+    public final List<NvApp> appList;
+    public final List<NvApp> added = new ArrayList<>();
+    public final List<NvApp> removed = new ArrayList<>();
+    public final List<NvApp> changed = new ArrayList<>();
+
+    public AppListDiff(List<NvApp> oldList, List<NvApp> newList) {
+        this.appList = newList;
+
+        HashMap<Integer, NvApp> oldApps = new HashMap<>();
+        for (NvApp app : oldList) {
+            oldApps.put(app.getAppId(), app);
+        }
+
+        for (NvApp app : newList) {
+            NvApp oldApp = oldApps.remove(app.getAppId());
+            if (oldApp == null) {
+                added.add(app);
+            }
+            else if (!oldApp.getAppName().equals(app.getAppName()) ||
+                    oldApp.isHdrSupported() != app.isHdrSupported()) {
+                changed.add(app);
+            }
+        }
+
+        // Anything left wasn't in the new list
+        removed.addAll(oldApps.values());
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+}
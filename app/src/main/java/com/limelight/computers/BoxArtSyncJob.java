@@ -0,0 +1,149 @@
+package com.limelight.computers;
+
+import android.os.SystemClock;
+
+import com.limelight.LimeLog;
+import com.limelight.grid.assets.CachedAppAssetLoader;
+import com.limelight.grid.assets.DiskAssetLoader;
+import com.limelight.grid.assets.NetworkAssetLoader;
+import com.limelight.nvstream.http.ComputerDetails;
+import com.limelight.nvstream.http.NvApp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Downloads the box art for all of a computer's apps that aren't already in the disk cache.
+// The number of parallel requests adapts to how quickly the host is responding: it grows
+// while response times stay near the fastest we've seen and backs off when they climb.
+class BoxArtSyncJob implements Runnable {
+    private static final int MIN_PARALLELISM = 1;
+    private static final int MAX_PARALLELISM = 8;
+    private static final int INITIAL_PARALLELISM = 2;
+
+    // Latency relative to the fastest response that triggers growing or shrinking
+    private static final int GROW_LATENCY_FACTOR = 2;
+    private static final int SHRINK_LATENCY_FACTOR = 4;
+
+    // Floor for the fastest response, so one unusually quick fetch doesn't
+    // make every normal one look slow
+    private static final long MIN_BASELINE_FETCH_MS = 50;
+
+    // Fetch results that aren't response times
+    private static final long FETCH_FAILED_MS = -1;
+    private static final long FETCH_NOT_DOWNLOADED_MS = -2;
+
+    private static final long FETCH_THREAD_KEEPALIVE_MS = 5000;
+
+    // Called after each fetch completes. The job can outlive whoever started it,
+    // so the callback should look up the current listener each time.
+    interface ProgressCallback {
+        void notifyProgress(ComputerDetails computer, int completed, int total);
+    }
+
+    private final ComputerDetails computer;
+    private final List<NvApp> apps;
+    private final NetworkAssetLoader networkLoader;
+    private final DiskAssetLoader diskLoader;
+    private final ProgressCallback progressCallback;
+
+    BoxArtSyncJob(ComputerDetails computer, List<NvApp> apps,
+                  NetworkAssetLoader networkLoader, DiskAssetLoader diskLoader,
+                  ProgressCallback progressCallback) {
+        this.computer = computer;
+        this.apps = apps;
+        this.networkLoader = networkLoader;
+        this.diskLoader = diskLoader;
+        this.progressCallback = progressCallback;
+    }
+
+    @Override
+    public void run() {
+        final ArrayList<CachedAppAssetLoader.LoaderTuple> missing = new ArrayList<>();
+        for (NvApp app : apps) {
+            CachedAppAssetLoader.LoaderTuple tuple = new CachedAppAssetLoader.LoaderTuple(computer, app);
+            if (!diskLoader.checkCacheExists(tuple)) {
+                missing.add(tuple);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        LimeLog.info("Syncing box art for "+missing.size()+" apps on "+computer.name);
+
+        ThreadPoolExecutor fetchExecutor = new ThreadPoolExecutor(MAX_PARALLELISM, MAX_PARALLELISM,
+                FETCH_THREAD_KEEPALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        fetchExecutor.allowCoreThreadTimeOut(true);
+        ExecutorCompletionService<Long> completionService = new ExecutorCompletionService<>(fetchExecutor);
+
+        int parallelism = INITIAL_PARALLELISM;
+        long fastestFetchMs = Long.MAX_VALUE;
+        int submitted = 0;
+        int completed = 0;
+        int failed = 0;
+
+        try {
+            while (completed < missing.size()) {
+                // Keep the current number of requests in flight
+                while (submitted - completed < parallelism && submitted < missing.size()) {
+                    final CachedAppAssetLoader.LoaderTuple tuple = missing.get(submitted++);
+                    completionService.submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws Exception {
+                            long startTime = SystemClock.elapsedRealtime();
+                            switch (CachedAppAssetLoader.fetchAssetToDisk(tuple, networkLoader, diskLoader, 0)) {
+                                case CachedAppAssetLoader.FETCH_DOWNLOADED:
+                                    return SystemClock.elapsedRealtime() - startTime;
+                                case CachedAppAssetLoader.FETCH_CACHED:
+                                    // Already on disk or shared with another download,
+                                    // so this says nothing about how the host is doing
+                                    return FETCH_NOT_DOWNLOADED_MS;
+                                default:
+                                    return FETCH_FAILED_MS;
+                            }
+                        }
+                    });
+                }
+
+                long fetchMs;
+                try {
+                    fetchMs = completionService.take().get();
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
+                    fetchMs = FETCH_FAILED_MS;
+                }
+                completed++;
+
+                if (fetchMs == FETCH_FAILED_MS) {
+                    // Failures are often the host being overwhelmed
+                    failed++;
+                    parallelism = Math.max(MIN_PARALLELISM, parallelism / 2);
+                }
+                else if (fetchMs != FETCH_NOT_DOWNLOADED_MS) {
+                    fastestFetchMs = Math.min(fastestFetchMs, Math.max(MIN_BASELINE_FETCH_MS, fetchMs));
+                    if (fetchMs <= fastestFetchMs * GROW_LATENCY_FACTOR) {
+                        parallelism = Math.min(MAX_PARALLELISM, parallelism + 1);
+                    }
+                    else if (fetchMs >= fastestFetchMs * SHRINK_LATENCY_FACTOR) {
+                        parallelism = Math.max(MIN_PARALLELISM, parallelism / 2);
+                    }
+                }
+
+                progressCallback.notifyProgress(computer, completed, missing.size());
+            }
+
+            LimeLog.info("Box art sync for "+computer.name+" complete: "+failed+" of "+missing.size()+" failed");
+        } catch (InterruptedException e) {
+            LimeLog.info("Box art sync for "+computer.name+" interrupted");
+        } finally {
+            fetchExecutor.shutdownNow();
+        }
+    }
+}
@@ -5,10 +5,13 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 
+import com.limelight.LimeLog;
 import com.limelight.nvstream.http.ComputerDetails;
 
 import android.content.ContentValues;
@@ -16,7 +19,11 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.HandlerThread;
 
+// Computers are kept in memory and changed rows are written back to the database
+// in batches, since polling updates the same computers every few seconds.
 public class ComputerDatabaseManager {
     private static final String COMPUTER_DB_NAME = "computers3.db";
     private static final String COMPUTER_TABLE_NAME = "Computers";
@@ -28,9 +35,30 @@ public class ComputerDatabaseManager {
 
     private static final char ADDRESS_DELIMITER = ';';
 
+    private static final int WRITE_BEHIND_DELAY_MS = 5000;
+
     private SQLiteDatabase computerDb;
 
+    // All access to these is synchronized on the manager
+    private final HashMap<String, ComputerDetails> computers = new HashMap<>();
+    private final HashSet<String> dirtyComputers = new HashSet<>();
+    private boolean flushPending;
+    private boolean closed;
+
+    private final HandlerThread writerThread;
+    private final Handler writerHandler;
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
     public ComputerDatabaseManager(Context c) {
+        writerThread = new HandlerThread("Computer DB Writer");
+        writerThread.start();
+        writerHandler = new Handler(writerThread.getLooper());
+
         try {
             // Create or open an existing DB
             computerDb = c.openOrCreateDatabase(COMPUTER_DB_NAME, 0, null);
@@ -42,8 +70,39 @@ public class ComputerDatabaseManager {
         initializeDb(c);
     }
 
-    public void close() {
+    public synchronized void close() {
+        writerHandler.removeCallbacks(flushRunnable);
+        writerThread.quit();
+
+        // Write out anything that's still pending
+        flush();
+
         computerDb.close();
+        closed = true;
+    }
+
+    // Writes all changed computers to the database in a single transaction
+    public synchronized void flush() {
+        flushPending = false;
+
+        if (closed || dirtyComputers.isEmpty()) {
+            return;
+        }
+
+        computerDb.beginTransaction();
+        try {
+            for (String uuid : dirtyComputers) {
+                ComputerDetails details = computers.get(uuid);
+                if (details != null) {
+                    computerDb.insertWithOnConflict(COMPUTER_TABLE_NAME, null,
+                            getContentValues(details), SQLiteDatabase.CONFLICT_REPLACE);
+                }
+            }
+            computerDb.setTransactionSuccessful();
+            dirtyComputers.clear();
+        } finally {
+            computerDb.endTransaction();
+        }
     }
 
     private void initializeDb(Context c) {
@@ -53,6 +112,14 @@ public class ComputerDatabaseManager {
                 COMPUTER_TABLE_NAME, COMPUTER_UUID_COLUMN_NAME, COMPUTER_NAME_COLUMN_NAME,
                 ADDRESSES_COLUMN_NAME, MAC_ADDRESS_COLUMN_NAME, SERVER_CERT_COLUMN_NAME));
 
+        // Load the existing computers into memory
+        Cursor cursor = computerDb.rawQuery("SELECT * FROM "+COMPUTER_TABLE_NAME, null);
+        while (cursor.moveToNext()) {
+            ComputerDetails details = getComputerFromCursor(cursor);
+            computers.put(details.uuid, details);
+        }
+        cursor.close();
+
         // Move all computers from the old DB (if any) to the new one
         List<ComputerDetails> oldComputers = LegacyDatabaseReader.migrateAllComputers(c);
         for (ComputerDetails computer : oldComputers) {
@@ -62,13 +129,101 @@ public class ComputerDatabaseManager {
         for (ComputerDetails computer : oldComputers) {
             updateComputer(computer);
         }
+
+        // Persist any migrated computers immediately
+        flush();
     }
 
-    public void deleteComputer(ComputerDetails details) {
+    public synchronized void deleteComputer(ComputerDetails details) {
+        if (closed) {
+            LimeLog.warning("Ignoring deletion of computer after database was closed: "+details.uuid);
+            return;
+        }
+
+        computers.remove(details.uuid);
+        dirtyComputers.remove(details.uuid);
+
         computerDb.delete(COMPUTER_TABLE_NAME, COMPUTER_UUID_COLUMN_NAME+"=?", new String[]{details.uuid});
     }
 
-    public boolean updateComputer(ComputerDetails details) {
+    private static ComputerDetails copyPersistentAttributes(ComputerDetails details) {
+        ComputerDetails copy = new ComputerDetails();
+
+        copy.uuid = details.uuid;
+        copy.name = details.name;
+        copy.localAddress = details.localAddress;
+        copy.remoteAddress = details.remoteAddress;
+        copy.manualAddress = details.manualAddress;
+        copy.ipv6Address = details.ipv6Address;
+        copy.macAddress = details.macAddress;
+        copy.serverCert = details.serverCert;
+
+        return copy;
+    }
+
+    private static boolean stringEquals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static boolean certEquals(X509Certificate a, X509Certificate b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static byte[] encodeCert(ComputerDetails details) {
+        try {
+            if (details.serverCert != null) {
+                return details.serverCert.getEncoded();
+            }
+        } catch (CertificateEncodingException e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    public synchronized boolean updateComputer(ComputerDetails details) {
+        if (closed) {
+            // Nothing would ever write this out
+            LimeLog.warning("Ignoring update of computer after database was closed: "+details.uuid);
+            return false;
+        }
+
+        ComputerDetails existing = computers.get(details.uuid);
+
+        // New computers and pinned certificates must survive the process being killed
+        // without close() being called, so those are written right away. Address and
+        // name changes from polling are batched.
+        boolean writeNow = existing == null || !certEquals(existing.serverCert, details.serverCert);
+
+        // Skip the write if nothing we persist has changed
+        if (!writeNow &&
+                stringEquals(existing.name, details.name) &&
+                stringEquals(existing.localAddress, details.localAddress) &&
+                stringEquals(existing.remoteAddress, details.remoteAddress) &&
+                stringEquals(existing.manualAddress, details.manualAddress) &&
+                stringEquals(existing.ipv6Address, details.ipv6Address) &&
+                stringEquals(existing.macAddress, details.macAddress)) {
+            return true;
+        }
+
+        computers.put(details.uuid, copyPersistentAttributes(details));
+        dirtyComputers.add(details.uuid);
+
+        if (writeNow) {
+            // We already hold the lock, so write it here rather than on the writer thread.
+            // This also picks up any batched changes that were waiting.
+            writerHandler.removeCallbacks(flushRunnable);
+            flush();
+        }
+        else if (!flushPending) {
+            flushPending = true;
+            writerHandler.postDelayed(flushRunnable, WRITE_BEHIND_DELAY_MS);
+        }
+
+        return true;
+    }
+
+    private static ContentValues getContentValues(ComputerDetails details) {
         ContentValues values = new ContentValues();
         values.put(COMPUTER_UUID_COLUMN_NAME, details.uuid);
         values.put(COMPUTER_NAME_COLUMN_NAME, details.name);
@@ -81,18 +236,8 @@ public class ComputerDatabaseManager {
 
         values.put(ADDRESSES_COLUMN_NAME, addresses.toString());
         values.put(MAC_ADDRESS_COLUMN_NAME, details.macAddress);
-        try {
-            if (details.serverCert != null) {
-                values.put(SERVER_CERT_COLUMN_NAME, details.serverCert.getEncoded());
-            }
-            else {
-                values.put(SERVER_CERT_COLUMN_NAME, (byte[])null);
-            }
-        } catch (CertificateEncodingException e) {
-            values.put(SERVER_CERT_COLUMN_NAME, (byte[])null);
-            e.printStackTrace();
-        }
-        return -1 != computerDb.insertWithOnConflict(COMPUTER_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        values.put(SERVER_CERT_COLUMN_NAME, encodeCert(details));
+        return values;
     }
 
     private static String readNonEmptyString(String input) {
@@ -135,29 +280,23 @@ public class ComputerDatabaseManager {
         return details;
     }
 
-    public List<ComputerDetails> getAllComputers() {
-        Cursor c = computerDb.rawQuery("SELECT * FROM "+COMPUTER_TABLE_NAME, null);
+    // Callers get copies, so they must call updateComputer() to persist changes
+    public synchronized List<ComputerDetails> getAllComputers() {
         LinkedList<ComputerDetails> computerList = new LinkedList<>();
-        while (c.moveToNext()) {
-            computerList.add(getComputerFromCursor(c));
+        for (ComputerDetails details : computers.values()) {
+            computerList.add(copyPersistentAttributes(details));
         }
 
-        c.close();
-
         return computerList;
     }
 
-    public ComputerDetails getComputerByUUID(String uuid) {
-        Cursor c = computerDb.query(COMPUTER_TABLE_NAME, null, COMPUTER_UUID_COLUMN_NAME+"=?", new String[]{ uuid }, null, null, null);
-        if (!c.moveToFirst()) {
+    public synchronized ComputerDetails getComputerByUUID(String uuid) {
+        ComputerDetails details = computers.get(uuid);
+        if (details == null) {
             // No matching computer
-            c.close();
             return null;
         }
 
-        ComputerDetails details = getComputerFromCursor(c);
-        c.close();
-
-        return details;
+        return copyPersistentAttributes(details);
     }
 }
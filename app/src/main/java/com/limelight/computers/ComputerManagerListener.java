@@ -4,4 +4,12 @@ import com.limelight.nvstream.http.ComputerDetails;
 
 public interface ComputerManagerListener {
     void notifyComputerUpdated(ComputerDetails details);
+
+    // Only called by app list pollers when the app list has changed (and once after the first
+    // successful poll). Returns true if the diff was applied. Otherwise, the changes will be
+    // delivered again on the next poll.
+    boolean notifyAppListUpdated(ComputerDetails details, AppListDiff diff);
+
+    // Called as box art is downloaded for apps that don't have any cached
+    void notifyBoxArtSyncProgress(ComputerDetails details, int completed, int total);
 }
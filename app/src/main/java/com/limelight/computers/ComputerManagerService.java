@@ -3,21 +3,40 @@ package com.limelight.computers;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.util.HashSet;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.limelight.LimeLog;
 import com.limelight.binding.PlatformBinding;
 import com.limelight.discovery.DiscoveryService;
+import com.limelight.grid.assets.DiskAssetLoader;
+import com.limelight.grid.assets.NetworkAssetLoader;
 import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.http.ComputerDetails;
 import com.limelight.nvstream.http.NvApp;
@@ -29,6 +48,7 @@ import com.limelight.utils.CacheHelper;
 import com.limelight.utils.NetHelper;
 import com.limelight.utils.ServerHelper;
 
+import android.annotation.TargetApi;
 import android.app.Service;
 import android.content.ComponentName;
 import android.content.Context;
@@ -37,6 +57,7 @@ import android.content.ServiceConnection;
 import android.net.ConnectivityManager;
 import android.net.Network;
 import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
 import android.os.Binder;
 import android.os.Build;
 import android.os.IBinder;
@@ -46,6 +67,9 @@ import org.xmlpull.v1.XmlPullParserException;
 
 public class ComputerManagerService extends Service {
     private static final int SERVERINFO_POLLING_PERIOD_MS = 1500;
+    private static final int MAX_STABLE_POLLING_PERIOD_MS = 12000;
+    private static final int MAX_OFFLINE_POLLING_PERIOD_MS = 60000;
+    private static final int POLL_SCHEDULER_THREADS = 4;
     private static final int APPLIST_POLLING_PERIOD_MS = 30000;
     private static final int APPLIST_FAILED_POLLING_RETRY_MS = 2000;
     private static final int MDNS_QUERY_PERIOD_MS = 1000;
@@ -54,6 +78,10 @@ public class ComputerManagerService extends Service {
     private static final int INITIAL_POLL_TRIES = 2;
     private static final int EMPTY_LIST_THRESHOLD = 3;
     private static final int POLL_DATA_TTL_MS = 30000;
+    private static final int POLL_THREAD_POOL_SIZE = 16;
+    private static final int POLL_THREAD_KEEPALIVE_MS = 30000;
+    private static final int PREFERRED_ADDRESS_HEAD_START_MS = 250;
+    private static final int BOX_ART_SYNC_KEEPALIVE_MS = 30000;
 
     private final ComputerManagerBinder binder = new ComputerManagerBinder();
 
@@ -66,6 +94,11 @@ public class ComputerManagerService extends Service {
     private final AtomicInteger activePolls = new AtomicInteger(0);
     private boolean pollingActive = false;
     private final Lock defaultNetworkLock = new ReentrantLock();
+    private ThreadPoolExecutor pollExecutor;
+    private ScheduledThreadPoolExecutor pollScheduler;
+    private ThreadPoolExecutor boxArtSyncExecutor;
+    private final AtomicLong completedPolls = new AtomicLong(0);
+    private ConnectivityManager.NetworkCallback networkCallback;
 
     private DiscoveryService.DiscoveryBinder discoveryBinder;
     private final ServiceConnection discoveryServiceConnection = new ServiceConnection() {
@@ -162,36 +195,147 @@ public class ComputerManagerService extends Service {
         return true;
     }
 
-    private Thread createPollingThread(final PollingTuple tuple) {
-        Thread t = new Thread() {
+    private static boolean stringEquals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    // Returns true if a poll changed anything that's worth polling more often to track
+    private static boolean hasPollStateChanged(ComputerDetails before, ComputerDetails after) {
+        return before.state != after.state ||
+                before.pairState != after.pairState ||
+                before.runningGameId != after.runningGameId ||
+                !stringEquals(before.name, after.name) ||
+                !stringEquals(before.activeAddress, after.activeAddress);
+    }
+
+    private static int getNextPollInterval(PollingTuple tuple, boolean changed) {
+        if (tuple.computer.state == ComputerDetails.State.OFFLINE) {
+            // Back off exponentially while the PC stays offline
+            return Math.min(tuple.pollIntervalMs * 2, MAX_OFFLINE_POLLING_PERIOD_MS);
+        }
+        else if (changed || tuple.offlineCount != 0 || tuple.computer.state != ComputerDetails.State.ONLINE) {
+            // Poll quickly while the state is changing or we're confirming it's offline
+            return SERVERINFO_POLLING_PERIOD_MS;
+        }
+        else {
+            // Poll less often as long as nothing changes
+            return Math.min(tuple.pollIntervalMs * 2, MAX_STABLE_POLLING_PERIOD_MS);
+        }
+    }
+
+    // Must be called with the pollingTuples lock held
+    private void schedulePoll(final PollingTuple tuple, long delayMs) {
+        if (tuple.pollFuture != null) {
+            tuple.pollFuture.cancel(false);
+        }
+
+        // Any poll already in progress will see the new generation and not reschedule itself
+        final int generation = ++tuple.pollGeneration;
+        tuple.pollFuture = pollScheduler.schedule(new Runnable() {
             @Override
             public void run() {
+                runScheduledPoll(tuple, generation);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
 
-                int offlineCount = 0;
-                while (!isInterrupted() && pollingActive && tuple.thread == this) {
-                    try {
-                        // Only allow one request to the machine at a time
-                        synchronized (tuple.networkLock) {
-                            // Check if this poll has modified the details
-                            if (!runPoll(tuple.computer, false, offlineCount)) {
-                                LimeLog.warning(tuple.computer.name + " is offline (try " + offlineCount + ")");
-                                offlineCount++;
-                            } else {
-                                tuple.lastSuccessfulPollMs = SystemClock.elapsedRealtime();
-                                offlineCount = 0;
-                            }
-                        }
+    // Must be called with the pollingTuples lock held
+    private void cancelPoll(PollingTuple tuple) {
+        if (tuple.pollFuture != null) {
+            tuple.pollFuture.cancel(true);
+            tuple.pollFuture = null;
+        }
+        tuple.pollGeneration++;
+    }
+
+    // Must be called with the pollingTuples lock held
+    private void pollNow(PollingTuple tuple) {
+        tuple.pollIntervalMs = SERVERINFO_POLLING_PERIOD_MS;
+        schedulePoll(tuple, 0);
+    }
+
+    private void runScheduledPoll(PollingTuple tuple, int generation) {
+        boolean changed = false;
+
+        try {
+            // Only allow one request to the machine at a time
+            synchronized (tuple.networkLock) {
+                ComputerDetails previousDetails = new ComputerDetails(tuple.computer);
+
+                // Check if this poll has modified the details
+                if (!runPoll(tuple.computer, false, tuple.offlineCount)) {
+                    LimeLog.warning(tuple.computer.name + " is offline (try " + tuple.offlineCount + ")");
+                    tuple.offlineCount++;
+                } else {
+                    tuple.lastSuccessfulPollMs = SystemClock.elapsedRealtime();
+                    tuple.offlineCount = 0;
+                    changed = hasPollStateChanged(previousDetails, tuple.computer);
+                }
+            }
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        completedPolls.incrementAndGet();
+
+        synchronized (pollingTuples) {
+            // Don't reschedule if polling stopped or another poll was scheduled meanwhile
+            if (!pollingActive || tuple.pollGeneration != generation) {
+                return;
+            }
+
+            tuple.pollIntervalMs = getNextPollInterval(tuple, changed);
+            schedulePoll(tuple, tuple.pollIntervalMs);
+        }
+    }
+
+    // Returns the number of serverinfo polls per minute at the current polling intervals
+    private int getPollBudgetPerMinute() {
+        int budget = 0;
+
+        synchronized (pollingTuples) {
+            for (PollingTuple tuple : pollingTuples) {
+                if (tuple.pollFuture != null) {
+                    budget += 60000 / tuple.pollIntervalMs;
+                }
+            }
+        }
+
+        return budget;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void registerNetworkCallback() {
+        ConnectivityManager connMgr = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
 
-                        // Wait until the next polling interval
-                        Thread.sleep(SERVERINFO_POLLING_PERIOD_MS);
-                    } catch (InterruptedException e) {
-                        break;
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                // Our addresses may be reachable now, so don't wait out any backoff
+                synchronized (pollingTuples) {
+                    if (!pollingActive) {
+                        return;
+                    }
+
+                    for (PollingTuple tuple : pollingTuples) {
+                        // PCs polling at the normal rate will be polled soon anyway
+                        if (tuple.pollIntervalMs > SERVERINFO_POLLING_PERIOD_MS) {
+                            pollNow(tuple);
+                        }
                     }
                 }
             }
         };
-        t.setName("Polling thread for " + tuple.computer.name);
-        return t;
+        connMgr.registerNetworkCallback(new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET).build(), networkCallback);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void unregisterNetworkCallback() {
+        ConnectivityManager connMgr = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        connMgr.unregisterNetworkCallback(networkCallback);
+        networkCallback = null;
     }
 
     public class ComputerManagerBinder extends Binder {
@@ -216,13 +360,17 @@ public class ComputerManagerService extends Service {
                     // Report this computer initially
                     listener.notifyComputerUpdated(tuple.computer);
 
-                    // This polling thread might already be there
-                    if (tuple.thread == null) {
-                        tuple.thread = createPollingThread(tuple);
-                        tuple.thread.start();
+                    // This computer might already be scheduled
+                    if (tuple.pollFuture == null) {
+                        pollNow(tuple);
                     }
                 }
             }
+
+            // Repoll immediately when the network changes
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && networkCallback == null) {
+                registerNetworkCallback();
+            }
         }
 
         public void waitForReady() {
@@ -266,6 +414,14 @@ public class ComputerManagerService extends Service {
             return idManager.getUniqueId();
         }
 
+        public int getPollBudgetPerMinute() {
+            return ComputerManagerService.this.getPollBudgetPerMinute();
+        }
+
+        public long getCompletedPollCount() {
+            return completedPolls.get();
+        }
+
         public ComputerDetails getComputer(String uuid) {
             synchronized (pollingTuples) {
                 for (PollingTuple tuple : pollingTuples) {
@@ -287,6 +443,11 @@ public class ComputerManagerService extends Service {
                         synchronized (tuple.networkLock) {
                             tuple.computer.state = ComputerDetails.State.UNKNOWN;
                         }
+
+                        // Get the real state as soon as possible
+                        if (pollingActive) {
+                            pollNow(tuple);
+                        }
                     }
                 }
             }
@@ -300,15 +461,15 @@ public class ComputerManagerService extends Service {
             discoveryBinder.stopDiscovery();
         }
 
+        if (networkCallback != null) {
+            unregisterNetworkCallback();
+        }
+
         // Stop polling
-        pollingActive = false;
         synchronized (pollingTuples) {
+            pollingActive = false;
             for (PollingTuple tuple : pollingTuples) {
-                if (tuple.thread != null) {
-                    // Interrupt and remove the thread
-                    tuple.thread.interrupt();
-                    tuple.thread = null;
-                }
+                cancelPoll(tuple);
             }
         }
 
@@ -426,10 +587,11 @@ public class ComputerManagerService extends Service {
                     // Update the saved computer with potentially new details
                     tuple.computer.update(details);
 
-                    // Start a polling thread if polling is active
-                    if (pollingActive && tuple.thread == null) {
-                        tuple.thread = createPollingThread(tuple);
-                        tuple.thread.start();
+                    // The PC was just announced or added again, so reset any backoff.
+                    // We've just polled it, so the next poll can wait for the usual period.
+                    if (pollingActive) {
+                        tuple.pollIntervalMs = SERVERINFO_POLLING_PERIOD_MS;
+                        schedulePoll(tuple, SERVERINFO_POLLING_PERIOD_MS);
                     }
 
                     // Found an entry so we're done
@@ -438,13 +600,10 @@ public class ComputerManagerService extends Service {
             }
 
             // If we got here, we didn't find an entry
-            PollingTuple tuple = new PollingTuple(details, null);
-            if (pollingActive) {
-                tuple.thread = createPollingThread(tuple);
-            }
+            PollingTuple tuple = new PollingTuple(details);
             pollingTuples.add(tuple);
-            if (tuple.thread != null) {
-                tuple.thread.start();
+            if (pollingActive) {
+                pollNow(tuple);
             }
         }
     }
@@ -477,7 +636,7 @@ public class ComputerManagerService extends Service {
         if (fakeDetails.state == ComputerDetails.State.ONLINE) {
             LimeLog.info("New PC ("+fakeDetails.name+") is UUID "+fakeDetails.uuid);
 
-            // Start a polling thread for this machine
+            // Start polling this machine
             addTuple(fakeDetails);
             return true;
         }
@@ -498,11 +657,8 @@ public class ComputerManagerService extends Service {
             // Remove the computer from the computer list
             for (PollingTuple tuple : pollingTuples) {
                 if (tuple.computer.uuid.equals(computer.uuid)) {
-                    if (tuple.thread != null) {
-                        // Interrupt the thread on this entry
-                        tuple.thread.interrupt();
-                        tuple.thread = null;
-                    }
+                    // Stop polling this entry
+                    cancelPoll(tuple);
                     pollingTuples.remove(tuple);
                     break;
                 }
@@ -527,172 +683,199 @@ public class ComputerManagerService extends Service {
         }
     }
 
-    private ComputerDetails tryPollIp(ComputerDetails details, String address) {
-        // Fast poll this address first to determine if we can connect at the TCP layer
-        if (!fastPollIp(address)) {
-            return null;
-        }
+    // Polls a single address. Interrupting the polling thread doesn't abort a blocking
+    // connect or HTTP request, so cancel() closes whatever the poll is waiting on instead.
+    private class PollTask implements Callable<ComputerDetails> {
+        private final ComputerDetails details;
+        private final String address;
 
-        try {
-            NvHTTP http = new NvHTTP(address, idManager.getUniqueId(), details.serverCert,
-                    PlatformBinding.getCryptoProvider(ComputerManagerService.this));
+        private boolean cancelled;
+        private Socket socket;
+        private NvHTTP http;
 
-            ComputerDetails newDetails = http.getComputerDetails();
+        PollTask(ComputerDetails details, String address) {
+            this.details = details;
+            this.address = address;
+        }
 
-            // Check if this is the PC we expected
-            if (newDetails.uuid == null) {
-                LimeLog.severe("Polling returned no UUID!");
-                return null;
+        synchronized void cancel() {
+            cancelled = true;
+
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {}
             }
-            // details.uuid can be null on initial PC add
-            else if (details.uuid != null && !details.uuid.equals(newDetails.uuid)) {
-                // We got the wrong PC!
-                LimeLog.info("Polling returned the wrong PC!");
-                return null;
+            if (http != null) {
+                http.cancel();
             }
-
-            // Set the new active address
-            newDetails.activeAddress = address;
-
-            return newDetails;
-        } catch (XmlPullParserException | IOException e) {
-            e.printStackTrace();
-            return null;
         }
-    }
 
-    // Just try to establish a TCP connection to speculatively detect a running
-    // GFE server
-    private boolean fastPollIp(String address) {
-        if (address == null) {
-            // Don't bother if our address is null
-            return false;
+        private synchronized boolean isCancelled() {
+            return cancelled;
         }
 
-        Socket s = new Socket();
-        try {
-            s.connect(new InetSocketAddress(address, NvHTTP.HTTPS_PORT), FAST_POLL_TIMEOUT);
-            s.close();
-            return true;
-        } catch (IOException e) {
-            return false;
-        }
-    }
+        @Override
+        public ComputerDetails call() {
+            // Fast poll this address first to determine if we can connect at the TCP layer
+            if (!fastPollIp()) {
+                return null;
+            }
 
-    private void startFastPollThread(final String address, final boolean[] info) {
-        Thread t = new Thread() {
-            @Override
-            public void run() {
-                boolean pollRes = fastPollIp(address);
+            try {
+                NvHTTP http = new NvHTTP(address, idManager.getUniqueId(), details.serverCert,
+                        PlatformBinding.getCryptoProvider(ComputerManagerService.this));
+                synchronized (this) {
+                    if (cancelled) {
+                        return null;
+                    }
+                    this.http = http;
+                }
 
-                synchronized (info) {
-                    info[0] = true; // Done
-                    info[1] = pollRes; // Polling result
+                ComputerDetails newDetails = http.getComputerDetails();
 
-                    info.notify();
+                // Check if this is the PC we expected
+                if (newDetails.uuid == null) {
+                    LimeLog.severe("Polling returned no UUID!");
+                    return null;
+                }
+                // details.uuid can be null on initial PC add
+                else if (details.uuid != null && !details.uuid.equals(newDetails.uuid)) {
+                    // We got the wrong PC!
+                    LimeLog.info("Polling returned the wrong PC!");
+                    return null;
                 }
-            }
-        };
-        t.setName("Fast Poll - "+address);
-        t.start();
-    }
-
-    private String fastPollPc(final String localAddress, final String remoteAddress, final String manualAddress, final String ipv6Address) throws InterruptedException {
-        final boolean[] remoteInfo = new boolean[2];
-        final boolean[] localInfo = new boolean[2];
-        final boolean[] manualInfo = new boolean[2];
-        final boolean[] ipv6Info = new boolean[2];
 
-        startFastPollThread(localAddress, localInfo);
-        startFastPollThread(remoteAddress, remoteInfo);
-        startFastPollThread(manualAddress, manualInfo);
-        startFastPollThread(ipv6Address, ipv6Info);
+                // Set the new active address
+                newDetails.activeAddress = address;
 
-        // Check local first
-        synchronized (localInfo) {
-            while (!localInfo[0]) {
-                localInfo.wait(500);
+                return newDetails;
+            } catch (XmlPullParserException | IOException e) {
+                // Failures caused by losing the race aren't interesting
+                if (!isCancelled()) {
+                    e.printStackTrace();
+                }
+                return null;
             }
+        }
 
-            if (localInfo[1]) {
-                return localAddress;
+        // Just try to establish a TCP connection to speculatively detect a running
+        // GFE server
+        private boolean fastPollIp() {
+            if (address == null) {
+                // Don't bother if our address is null
+                return false;
             }
-        }
 
-        // Now manual
-        synchronized (manualInfo) {
-            while (!manualInfo[0]) {
-                manualInfo.wait(500);
+            Socket s = new Socket();
+            synchronized (this) {
+                if (cancelled) {
+                    return false;
+                }
+                socket = s;
             }
 
-            if (manualInfo[1]) {
-                return manualAddress;
+            try {
+                s.connect(new InetSocketAddress(address, NvHTTP.HTTPS_PORT), FAST_POLL_TIMEOUT);
+                s.close();
+                return true;
+            } catch (IOException e) {
+                return false;
             }
         }
+    }
 
-        // Now remote IPv4
-        synchronized (remoteInfo) {
-            while (!remoteInfo[0]) {
-                remoteInfo.wait(500);
+    private static ComputerDetails getPollResult(Future<ComputerDetails> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Polls all addresses in parallel and returns the details from the first one to respond
+    private ComputerDetails racePollAddresses(ComputerDetails details, LinkedHashSet<String> addresses) throws InterruptedException {
+        ExecutorCompletionService<ComputerDetails> completionService = new ExecutorCompletionService<>(pollExecutor);
+        ArrayList<Future<ComputerDetails>> futures = new ArrayList<>(addresses.size());
+        ArrayList<PollTask> tasks = new ArrayList<>(addresses.size());
+        Iterator<String> addressIterator = addresses.iterator();
+        int pendingPolls = 0;
+
+        try {
+            // The address that worked last time is first in the set. Give it a head start
+            // so we don't open connections to every other address if it's still valid.
+            PollTask preferredTask = new PollTask(details, addressIterator.next());
+            tasks.add(preferredTask);
+            futures.add(completionService.submit(preferredTask));
+            pendingPolls++;
+            if (details.activeAddress != null && addressIterator.hasNext()) {
+                Future<ComputerDetails> future = completionService.poll(PREFERRED_ADDRESS_HEAD_START_MS, TimeUnit.MILLISECONDS);
+                if (future != null) {
+                    pendingPolls--;
+
+                    ComputerDetails polledDetails = getPollResult(future);
+                    if (polledDetails != null) {
+                        return polledDetails;
+                    }
+                }
             }
 
-            if (remoteInfo[1]) {
-                return remoteAddress;
+            // Race the remaining addresses
+            while (addressIterator.hasNext()) {
+                PollTask task = new PollTask(details, addressIterator.next());
+                tasks.add(task);
+                futures.add(completionService.submit(task));
+                pendingPolls++;
             }
-        }
 
-        // Now global IPv6
-        synchronized (ipv6Info) {
-            while (!ipv6Info[0]) {
-                ipv6Info.wait(500);
+            while (pendingPolls > 0) {
+                Future<ComputerDetails> future = completionService.take();
+                pendingPolls--;
+
+                ComputerDetails polledDetails = getPollResult(future);
+                if (polledDetails != null) {
+                    return polledDetails;
+                }
             }
 
-            if (ipv6Info[1]) {
-                return ipv6Address;
+            return null;
+        } catch (RejectedExecutionException e) {
+            // The service is being destroyed
+            return null;
+        } finally {
+            // Cancel the losers of the race. Closing their connections is what actually
+            // frees their threads if they're blocked in a connect or read.
+            for (Future<ComputerDetails> future : futures) {
+                future.cancel(true);
+            }
+            for (PollTask task : tasks) {
+                task.cancel();
             }
         }
-
-        return null;
     }
 
     private boolean pollComputer(ComputerDetails details) throws InterruptedException {
-        ComputerDetails polledDetails;
-
-        // Do a TCP-level connection to the HTTP server to see if it's listening.
-        // Do not write this address to details.activeAddress because:
-        // a) it's only a candidate and may be wrong (multiple PCs behind a single router)
-        // b) if it's null, it will be unexpectedly nulling the activeAddress of a possibly online PC
-        LimeLog.info("Starting fast poll for "+details.name+" ("+details.localAddress +", "+details.remoteAddress +", "+details.manualAddress+", "+details.ipv6Address+")");
-        String candidateAddress = fastPollPc(details.localAddress, details.remoteAddress, details.manualAddress, details.ipv6Address);
-        LimeLog.info("Fast poll for "+details.name+" returned candidate address: "+candidateAddress);
-
-        // If no connection could be established to either IP address, there's nothing we can do
-        if (candidateAddress == null) {
-            return false;
+        // Try the address that worked last time first, then the others in order of preference
+        LinkedHashSet<String> addresses = new LinkedHashSet<>();
+        for (String address : new String[] {details.activeAddress, details.localAddress,
+                details.manualAddress, details.remoteAddress, details.ipv6Address}) {
+            if (address != null) {
+                addresses.add(address);
+            }
         }
 
-        // Try using the active address from fast-poll
-        polledDetails = tryPollIp(details, candidateAddress);
-        if (polledDetails == null) {
-            // If that failed, try all unique addresses except what we've
-            // already tried
-            HashSet<String> uniqueAddresses = new HashSet<>();
-            uniqueAddresses.add(details.localAddress);
-            uniqueAddresses.add(details.manualAddress);
-            uniqueAddresses.add(details.remoteAddress);
-            uniqueAddresses.add(details.ipv6Address);
-            for (String addr : uniqueAddresses) {
-                if (addr == null || addr.equals(candidateAddress)) {
-                    continue;
-                }
-                polledDetails = tryPollIp(details, addr);
-                if (polledDetails != null) {
-                    break;
-                }
-            }
+        // If we have no addresses, there's nothing we can do
+        if (addresses.isEmpty()) {
+            return false;
         }
 
+        LimeLog.info("Starting poll for "+details.name+" ("+details.localAddress +", "+details.remoteAddress +", "+details.manualAddress+", "+details.ipv6Address+")");
+        ComputerDetails polledDetails = racePollAddresses(details, addresses);
+        LimeLog.info("Poll for "+details.name+" returned address: "+(polledDetails != null ? polledDetails.activeAddress : null));
+
         if (polledDetails != null) {
+            // This also remembers the winning address for the next poll
             details.update(polledDetails);
             return true;
         }
@@ -710,6 +893,19 @@ public class ComputerManagerService extends Service {
         // Lookup or generate this device's UID
         idManager = new IdentityManager(this);
 
+        // Shared by all address polls so many PCs can't spawn an unbounded number of threads
+        pollExecutor = new ThreadPoolExecutor(POLL_THREAD_POOL_SIZE, POLL_THREAD_POOL_SIZE,
+                POLL_THREAD_KEEPALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        pollExecutor.allowCoreThreadTimeOut(true);
+
+        // All PCs are polled from a few scheduler threads rather than a thread per PC
+        pollScheduler = new ScheduledThreadPoolExecutor(POLL_SCHEDULER_THREADS);
+
+        // Box art syncs run one computer at a time
+        boxArtSyncExecutor = new ThreadPoolExecutor(1, 1,
+                BOX_ART_SYNC_KEEPALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        boxArtSyncExecutor.allowCoreThreadTimeOut(true);
+
         // Initialize the DB
         dbManager = new ComputerDatabaseManager(this);
         dbRefCount.set(1);
@@ -734,6 +930,11 @@ public class ComputerManagerService extends Service {
             unbindService(discoveryServiceConnection);
         }
 
+        // Abort any outstanding polls
+        pollScheduler.shutdownNow();
+        pollExecutor.shutdownNow();
+        boxArtSyncExecutor.shutdownNow();
+
         // FIXME: Should await termination here but we have timeout issues in HttpURLConnection
 
         // Remove the initial DB reference
@@ -745,16 +946,71 @@ public class ComputerManagerService extends Service {
         return binder;
     }
 
+    // Downloads any missing box art for the apps in the background
+    private void startBoxArtSync(ComputerDetails computer, List<NvApp> apps) {
+        try {
+            boxArtSyncExecutor.execute(new BoxArtSyncJob(computer, apps,
+                    new NetworkAssetLoader(this, idManager.getUniqueId()),
+                    new DiskAssetLoader(this), new BoxArtSyncJob.ProgressCallback() {
+                        @Override
+                        public void notifyProgress(ComputerDetails computer, int completed, int total) {
+                            // Read the listener each time since it may change while the job runs
+                            ComputerManagerListener currentListener = listener;
+                            if (currentListener != null) {
+                                currentListener.notifyBoxArtSyncProgress(computer, completed, total);
+                            }
+                        }
+                    }));
+        } catch (RejectedExecutionException e) {
+            // The service is being destroyed
+        }
+    }
+
     public class ApplistPoller {
         private Thread thread;
         private final ComputerDetails computer;
         private final Object pollEvent = new Object();
         private boolean receivedAppList = false;
+        private boolean startedBoxArtSync = false;
+
+        // The last app list the listener applied. Responses matching it are skipped, and
+        // anything else is delivered as a diff against it until the listener applies one.
+        private byte[] lastAppListHash;
+        private List<NvApp> lastAppList = new LinkedList<>();
+        private boolean deliveredAppList = false;
+
+        // The last app list we received, used to find new apps that need box art
+        private List<NvApp> lastPolledAppList;
 
         public ApplistPoller(ComputerDetails computer) {
             this.computer = computer;
         }
 
+        private byte[] hashAppList(String appList) {
+            try {
+                return MessageDigest.getInstance("SHA-1").digest(appList.getBytes("UTF-8"));
+            } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        // Start from the cached app list, since that's what the UI loads initially
+        private void loadCachedAppList() {
+            if (computer.uuid == null) {
+                return;
+            }
+
+            try {
+                String cachedAppList = CacheHelper.readInputStreamToString(
+                        CacheHelper.openCacheFileForInput(getCacheDir(), "applist", computer.uuid));
+                lastAppList = NvHTTP.getAppListByReader(new StringReader(cachedAppList));
+                lastAppListHash = hashAppList(cachedAppList);
+                lastPolledAppList = lastAppList;
+            } catch (IOException | XmlPullParserException e) {
+                // We'll deliver the full list on the first successful poll
+            }
+        }
+
         public void pollNow() {
             synchronized (pollEvent) {
                 pollEvent.notify();
@@ -798,6 +1054,9 @@ public class ComputerManagerService extends Service {
                 @Override
                 public void run() {
                     int emptyAppListResponses = 0;
+
+                    loadCachedAppList();
+
                     do {
                         // Can't poll if it's not online or paired
                         if (computer.state != ComputerDetails.State.ONLINE ||
@@ -833,6 +1092,20 @@ public class ComputerManagerService extends Service {
                                 appList = http.getAppListRaw();
                             }
 
+                            // GFE doesn't provide cache validators for the app list, so we compare
+                            // a hash of the content to avoid reparsing and rewriting unchanged lists.
+                            byte[] appListHash = hashAppList(appList);
+                            if (deliveredAppList && !appList.isEmpty() && Arrays.equals(appListHash, lastAppListHash)) {
+                                receivedAppList = true;
+
+                                // Make sure all apps in the cached list have box art
+                                if (!startedBoxArtSync) {
+                                    startedBoxArtSync = true;
+                                    startBoxArtSync(computer, lastAppList);
+                                }
+                                continue;
+                            }
+
                             List<NvApp> list = NvHTTP.getAppListByReader(new StringReader(appList));
                             if (list.isEmpty()) {
                                 LimeLog.warning("Empty app list received from "+computer.uuid);
@@ -863,14 +1136,39 @@ public class ComputerManagerService extends Service {
                                     emptyAppListResponses = 0;
                                 }
 
-                                // Update the computer
-                                computer.rawAppList = appList;
                                 receivedAppList = true;
 
-                                // Notify that the app list has been updated
-                                // and ensure that the thread is still active
-                                if (listener != null && thread != null) {
-                                    listener.notifyComputerUpdated(computer);
+                                // The first list after pairing will have every app added. After
+                                // our first sync, we only need to fetch art for new apps.
+                                if (!startedBoxArtSync || lastPolledAppList == null) {
+                                    startedBoxArtSync = true;
+                                    startBoxArtSync(computer, list);
+                                }
+                                else {
+                                    List<NvApp> newApps = new AppListDiff(lastPolledAppList, list).added;
+                                    if (!newApps.isEmpty()) {
+                                        startBoxArtSync(computer, newApps);
+                                    }
+                                }
+                                lastPolledAppList = list;
+
+                                // Notify that the app list has been updated and ensure that the
+                                // thread is still active. We always notify on the first poll,
+                                // since the listener may be waiting for it even if nothing changed.
+                                // The diff is only committed once the listener has applied it.
+                                AppListDiff diff = new AppListDiff(lastAppList, list);
+                                ComputerManagerListener currentListener = listener;
+                                if (!deliveredAppList || !diff.isEmpty()) {
+                                    if (currentListener != null && thread != null &&
+                                            currentListener.notifyAppListUpdated(computer, diff)) {
+                                        lastAppList = list;
+                                        lastAppListHash = appListHash;
+                                        deliveredAppList = true;
+                                    }
+                                }
+                                else {
+                                    // Nothing to deliver, so just skip parsing next time
+                                    lastAppListHash = appListHash;
                                 }
                             }
                             else if (appList.isEmpty()) {
@@ -901,14 +1199,20 @@ public class ComputerManagerService extends Service {
 }
 
 class PollingTuple {
-    public Thread thread;
     public final ComputerDetails computer;
     public final Object networkLock;
     public long lastSuccessfulPollMs;
 
-    public PollingTuple(ComputerDetails computer, Thread thread) {
+    // These are protected by the pollingTuples lock
+    public ScheduledFuture<?> pollFuture;
+    public int pollGeneration;
+    public int pollIntervalMs;
+
+    // Only accessed by the poll holding the network lock
+    public int offlineCount;
+
+    public PollingTuple(ComputerDetails computer) {
         this.computer = computer;
-        this.thread = thread;
         this.networkLock = new Object();
     }
 }
@@ -20,6 +20,7 @@ import com.limelight.preferences.PreferenceConfiguration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -38,6 +39,9 @@ public class AppGridAdapter extends GenericGridAdapter<AppView.AppObject> {
     private Set<Integer> hiddenAppIds = new HashSet<>();
     private ArrayList<AppView.AppObject> allApps = new ArrayList<>();
 
+    private int firstVisibleItem = -1;
+    private int visibleItemCount;
+
     public AppGridAdapter(Context context, PreferenceConfiguration prefs, ComputerDetails computer, String uniqueId, boolean showHiddenApps) {
         super(context, getLayoutIdForPreferences(prefs));
 
@@ -107,14 +111,52 @@ public class AppGridAdapter extends GenericGridAdapter<AppView.AppObject> {
 
         this.loader = new CachedAppAssetLoader(computer, scalingDivisor,
                 new NetworkAssetLoader(context, uniqueId),
-                new MemoryAssetLoader(),
+                new MemoryAssetLoader(context),
                 new DiskAssetLoader(context),
                 BitmapFactory.decodeResource(context.getResources(), R.drawable.no_app_image));
 
+        // Priorities will be set on the new loader when the grid next scrolls
+        this.firstVisibleItem = -1;
+
         // This will trigger the view to reload with the new layout
         setLayoutId(getLayoutIdForPreferences(prefs));
     }
 
+    // Called as the grid scrolls to load visible art first and prefetch
+    // art for the items about to scroll into view
+    public void updateVisibleRange(int firstVisibleItem, int visibleItemCount) {
+        if (firstVisibleItem == this.firstVisibleItem && visibleItemCount == this.visibleItemCount) {
+            return;
+        }
+
+        boolean scrollingUp = firstVisibleItem < this.firstVisibleItem;
+        this.firstVisibleItem = firstVisibleItem;
+        this.visibleItemCount = visibleItemCount;
+
+        HashMap<Integer, Integer> priorities = new HashMap<>();
+        int priority = 0;
+
+        // Visible items are loaded first in display order
+        int lastVisibleItem = Math.min(firstVisibleItem + visibleItemCount, itemList.size());
+        for (int i = firstVisibleItem; i < lastVisibleItem; i++) {
+            priorities.put(itemList.get(i).app.getAppId(), priority++);
+        }
+
+        // Followed by a screen's worth of items in the direction we're scrolling
+        for (int i = 1; i <= visibleItemCount; i++) {
+            int position = scrollingUp ? firstVisibleItem - i : lastVisibleItem - 1 + i;
+            if (position < 0 || position >= itemList.size()) {
+                break;
+            }
+
+            AppView.AppObject obj = itemList.get(position);
+            priorities.put(obj.app.getAppId(), priority++);
+            loader.queuePrefetch(obj.app);
+        }
+
+        loader.setLoadPriorities(priorities);
+    }
+
     public void cancelQueuedOperations() {
         loader.cancelForegroundLoads();
         loader.cancelBackgroundLoads();
@@ -0,0 +1,66 @@
+package com.limelight.grid.assets;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+// Keeps mutable bitmaps that are no longer in use so decodes can reuse them rather
+// than allocating fresh ones. Only bitmaps that can't be attached to a view (like
+// intermediate decode buffers) may be released into the pool, because an ImageView
+// could still be drawing anything we've handed out.
+class BitmapPool {
+    private static final long MAX_POOL_SIZE = Runtime.getRuntime().maxMemory() / 64;
+
+    private static final HashMap<String, ArrayDeque<Bitmap>> pool = new HashMap<>();
+    private static long poolSize;
+
+    private static String constructKey(int width, int height, Bitmap.Config config) {
+        return width+"x"+height+"-"+config;
+    }
+
+    // Returns a mutable bitmap with the exact dimensions and config or null if none are pooled
+    static synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> bitmaps = pool.get(constructKey(width, height, config));
+        if (bitmaps == null || bitmaps.isEmpty()) {
+            return null;
+        }
+
+        Bitmap bmp = bitmaps.pop();
+        poolSize -= bmp.getByteCount();
+        return bmp;
+    }
+
+    // The caller must not use the bitmap after releasing it into the pool
+    static synchronized void put(Bitmap bmp) {
+        if (bmp.isRecycled()) {
+            return;
+        }
+
+        // Free anything we can't reuse or that would grow the pool past its budget
+        if (!bmp.isMutable() || bmp.getConfig() == null || poolSize + bmp.getByteCount() > MAX_POOL_SIZE) {
+            bmp.recycle();
+            return;
+        }
+
+        String key = constructKey(bmp.getWidth(), bmp.getHeight(), bmp.getConfig());
+        ArrayDeque<Bitmap> bitmaps = pool.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            pool.put(key, bitmaps);
+        }
+
+        bitmaps.push(bmp);
+        poolSize += bmp.getByteCount();
+    }
+
+    static synchronized void clear() {
+        for (ArrayDeque<Bitmap> bitmaps : pool.values()) {
+            for (Bitmap bmp : bitmaps) {
+                bmp.recycle();
+            }
+        }
+        pool.clear();
+        poolSize = 0;
+    }
+}
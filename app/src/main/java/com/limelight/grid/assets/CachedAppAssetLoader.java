@@ -11,6 +11,7 @@ import android.view.animation.AnimationUtils;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.limelight.LimeLog;
 import com.limelight.R;
 import com.limelight.nvstream.http.ComputerDetails;
 import com.limelight.nvstream.http.NvApp;
@@ -18,6 +19,9 @@ import com.limelight.nvstream.http.NvApp;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -31,23 +35,33 @@ public class CachedAppAssetLoader {
     private static final int MAX_PENDING_NETWORK_LOADS = 40;
     private static final int MAX_PENDING_DISK_LOADS = 40;
 
-    private final ThreadPoolExecutor cacheExecutor = new ThreadPoolExecutor(
-            MAX_CONCURRENT_CACHE_LOADS, MAX_CONCURRENT_CACHE_LOADS,
-            Long.MAX_VALUE, TimeUnit.DAYS,
-            new LinkedBlockingQueue<Runnable>(MAX_PENDING_CACHE_LOADS),
-            new ThreadPoolExecutor.DiscardOldestPolicy());
+    // Results of fetchAssetToDisk()
+    public static final int FETCH_FAILED = 0;
+    public static final int FETCH_CACHED = 1;
+    public static final int FETCH_DOWNLOADED = 2;
 
-    private final ThreadPoolExecutor foregroundExecutor = new ThreadPoolExecutor(
-            MAX_CONCURRENT_DISK_LOADS, MAX_CONCURRENT_DISK_LOADS,
-            Long.MAX_VALUE, TimeUnit.DAYS,
-            new LinkedBlockingQueue<Runnable>(MAX_PENDING_DISK_LOADS),
-            new ThreadPoolExecutor.DiscardOldestPolicy());
+    private static final int MAX_CONCURRENT_FETCHES = 8;
+    private static final long FETCH_THREAD_KEEPALIVE_MS = 5000;
 
-    private final ThreadPoolExecutor networkExecutor = new ThreadPoolExecutor(
-            MAX_CONCURRENT_NETWORK_LOADS, MAX_CONCURRENT_NETWORK_LOADS,
-            Long.MAX_VALUE, TimeUnit.DAYS,
-            new LinkedBlockingQueue<Runnable>(MAX_PENDING_NETWORK_LOADS),
-            new ThreadPoolExecutor.DiscardOldestPolicy());
+    private final PrioritizedLoadExecutor cacheExecutor =
+            new PrioritizedLoadExecutor(MAX_CONCURRENT_CACHE_LOADS, MAX_PENDING_CACHE_LOADS);
+
+    private final PrioritizedLoadExecutor foregroundExecutor =
+            new PrioritizedLoadExecutor(MAX_CONCURRENT_DISK_LOADS, MAX_PENDING_DISK_LOADS);
+
+    private final PrioritizedLoadExecutor networkExecutor =
+            new PrioritizedLoadExecutor(MAX_CONCURRENT_NETWORK_LOADS, MAX_PENDING_NETWORK_LOADS);
+
+    // Network fetches in progress for the whole process, keyed by computer and app
+    private static final HashMap<String, InFlightFetch> inFlightFetches = new HashMap<>();
+
+    // Fetches run here instead of on the thread that asked for them. Loader tasks are
+    // interrupted when their view is recycled, and that must only stop them waiting,
+    // not fail the download for everyone else waiting on it.
+    private static final ThreadPoolExecutor fetchExecutor = createFetchExecutor();
+
+    // App IDs with a memory prefetch waiting on the foreground executor
+    private final HashSet<Integer> pendingPrefetches = new HashSet<>();
 
     private final ComputerDetails computer;
     private final double scalingDivider;
@@ -70,28 +84,116 @@ public class CachedAppAssetLoader {
     }
 
     public void cancelBackgroundLoads() {
-        Runnable r;
-        while ((r = cacheExecutor.getQueue().poll()) != null) {
-            cacheExecutor.remove(r);
-        }
+        cacheExecutor.cancelPendingLoads();
     }
 
     public void cancelForegroundLoads() {
-        Runnable r;
+        foregroundExecutor.cancelPendingLoads();
+        networkExecutor.cancelPendingLoads();
 
-        while ((r = foregroundExecutor.getQueue().poll()) != null) {
-            foregroundExecutor.remove(r);
+        synchronized (pendingPrefetches) {
+            pendingPrefetches.clear();
         }
+    }
 
-        while ((r = networkExecutor.getQueue().poll()) != null) {
-            networkExecutor.remove(r);
-        }
+    // Reorders all queued loads by app ID. Apps with lower values are loaded first
+    // and apps that aren't in the map are loaded after all of them.
+    public void setLoadPriorities(Map<Integer, Integer> priorities) {
+        cacheExecutor.setPriorities(priorities);
+        foregroundExecutor.setPriorities(priorities);
+        networkExecutor.setPriorities(priorities);
     }
 
     public void freeCacheMemory() {
         memoryLoader.clearCache();
     }
 
+    private ScaledBitmap doDiskAssetLoad(LoaderTuple tuple) {
+        // The pre-scaled thumbnail is much cheaper to load than the full art
+        ScaledBitmap bmp = diskLoader.loadThumbnailFromCache(tuple, (int) scalingDivider);
+        if (bmp == null) {
+            // This will also create the thumbnail for next time
+            bmp = diskLoader.loadBitmapFromCache(tuple, (int) scalingDivider);
+        }
+        return bmp;
+    }
+
+    private static ThreadPoolExecutor createFetchExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_CONCURRENT_FETCHES, MAX_CONCURRENT_FETCHES,
+                FETCH_THREAD_KEEPALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // Downloads the asset into the disk cache. If another thread is already downloading
+    // the same asset, this waits for that download instead of starting another one. A cached
+    // thumbnail for the sample size counts as present (zero accepts any sample size).
+    // Interrupting the caller only stops it waiting. The download keeps running.
+    // FETCH_DOWNLOADED is only returned to the caller that started the download.
+    public static int fetchAssetToDisk(final LoaderTuple tuple, final NetworkAssetLoader networkLoader,
+                                           final DiskAssetLoader diskLoader, final int sampleSize) throws InterruptedException {
+        final String key = tuple.computer.uuid+"-"+tuple.app.getAppId();
+        InFlightFetch fetch;
+        boolean isOwner = false;
+
+        synchronized (inFlightFetches) {
+            fetch = inFlightFetches.get(key);
+            if (fetch == null) {
+                final InFlightFetch newFetch = new InFlightFetch();
+                inFlightFetches.put(key, newFetch);
+                fetchExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runFetch(key, newFetch, tuple, networkLoader, diskLoader, sampleSize);
+                    }
+                });
+                fetch = newFetch;
+                isOwner = true;
+            }
+            else {
+                LimeLog.info("Waiting for in-flight fetch of tuple: "+tuple);
+            }
+        }
+
+        int result = fetch.await();
+        if (result == FETCH_DOWNLOADED && !isOwner) {
+            // We only waited on part of someone else's download
+            result = FETCH_CACHED;
+        }
+        return result;
+    }
+
+    private static void runFetch(String key, InFlightFetch fetch, LoaderTuple tuple,
+                                 NetworkAssetLoader networkLoader, DiskAssetLoader diskLoader, int sampleSize) {
+        int result = FETCH_FAILED;
+        try {
+            // The asset may have landed in the cache from a fetch that completed
+            // after our caller checked the cache but before we got here.
+            if (sampleSize > 0 ? diskLoader.checkCacheExists(tuple, sampleSize) : diskLoader.checkCacheExists(tuple)) {
+                result = FETCH_CACHED;
+            }
+            else {
+                InputStream in = networkLoader.getBitmapStream(tuple);
+                if (in != null) {
+                    // Write the stream straight to disk
+                    if (diskLoader.populateCacheWithStream(tuple, in)) {
+                        result = FETCH_DOWNLOADED;
+                    }
+
+                    // Close the network input stream
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {}
+                }
+            }
+        } finally {
+            synchronized (inFlightFetches) {
+                inFlightFetches.remove(key);
+            }
+            fetch.complete(result);
+        }
+    }
+
     private ScaledBitmap doNetworkAssetLoad(LoaderTuple tuple, LoaderTask task) {
         // Try 3 times
         for (int i = 0; i < 3; i++) {
@@ -100,26 +202,26 @@ public class CachedAppAssetLoader {
                 return null;
             }
 
-            InputStream in = networkLoader.getBitmapStream(tuple);
-            if (in != null) {
-                // Write the stream straight to disk
-                diskLoader.populateCacheWithStream(tuple, in);
-
-                // Close the network input stream
-                try {
-                    in.close();
-                } catch (IOException ignored) {}
+            boolean fetched;
+            try {
+                fetched = fetchAssetToDisk(tuple, networkLoader, diskLoader, (int) scalingDivider) != FETCH_FAILED;
+            } catch (InterruptedException e) {
+                return null;
+            }
 
+            if (fetched) {
                 // If there's a task associated with this load, we should return the bitmap
                 if (task != null) {
                     // If the cached bitmap is valid, return it. Otherwise, we'll try the load again
-                    ScaledBitmap bmp = diskLoader.loadBitmapFromCache(tuple, (int) scalingDivider);
+                    ScaledBitmap bmp = doDiskAssetLoad(tuple);
                     if (bmp != null) {
                         return bmp;
                     }
                 }
                 else {
-                    // Otherwise it's a background load and we return nothing
+                    // Otherwise it's a background load and we return nothing, but we'll
+                    // create the thumbnail now so the first display doesn't need a full decode
+                    diskLoader.populateThumbnailCache(tuple, (int) scalingDivider);
                     return null;
                 }
             }
@@ -157,7 +259,7 @@ public class CachedAppAssetLoader {
                 return null;
             }
 
-            ScaledBitmap bmp = diskLoader.loadBitmapFromCache(tuple, (int) scalingDivider);
+            ScaledBitmap bmp = doDiskAssetLoad(tuple);
             if (bmp == null) {
                 if (!diskOnly) {
                     // Try to load the asset from the network
@@ -196,7 +298,7 @@ public class CachedAppAssetLoader {
                 imageView.startAnimation(AnimationUtils.loadAnimation(imageView.getContext(), R.anim.boxart_fadein));
                 imageView.setVisibility(View.VISIBLE);
                 textView.setVisibility(View.VISIBLE);
-                task.executeOnExecutor(networkExecutor, tuple);
+                task.executeOnExecutor(networkExecutor.forApp(tuple.app.getAppId()), tuple);
             }
         }
 
@@ -278,8 +380,10 @@ public class CachedAppAssetLoader {
     private static boolean cancelPendingLoad(LoaderTuple tuple, ImageView imageView) {
         final LoaderTask loaderTask = getLoaderTask(imageView);
 
-        // Check if any task was pending for this image view
-        if (loaderTask != null && !loaderTask.isCancelled()) {
+        // Check if any task was pending for this image view. A task that finished
+        // without being cancelled was dropped from the queue before it could load.
+        if (loaderTask != null && !loaderTask.isCancelled() &&
+                loaderTask.getStatus() != AsyncTask.Status.FINISHED) {
             final LoaderTuple taskTuple = loaderTask.tuple;
 
             // Cancel the task if it's not already loading the same data
@@ -304,11 +408,11 @@ public class CachedAppAssetLoader {
         }
 
         // Queue a fetch in the cache executor
-        cacheExecutor.execute(new Runnable() {
+        cacheExecutor.execute(app.getAppId(), new Runnable() {
             @Override
             public void run() {
                 // Check if the image is cached on disk
-                if (diskLoader.checkCacheExists(tuple)) {
+                if (diskLoader.checkCacheExists(tuple, (int) scalingDivider)) {
                     return;
                 }
 
@@ -318,6 +422,41 @@ public class CachedAppAssetLoader {
         });
     }
 
+    // Loads the art from disk into the memory cache ahead of its view being populated
+    public void queuePrefetch(NvApp app) {
+        final LoaderTuple tuple = new LoaderTuple(computer, app);
+
+        if (memoryLoader.loadBitmapFromCache(tuple) != null) {
+            return;
+        }
+
+        synchronized (pendingPrefetches) {
+            if (!pendingPrefetches.add(app.getAppId())) {
+                // Already queued
+                return;
+            }
+        }
+
+        foregroundExecutor.execute(app.getAppId(), new Runnable() {
+            @Override
+            public void run() {
+                synchronized (pendingPrefetches) {
+                    pendingPrefetches.remove(tuple.app.getAppId());
+                }
+
+                if (memoryLoader.loadBitmapFromCache(tuple) != null) {
+                    return;
+                }
+
+                // If it's not on disk yet, the cache load will fetch it
+                ScaledBitmap bmp = doDiskAssetLoad(tuple);
+                if (bmp != null) {
+                    memoryLoader.populateCache(tuple, bmp);
+                }
+            }
+        });
+    }
+
     private boolean isBitmapPlaceholder(ScaledBitmap bitmap) {
         return (bitmap == null) ||
                 (bitmap.originalWidth == 130 && bitmap.originalHeight == 180) || // GFE 2.0
@@ -358,10 +497,28 @@ public class CachedAppAssetLoader {
         imgView.setImageDrawable(asyncDrawable);
 
         // Run the task on our foreground executor
-        task.executeOnExecutor(foregroundExecutor, tuple);
+        task.executeOnExecutor(foregroundExecutor.forApp(app.getAppId()), tuple);
         return false;
     }
 
+    private static class InFlightFetch {
+        private boolean done;
+        private int result;
+
+        synchronized void complete(int result) {
+            this.result = result;
+            this.done = true;
+            notifyAll();
+        }
+
+        synchronized int await() throws InterruptedException {
+            while (!done) {
+                wait();
+            }
+            return result;
+        }
+    }
+
     public static class LoaderTuple {
         public final ComputerDetails computer;
         public final NvApp app;
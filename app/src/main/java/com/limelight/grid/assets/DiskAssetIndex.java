@@ -0,0 +1,411 @@
+package com.limelight.grid.assets;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.limelight.LimeLog;
+import com.limelight.utils.CacheHelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Tracks the box art in the disk cache so lookups don't need to touch the filesystem.
+// Entries are kept in LRU order and the least recently used art is evicted when the
+// cache exceeds its size budget. The index is loaded once per process and persisted
+// to a single file alongside the cached art. Loading and saves both happen on a
+// background thread, so callers on the UI thread never touch the filesystem. Lookups
+// made before the index has loaded wait for it.
+class DiskAssetIndex {
+    private static final String INDEX_FILE_NAME = "index";
+    private static final int INDEX_VERSION = 2;
+
+    // Access time changes alone are persisted at most this often
+    private static final long ACCESS_SAVE_INTERVAL_MS = 30000;
+
+    // Added and removed entries are batched for this long before saving
+    private static final long CHANGE_SAVE_DELAY_MS = 2000;
+
+    private static DiskAssetIndex instance;
+
+    static class Entry {
+        final String computerUuid;
+        final String fileName;
+        final long size;
+
+        // CRC32 of the downloaded art. Thumbnails store the hash of the art they
+        // were made from. Zero if unknown (like after rebuilding the index).
+        final int contentHash;
+        long lastAccessTime;
+
+        Entry(String computerUuid, String fileName, long size, int contentHash, long lastAccessTime) {
+            this.computerUuid = computerUuid;
+            this.fileName = fileName;
+            this.size = size;
+            this.contentHash = contentHash;
+            this.lastAccessTime = lastAccessTime;
+        }
+    }
+
+    private final File boxArtDir;
+    private final long maxCacheSize;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+    private boolean loaded;
+    private boolean dirty;
+    private boolean saveScheduled;
+    private long scheduledSaveTime;
+
+    private final Handler saveHandler;
+    private final Runnable saveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            save();
+        }
+    };
+
+    private DiskAssetIndex(File cacheDir, long maxCacheSize) {
+        this.boxArtDir = new File(cacheDir, "boxart");
+        this.maxCacheSize = maxCacheSize;
+
+        HandlerThread saveThread = new HandlerThread("Box Art Index Writer");
+        saveThread.start();
+        this.saveHandler = new Handler(saveThread.getLooper());
+
+        // This is first reached from the UI thread, and rebuilding the index
+        // stats every cached file
+        saveHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DiskAssetIndex.this) {
+                    if (!load()) {
+                        rebuild();
+                    }
+                    evictIfNeeded();
+
+                    loaded = true;
+                    DiskAssetIndex.this.notifyAll();
+                }
+
+                save();
+            }
+        });
+    }
+
+    static synchronized DiskAssetIndex getInstance(File cacheDir, long maxCacheSize) {
+        if (instance == null) {
+            instance = new DiskAssetIndex(cacheDir, maxCacheSize);
+        }
+        return instance;
+    }
+
+    private static String getKey(String computerUuid, String fileName) {
+        return computerUuid + "/" + fileName;
+    }
+
+    private File getFile(Entry entry) {
+        return CacheHelper.openPath(false, boxArtDir, entry.computerUuid, entry.fileName);
+    }
+
+    private boolean load() {
+        File indexFile = new File(boxArtDir, INDEX_FILE_NAME);
+        if (!indexFile.exists()) {
+            return false;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != INDEX_VERSION) {
+                return false;
+            }
+
+            // Entries are stored from least to most recently used
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), in.readUTF(), in.readLong(), in.readInt(), in.readLong());
+                entries.put(getKey(entry.computerUuid, entry.fileName), entry);
+                totalSize += entry.size;
+            }
+
+            return true;
+        } catch (IOException e) {
+            LimeLog.warning("Box art index is corrupt: "+e.getMessage());
+            entries.clear();
+            totalSize = 0;
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    // Builds the index from the files on disk if the index file is missing or unreadable
+    private void rebuild() {
+        LimeLog.info("Rebuilding box art index");
+
+        ArrayList<Entry> foundEntries = new ArrayList<>();
+        File[] computerDirs = boxArtDir.listFiles();
+        if (computerDirs != null) {
+            for (File computerDir : computerDirs) {
+                File[] files = computerDir.listFiles();
+                if (files == null) {
+                    continue;
+                }
+
+                for (File file : files) {
+                    foundEntries.add(new Entry(computerDir.getName(), file.getName(), file.length(), 0, file.lastModified()));
+                }
+            }
+        }
+
+        // Insert from oldest to newest, so the least recently written art is evicted first
+        Collections.sort(foundEntries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                if (a.lastAccessTime < b.lastAccessTime) {
+                    return -1;
+                }
+                else if (a.lastAccessTime > b.lastAccessTime) {
+                    return 1;
+                }
+                else {
+                    return 0;
+                }
+            }
+        });
+        for (Entry entry : foundEntries) {
+            entries.put(getKey(entry.computerUuid, entry.fileName), entry);
+            totalSize += entry.size;
+        }
+
+        dirty = true;
+    }
+
+    // Must be called with the index lock held
+    private void waitForLoad() {
+        boolean interrupted = false;
+
+        // Loader tasks are interrupted when their view is recycled, but the load
+        // is short and the caller can't do anything useful without the index
+        while (!loaded) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Must be called with the index lock held
+    private void scheduleSave(long delayMs) {
+        long saveTime = SystemClock.uptimeMillis() + delayMs;
+        if (saveScheduled && scheduledSaveTime <= saveTime) {
+            // An earlier save will pick up this change
+            return;
+        }
+
+        saveHandler.removeCallbacks(saveRunnable);
+        saveHandler.postAtTime(saveRunnable, saveTime);
+        saveScheduled = true;
+        scheduledSaveTime = saveTime;
+    }
+
+    // Runs on the save thread and only holds the index lock
+    // long enough to take a snapshot of the entries
+    private void save() {
+        Entry[] snapshot;
+        long[] accessTimes;
+        synchronized (this) {
+            saveScheduled = false;
+            if (!dirty) {
+                return;
+            }
+
+            snapshot = entries.values().toArray(new Entry[0]);
+            accessTimes = new long[snapshot.length];
+            for (int i = 0; i < snapshot.length; i++) {
+                accessTimes[i] = snapshot[i].lastAccessTime;
+            }
+            dirty = false;
+        }
+
+        File indexFile = new File(boxArtDir, INDEX_FILE_NAME);
+        File tempFile = new File(boxArtDir, INDEX_FILE_NAME + ".tmp");
+        DataOutputStream out = null;
+        boolean success = false;
+
+        boxArtDir.mkdirs();
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(snapshot.length);
+            for (int i = 0; i < snapshot.length; i++) {
+                out.writeUTF(snapshot[i].computerUuid);
+                out.writeUTF(snapshot[i].fileName);
+                out.writeLong(snapshot[i].size);
+                out.writeInt(snapshot[i].contentHash);
+                out.writeLong(accessTimes[i]);
+            }
+            out.close();
+            out = null;
+
+            // Replace the old index atomically so a crash can't leave it truncated
+            success = tempFile.renameTo(indexFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {}
+            }
+        }
+
+        if (!success) {
+            tempFile.delete();
+
+            // Try again with the next change
+            synchronized (this) {
+                dirty = true;
+            }
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalSize > maxCacheSize && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+
+            LimeLog.info("Evicting box art: "+entry.computerUuid+"/"+entry.fileName);
+            getFile(entry).delete();
+            totalSize -= entry.size;
+            iterator.remove();
+            dirty = true;
+        }
+    }
+
+    // This doesn't count as an access for LRU purposes
+    synchronized boolean contains(String computerUuid, String fileName) {
+        waitForLoad();
+
+        return entries.containsKey(getKey(computerUuid, fileName));
+    }
+
+    // Returns true if any file for the computer starts with the prefix.
+    // This doesn't count as an access for LRU purposes.
+    synchronized boolean containsWithPrefix(String computerUuid, String fileNamePrefix) {
+        waitForLoad();
+
+        for (Entry entry : entries.values()) {
+            if (entry.computerUuid.equals(computerUuid) && entry.fileName.startsWith(fileNamePrefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns the entry and moves it to the most recently used position
+    synchronized Entry access(String computerUuid, String fileName) {
+        waitForLoad();
+
+        Entry entry = entries.get(getKey(computerUuid, fileName));
+        if (entry != null) {
+            entry.lastAccessTime = System.currentTimeMillis();
+            dirty = true;
+            scheduleSave(ACCESS_SAVE_INTERVAL_MS);
+        }
+        return entry;
+    }
+
+    synchronized void put(String computerUuid, String fileName, long size, int contentHash) {
+        waitForLoad();
+
+        Entry oldEntry = entries.put(getKey(computerUuid, fileName),
+                new Entry(computerUuid, fileName, size, contentHash, System.currentTimeMillis()));
+        if (oldEntry != null) {
+            totalSize -= oldEntry.size;
+        }
+        totalSize += size;
+        dirty = true;
+
+        evictIfNeeded();
+        scheduleSave(CHANGE_SAVE_DELAY_MS);
+    }
+
+    // Removes the entry and deletes its file
+    synchronized void remove(String computerUuid, String fileName) {
+        waitForLoad();
+
+        CacheHelper.openPath(false, boxArtDir, computerUuid, fileName).delete();
+
+        Entry entry = entries.remove(getKey(computerUuid, fileName));
+        if (entry != null) {
+            totalSize -= entry.size;
+            dirty = true;
+            scheduleSave(CHANGE_SAVE_DELAY_MS);
+        }
+    }
+
+    // Removes and deletes all files for the computer whose names start with the prefix
+    synchronized void removeWithPrefix(String computerUuid, String fileNamePrefix) {
+        waitForLoad();
+
+        removeWithPrefix(computerUuid, fileNamePrefix, false, 0);
+    }
+
+    // Like removeWithPrefix() but keeps files with the specified content hash
+    synchronized void removeStaleWithPrefix(String computerUuid, String fileNamePrefix, int currentContentHash) {
+        waitForLoad();
+
+        removeWithPrefix(computerUuid, fileNamePrefix, true, currentContentHash);
+    }
+
+    private void removeWithPrefix(String computerUuid, String fileNamePrefix, boolean keepMatchingHash, int contentHash) {
+        boolean removed = false;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.computerUuid.equals(computerUuid) && entry.fileName.startsWith(fileNamePrefix) &&
+                    !(keepMatchingHash && entry.contentHash == contentHash)) {
+                getFile(entry).delete();
+                totalSize -= entry.size;
+                iterator.remove();
+                dirty = true;
+                removed = true;
+            }
+        }
+        if (removed) {
+            scheduleSave(CHANGE_SAVE_DELAY_MS);
+        }
+    }
+
+    // This is called from the UI thread, so the entries are removed on the index thread
+    void removeComputer(final String computerUuid) {
+        saveHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                removeWithPrefix(computerUuid, "");
+            }
+        });
+    }
+}
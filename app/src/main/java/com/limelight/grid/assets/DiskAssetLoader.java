@@ -1,5 +1,6 @@
 package com.limelight.grid.assets;
 
+import android.annotation.TargetApi;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -10,10 +11,17 @@ import android.os.Build;
 import com.limelight.LimeLog;
 import com.limelight.utils.CacheHelper;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 public class DiskAssetLoader {
     // 5 MB
@@ -23,8 +31,19 @@ public class DiskAssetLoader {
     private static final int STANDARD_ASSET_WIDTH = 300;
     private static final int STANDARD_ASSET_HEIGHT = 400;
 
+    // Total size budget for cached box art
+    private static final long MAX_CACHE_SIZE = 100 * 1024 * 1024;
+    private static final long MAX_CACHE_SIZE_LOW_RAM = 25 * 1024 * 1024;
+
+    // Thumbnails are compressed at display size behind a small header. Raw pixels
+    // would be several times larger than the art itself and crowd it out of the cache.
+    private static final int THUMBNAIL_MAGIC = 0x4D4C544A; // 'MLTJ'
+    private static final int THUMBNAIL_HEADER_SIZE = 20;
+    private static final int THUMBNAIL_JPEG_QUALITY = 90;
+
     private final boolean isLowRamDevice;
     private final File cacheDir;
+    private final DiskAssetIndex index;
 
     public DiskAssetLoader(Context context) {
         this.cacheDir = context.getCacheDir();
@@ -36,10 +55,33 @@ public class DiskAssetLoader {
             // Use conservative low RAM behavior on very old devices
             this.isLowRamDevice = true;
         }
+        this.index = DiskAssetIndex.getInstance(cacheDir,
+                isLowRamDevice ? MAX_CACHE_SIZE_LOW_RAM : MAX_CACHE_SIZE);
+    }
+
+    private static String getAssetFileName(int appId) {
+        return appId + ".png";
+    }
+
+    private static String getThumbnailFilePrefix(int appId) {
+        return appId + "_";
     }
 
+    private static String getThumbnailFileName(int appId, int sampleSize) {
+        return getThumbnailFilePrefix(appId) + sampleSize + ".thumb";
+    }
+
+    // Thumbnails are used more often than the art they came from, so the art may be evicted
+    // first. Either one means we don't need to download the art again.
     public boolean checkCacheExists(CachedAppAssetLoader.LoaderTuple tuple) {
-        return CacheHelper.cacheFileExists(cacheDir, "boxart", tuple.computer.uuid, tuple.app.getAppId() + ".png");
+        return index.contains(tuple.computer.uuid, getAssetFileName(tuple.app.getAppId())) ||
+                index.containsWithPrefix(tuple.computer.uuid, getThumbnailFilePrefix(tuple.app.getAppId()));
+    }
+
+    // Like checkCacheExists() but only counts a thumbnail that can be displayed at this sample size
+    public boolean checkCacheExists(CachedAppAssetLoader.LoaderTuple tuple, int sampleSize) {
+        return index.contains(tuple.computer.uuid, getAssetFileName(tuple.app.getAppId())) ||
+                index.contains(tuple.computer.uuid, getThumbnailFileName(tuple.app.getAppId(), sampleSize));
     }
 
     // https://developer.android.com/topic/performance/graphics/load-bitmap.html
@@ -64,18 +106,65 @@ public class DiskAssetLoader {
         return inSampleSize;
     }
 
+    // Moves the bitmap into a hardware bitmap where we used to decode directly into one
+    @TargetApi(Build.VERSION_CODES.O)
+    private ScaledBitmap prepareForDisplay(ScaledBitmap scaledBitmap) {
+        if (!isLowRamDevice && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            Bitmap hwBitmap = scaledBitmap.bitmap.copy(Bitmap.Config.HARDWARE, false);
+            if (hwBitmap != null) {
+                // The software copy was never displayed, so it can be reused
+                BitmapPool.put(scaledBitmap.bitmap);
+                scaledBitmap.bitmap = hwBitmap;
+            }
+        }
+
+        return scaledBitmap;
+    }
+
     public ScaledBitmap loadBitmapFromCache(CachedAppAssetLoader.LoaderTuple tuple, int sampleSize) {
-        File file = getFile(tuple.computer.uuid, tuple.app.getAppId());
+        // Don't bother with anything if it's not in the index
+        DiskAssetIndex.Entry entry = index.access(tuple.computer.uuid, getAssetFileName(tuple.app.getAppId()));
+        if (entry == null) {
+            return null;
+        }
 
-        // Don't bother with anything if it doesn't exist
-        if (!file.exists()) {
+        ScaledBitmap scaledBitmap = decodeAsset(tuple, sampleSize, entry);
+        if (scaledBitmap == null) {
             return null;
         }
 
+        // Save a pre-scaled copy so we don't need to decode the full asset next time
+        writeThumbnail(tuple, sampleSize, scaledBitmap, entry.contentHash);
+
+        return prepareForDisplay(scaledBitmap);
+    }
+
+    // Creates the thumbnail for cached art without keeping the decoded bitmap around
+    public void populateThumbnailCache(CachedAppAssetLoader.LoaderTuple tuple, int sampleSize) {
+        if (index.contains(tuple.computer.uuid, getThumbnailFileName(tuple.app.getAppId(), sampleSize))) {
+            return;
+        }
+
+        DiskAssetIndex.Entry entry = index.access(tuple.computer.uuid, getAssetFileName(tuple.app.getAppId()));
+        if (entry == null) {
+            return;
+        }
+
+        ScaledBitmap scaledBitmap = decodeAsset(tuple, sampleSize, entry);
+        if (scaledBitmap != null) {
+            writeThumbnail(tuple, sampleSize, scaledBitmap, entry.contentHash);
+            BitmapPool.put(scaledBitmap.bitmap);
+        }
+    }
+
+    // Decodes the full asset into a software bitmap, so it can be written out as a thumbnail
+    private ScaledBitmap decodeAsset(CachedAppAssetLoader.LoaderTuple tuple, int sampleSize, DiskAssetIndex.Entry entry) {
+        File file = getFile(tuple.computer.uuid, tuple.app.getAppId());
+
         // Make sure the cached asset doesn't exceed the maximum size
-        if (file.length() > MAX_ASSET_SIZE) {
+        if (entry.size > MAX_ASSET_SIZE) {
             LimeLog.warning("Removing cached tuple exceeding size threshold: "+tuple);
-            file.delete();
+            removeFromCache(tuple);
             return null;
         }
 
@@ -89,6 +178,8 @@ public class DiskAssetLoader {
             BitmapFactory.decodeFile(file.getAbsolutePath(), decodeOnlyOptions);
             if (decodeOnlyOptions.outWidth <= 0 || decodeOnlyOptions.outHeight <= 0) {
                 // Dimensions set to -1 on error. Return value always null.
+                // The file is either corrupt or was deleted behind our back.
+                removeFromCache(tuple);
                 return null;
             }
 
@@ -103,15 +194,35 @@ public class DiskAssetLoader {
                 options.inPreferredConfig = Bitmap.Config.RGB_565;
                 options.inDither = true;
             }
-            else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                options.inPreferredConfig = Bitmap.Config.HARDWARE;
+
+            // Decode into a pooled bitmap if we have one that's big enough
+            options.inMutable = true;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                options.inBitmap = BitmapPool.get(
+                        (decodeOnlyOptions.outWidth + options.inSampleSize - 1) / options.inSampleSize,
+                        (decodeOnlyOptions.outHeight + options.inSampleSize - 1) / options.inSampleSize,
+                        options.inPreferredConfig);
             }
 
-            bmp = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            try {
+                bmp = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) {
+                    throw e;
+                }
+
+                // The pooled bitmap wasn't usable after all
+                options.inBitmap.recycle();
+                options.inBitmap = null;
+                bmp = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            }
             if (bmp != null) {
                 LimeLog.info("Tuple "+tuple+" decoded from disk cache with sample size: "+options.inSampleSize);
                 return new ScaledBitmap(decodeOnlyOptions.outWidth, decodeOnlyOptions.outHeight, bmp);
             }
+            else if (options.inBitmap != null) {
+                BitmapPool.put(options.inBitmap);
+            }
         }
         else {
             // On P, we can get a bitmap back in one step with ImageDecoder
@@ -124,6 +235,10 @@ public class DiskAssetLoader {
                         scaledBitmap.originalHeight = imageInfo.getSize().getHeight();
 
                         imageDecoder.setTargetSize(STANDARD_ASSET_WIDTH, STANDARD_ASSET_HEIGHT);
+                        imageDecoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+
+                        // Allow the bitmap to be pooled after we're done with it
+                        imageDecoder.setMutableRequired(true);
                         if (isLowRamDevice) {
                             imageDecoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
                         }
@@ -132,6 +247,7 @@ public class DiskAssetLoader {
                 return scaledBitmap;
             } catch (IOException e) {
                 e.printStackTrace();
+                removeFromCache(tuple);
                 return null;
             }
         }
@@ -139,11 +255,138 @@ public class DiskAssetLoader {
         return null;
     }
 
+    public ScaledBitmap loadThumbnailFromCache(CachedAppAssetLoader.LoaderTuple tuple, int sampleSize) {
+        String fileName = getThumbnailFileName(tuple.app.getAppId(), sampleSize);
+        if (index.access(tuple.computer.uuid, fileName) == null) {
+            return null;
+        }
+
+        File file = CacheHelper.openPath(false, cacheDir, "boxart", tuple.computer.uuid, fileName);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != THUMBNAIL_MAGIC) {
+                throw new IOException("Invalid thumbnail header");
+            }
+
+            int originalWidth = in.readInt();
+            int originalHeight = in.readInt();
+            int width = in.readInt();
+            int height = in.readInt();
+            if (width <= 0 || height <= 0 ||
+                    width > STANDARD_ASSET_WIDTH * 2 || height > STANDARD_ASSET_HEIGHT * 2) {
+                throw new IOException("Invalid thumbnail dimensions: "+width+"x"+height);
+            }
+
+            long compressedSize = file.length() - THUMBNAIL_HEADER_SIZE;
+            if (compressedSize <= 0 || compressedSize > MAX_ASSET_SIZE) {
+                throw new IOException("Invalid thumbnail size: "+compressedSize);
+            }
+            byte[] compressed = new byte[(int) compressedSize];
+            in.readFully(compressed);
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            if (isLowRamDevice) {
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+                options.inDither = true;
+            }
+
+            // Decode into a pooled bitmap if we have one of the right size
+            options.inMutable = true;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                options.inBitmap = BitmapPool.get(width, height, options.inPreferredConfig);
+            }
+
+            Bitmap bmp;
+            try {
+                bmp = BitmapFactory.decodeByteArray(compressed, 0, compressed.length, options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) {
+                    throw e;
+                }
+
+                // The pooled bitmap wasn't usable after all
+                options.inBitmap.recycle();
+                options.inBitmap = null;
+                bmp = BitmapFactory.decodeByteArray(compressed, 0, compressed.length, options);
+            }
+            if (bmp == null) {
+                if (options.inBitmap != null) {
+                    BitmapPool.put(options.inBitmap);
+                }
+                throw new IOException("Unable to decode thumbnail");
+            }
+
+            return prepareForDisplay(new ScaledBitmap(originalWidth, originalHeight, bmp));
+        } catch (IOException e) {
+            LimeLog.warning("Removing unreadable thumbnail for tuple "+tuple+": "+e.getMessage());
+            index.remove(tuple.computer.uuid, fileName);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    // The thumbnail is tagged with the hash of its source art, so it can be kept if
+    // the same art is downloaded again
+    private void writeThumbnail(CachedAppAssetLoader.LoaderTuple tuple, int sampleSize,
+                                ScaledBitmap scaledBitmap, int sourceContentHash) {
+        Bitmap bmp = scaledBitmap.bitmap;
+        String fileName = getThumbnailFileName(tuple.app.getAppId(), sampleSize);
+        DataOutputStream out = null;
+        boolean success = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    CacheHelper.openCacheFileForOutput(cacheDir, "boxart", tuple.computer.uuid, fileName)));
+            out.writeInt(THUMBNAIL_MAGIC);
+            out.writeInt(scaledBitmap.originalWidth);
+            out.writeInt(scaledBitmap.originalHeight);
+            out.writeInt(bmp.getWidth());
+            out.writeInt(bmp.getHeight());
+
+            // Box art is almost always opaque, so JPEG is much smaller. PNG keeps the alpha
+            // channel for the rare art that has one.
+            if (!bmp.compress(bmp.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
+                    THUMBNAIL_JPEG_QUALITY, out)) {
+                throw new IOException("Unable to compress thumbnail");
+            }
+            out.close();
+            out = null;
+
+            index.put(tuple.computer.uuid, fileName,
+                    CacheHelper.openPath(false, cacheDir, "boxart", tuple.computer.uuid, fileName).length(),
+                    sourceContentHash);
+            success = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {}
+            }
+
+            if (!success) {
+                index.remove(tuple.computer.uuid, fileName);
+            }
+        }
+    }
+
+    private void removeFromCache(CachedAppAssetLoader.LoaderTuple tuple) {
+        index.remove(tuple.computer.uuid, getAssetFileName(tuple.app.getAppId()));
+    }
+
     public File getFile(String computerUuid, int appId) {
-        return CacheHelper.openPath(false, cacheDir, "boxart", computerUuid, appId + ".png");
+        return CacheHelper.openPath(false, cacheDir, "boxart", computerUuid, getAssetFileName(appId));
     }
 
     public void deleteAssetsForComputer(String computerUuid) {
+        index.removeComputer(computerUuid);
+
         File dir = CacheHelper.openPath(false, cacheDir, "boxart", computerUuid);
         File[] files = dir.listFiles();
         if (files != null) {
@@ -153,12 +396,26 @@ public class DiskAssetLoader {
         }
     }
 
-    public void populateCacheWithStream(CachedAppAssetLoader.LoaderTuple tuple, InputStream input) {
+    public boolean populateCacheWithStream(CachedAppAssetLoader.LoaderTuple tuple, InputStream input) {
+        String fileName = getAssetFileName(tuple.app.getAppId());
         OutputStream out = null;
         boolean success = false;
+
         try {
-            out = CacheHelper.openCacheFileForOutput(cacheDir, "boxart", tuple.computer.uuid, tuple.app.getAppId() + ".png");
-            CacheHelper.writeInputStreamToOutputStream(input, out, MAX_ASSET_SIZE);
+            // Hash the art as it's written so the index can record it without reading it back
+            CheckedInputStream checkedInput = new CheckedInputStream(input, new CRC32());
+            out = CacheHelper.openCacheFileForOutput(cacheDir, "boxart", tuple.computer.uuid, fileName);
+            CacheHelper.writeInputStreamToOutputStream(checkedInput, out, MAX_ASSET_SIZE);
+            out.close();
+            out = null;
+
+            int contentHash = (int) checkedInput.getChecksum().getValue();
+            index.put(tuple.computer.uuid, fileName,
+                    getFile(tuple.computer.uuid, tuple.app.getAppId()).length(),
+                    contentHash);
+
+            // Thumbnails made from different art are stale now
+            index.removeStaleWithPrefix(tuple.computer.uuid, getThumbnailFilePrefix(tuple.app.getAppId()), contentHash);
             success = true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -171,8 +428,10 @@ public class DiskAssetLoader {
 
             if (!success) {
                 LimeLog.warning("Unable to populate cache with tuple: "+tuple);
-                CacheHelper.deleteCacheFile(cacheDir, "boxart", tuple.computer.uuid, tuple.app.getAppId() + ".png");
+                index.remove(tuple.computer.uuid, fileName);
             }
         }
+
+        return success;
     }
 }
@@ -1,11 +1,18 @@
 package com.limelight.grid.assets;
 
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
 import android.util.LruCache;
 
 import com.limelight.LimeLog;
 
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class MemoryAssetLoader {
     private static final int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
@@ -21,45 +28,114 @@ public class MemoryAssetLoader {
             super.entryRemoved(evicted, key, oldValue, newValue);
 
             if (evicted) {
-                // Keep a soft reference around to the bitmap as long as we can
-                evictionCache.put(key, new SoftReference<>(oldValue));
+                synchronized (evictionCache) {
+                    evictionCount++;
+
+                    // Keep a soft reference around to the bitmap as long as we can
+                    evictionCache.put(key, new KeyedSoftReference(key, oldValue, evictionQueue));
+                }
             }
         }
     };
-    private static final HashMap<String, SoftReference<ScaledBitmap>> evictionCache = new HashMap<>();
+
+    // The eviction cache only holds soft references, but we still don't want an
+    // unbounded number of map entries or dead references hanging around
+    private static final int MAX_EVICTION_CACHE_ENTRIES = 128;
+    private static final ReferenceQueue<ScaledBitmap> evictionQueue = new ReferenceQueue<>();
+    private static final LinkedHashMap<String, KeyedSoftReference> evictionCache =
+            new LinkedHashMap<String, KeyedSoftReference>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, KeyedSoftReference> eldest) {
+                    return size() > MAX_EVICTION_CACHE_ENTRIES;
+                }
+            };
+
+    // Guarded by evictionCache
+    private static long hitCount, softHitCount, missCount, evictionCount;
+
+    private static boolean registeredCallbacks;
+
+    private static class KeyedSoftReference extends SoftReference<ScaledBitmap> {
+        final String key;
+
+        KeyedSoftReference(String key, ScaledBitmap referent, ReferenceQueue<ScaledBitmap> queue) {
+            super(referent, queue);
+            this.key = key;
+        }
+    }
+
+    public MemoryAssetLoader(Context context) {
+        synchronized (MemoryAssetLoader.class) {
+            if (!registeredCallbacks) {
+                // The cache is shared by the whole process, so listen for trim events
+                // through the application context rather than any one activity.
+                context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+                    @Override
+                    public void onTrimMemory(int level) {
+                        trimMemory(level);
+                    }
+
+                    @Override
+                    public void onConfigurationChanged(Configuration configuration) {}
+
+                    @Override
+                    public void onLowMemory() {
+                        trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+                    }
+                });
+                registeredCallbacks = true;
+            }
+        }
+    }
 
     private static String constructKey(CachedAppAssetLoader.LoaderTuple tuple) {
         return tuple.computer.uuid+"-"+tuple.app.getAppId();
     }
 
+    // Must be called with the evictionCache lock held
+    private static void purgeClearedReferences() {
+        KeyedSoftReference ref;
+        while ((ref = (KeyedSoftReference) evictionQueue.poll()) != null) {
+            // Only remove the entry if it hasn't been replaced since
+            if (evictionCache.get(ref.key) == ref) {
+                evictionCache.remove(ref.key);
+            }
+        }
+    }
+
     public ScaledBitmap loadBitmapFromCache(CachedAppAssetLoader.LoaderTuple tuple) {
         final String key = constructKey(tuple);
 
         ScaledBitmap bmp = memoryCache.get(key);
         if (bmp != null) {
+            synchronized (evictionCache) {
+                hitCount++;
+            }
             LimeLog.info("LRU cache hit for tuple: "+tuple);
             return bmp;
         }
 
-        SoftReference<ScaledBitmap> bmpRef = evictionCache.get(key);
-        if (bmpRef != null) {
-            bmp = bmpRef.get();
-            if (bmp != null) {
-                LimeLog.info("Eviction cache hit for tuple: "+tuple);
-
-                // Put this entry back into the LRU cache
-                evictionCache.remove(key);
-                memoryCache.put(key, bmp);
+        synchronized (evictionCache) {
+            purgeClearedReferences();
 
-                return bmp;
+            KeyedSoftReference bmpRef = evictionCache.remove(key);
+            if (bmpRef != null) {
+                bmp = bmpRef.get();
+                if (bmp != null) {
+                    softHitCount++;
+                    LimeLog.info("Eviction cache hit for tuple: "+tuple);
+                }
             }
-            else {
-                // The data is gone, so remove the dangling SoftReference now
-                evictionCache.remove(key);
+
+            if (bmp == null) {
+                missCount++;
+                return null;
             }
         }
 
-        return null;
+        // Put this entry back into the LRU cache
+        memoryCache.put(key, bmp);
+        return bmp;
     }
 
     public void populateCache(CachedAppAssetLoader.LoaderTuple tuple, ScaledBitmap bitmap) {
@@ -69,6 +145,68 @@ public class MemoryAssetLoader {
     public void clearCache() {
         // We must evict first because that will push all items into the eviction cache
         memoryCache.evictAll();
-        evictionCache.clear();
+        synchronized (evictionCache) {
+            evictionCache.clear();
+        }
+    }
+
+    public static long getHitCount() {
+        synchronized (evictionCache) {
+            return hitCount;
+        }
+    }
+
+    // Hits served from the soft reference eviction cache
+    public static long getSoftHitCount() {
+        synchronized (evictionCache) {
+            return softHitCount;
+        }
+    }
+
+    public static long getMissCount() {
+        synchronized (evictionCache) {
+            return missCount;
+        }
+    }
+
+    public static long getEvictionCount() {
+        synchronized (evictionCache) {
+            return evictionCount;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static void trimCacheToSize(int maxSizeKb) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            memoryCache.trimToSize(maxSizeKb);
+        }
+        else {
+            memoryCache.evictAll();
+        }
+    }
+
+    static void trimMemory(int level) {
+        LimeLog.info("Trimming box art memory (level "+level+"). "+
+                "Hits: "+getHitCount()+", soft hits: "+getSoftHitCount()+
+                ", misses: "+getMissCount()+", evictions: "+getEvictionCount());
+
+        // Pooled bitmaps are only an optimization, so they always go first
+        BitmapPool.clear();
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // We're likely to be killed soon or the system is desperate for memory
+            memoryCache.evictAll();
+            synchronized (evictionCache) {
+                evictionCache.clear();
+            }
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Nothing is visible, so keep just enough to quickly redraw when we come back
+            trimCacheToSize(memoryCache.maxSize() / 4);
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimCacheToSize(memoryCache.maxSize() / 2);
+        }
     }
 }
@@ -0,0 +1,124 @@
+package com.limelight.grid.assets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Runs asset loads in order of the priority of their app rather than FIFO. Priorities
+// can change while loads are queued (as the grid scrolls) and the queue is reordered to
+// match. When too many loads are pending, the lowest priority loads are dropped.
+class PrioritizedLoadExecutor {
+    // Loads for apps without an assigned priority run in submission order after the rest
+    static final int DEFAULT_PRIORITY = Integer.MAX_VALUE;
+
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+    private final ThreadPoolExecutor executor;
+    private final int maxPendingLoads;
+
+    private Map<Integer, Integer> priorities = Collections.emptyMap();
+    private long nextSequence;
+
+    private class PendingLoad implements Runnable, Comparable<PendingLoad> {
+        final int appId;
+        final long sequence;
+        final Runnable runnable;
+        int priority;
+
+        PendingLoad(int appId, Runnable runnable) {
+            this.appId = appId;
+            this.sequence = nextSequence++;
+            this.runnable = runnable;
+            this.priority = getPriority(appId);
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+
+        @Override
+        public int compareTo(PendingLoad other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    PrioritizedLoadExecutor(int maxConcurrentLoads, int maxPendingLoads) {
+        this.maxPendingLoads = maxPendingLoads;
+        this.executor = new ThreadPoolExecutor(
+                maxConcurrentLoads, maxConcurrentLoads,
+                Long.MAX_VALUE, TimeUnit.DAYS,
+                queue);
+    }
+
+    private int getPriority(int appId) {
+        Integer priority = priorities.get(appId);
+        return priority != null ? priority : DEFAULT_PRIORITY;
+    }
+
+    // Returns an executor that queues loads for the specified app. This lets us
+    // attach a priority to AsyncTasks, which only hand us an opaque Runnable.
+    Executor forApp(final int appId) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                PrioritizedLoadExecutor.this.execute(appId, runnable);
+            }
+        };
+    }
+
+    synchronized void execute(int appId, Runnable runnable) {
+        executor.execute(new PendingLoad(appId, runnable));
+
+        // Drop the least important loads if we've got too many waiting
+        while (queue.size() > maxPendingLoads) {
+            PendingLoad worst = null;
+            for (Runnable r : queue) {
+                PendingLoad load = (PendingLoad) r;
+                if (worst == null || load.compareTo(worst) > 0) {
+                    worst = load;
+                }
+            }
+            if (worst == null || !queue.remove(worst)) {
+                break;
+            }
+            discard(worst);
+        }
+    }
+
+    // Priorities are lowest first. Apps missing from the map get DEFAULT_PRIORITY.
+    synchronized void setPriorities(Map<Integer, Integer> newPriorities) {
+        priorities = newPriorities;
+
+        // Reinsert everything queued so it's ordered by the new priorities
+        ArrayList<Runnable> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        for (Runnable r : pending) {
+            PendingLoad load = (PendingLoad) r;
+            load.priority = getPriority(load.appId);
+        }
+        queue.addAll(pending);
+    }
+
+    synchronized void cancelPendingLoads() {
+        ArrayList<Runnable> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        for (Runnable r : pending) {
+            discard((PendingLoad) r);
+        }
+    }
+
+    private static void discard(PendingLoad load) {
+        // Cancel AsyncTasks so they finish rather than waiting forever to run
+        if (load.runnable instanceof Future) {
+            ((Future<?>) load.runnable).cancel(false);
+        }
+    }
+}
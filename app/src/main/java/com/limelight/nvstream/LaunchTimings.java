@@ -0,0 +1,37 @@
+package com.limelight.nvstream;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+
+// Records how long each stage of a stream launch took, so we can see where
+// the time to first frame is being spent.
+class LaunchTimings {
+    private final long startTime = SystemClock.elapsedRealtime();
+    private long lastMarkTime = startTime;
+    private final ArrayList<String> stages = new ArrayList<>();
+    private final ArrayList<Long> durations = new ArrayList<>();
+
+    // Ends a sequential stage that began when the previous one ended
+    synchronized void mark(String stage) {
+        long now = SystemClock.elapsedRealtime();
+        record(stage, now - lastMarkTime);
+        lastMarkTime = now;
+    }
+
+    // Records a stage that ran in parallel with the sequential ones
+    synchronized void record(String stage, long durationMs) {
+        stages.add(stage);
+        durations.add(durationMs);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < stages.size(); i++) {
+            sb.append(stages.get(i)).append(": ").append(durations.get(i)).append(" ms, ");
+        }
+        sb.append("total: ").append(SystemClock.elapsedRealtime() - startTime).append(" ms");
+        return sb.toString();
+    }
+}
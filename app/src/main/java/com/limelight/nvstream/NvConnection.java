@@ -1,6 +1,7 @@
 package com.limelight.nvstream;
 
 import android.app.ActivityManager;
+import android.os.SystemClock;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -22,10 +23,15 @@ import com.limelight.nvstream.http.LimelightCryptoProvider;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
 import com.limelight.nvstream.http.PairingManager;
+import com.limelight.nvstream.http.ServerInfo;
+import com.limelight.nvstream.input.InputPipeline;
 import com.limelight.nvstream.input.MouseButtonPacket;
 import com.limelight.nvstream.jni.MoonBridge;
 
 public class NvConnection {
+    // Server info from polling younger than this is used rather than fetching it again
+    private static final long MAX_SERVER_INFO_AGE_MS = 3000;
+
     // Context parameters
     private String host;
     private LimelightCryptoProvider cryptoProvider;
@@ -33,6 +39,7 @@ public class NvConnection {
     private ConnectionContext context;
     private static Semaphore connectionAllowed = new Semaphore(1);
     private final boolean isMonkey;
+    private final InputPipeline inputPipeline = new InputPipeline();
     
     public NvConnection(String host, String uniqueId, StreamConfiguration config, LimelightCryptoProvider cryptoProvider, X509Certificate serverCert)
     {       
@@ -76,6 +83,9 @@ public class NvConnection {
         // Moonlight-core is not thread-safe with respect to connection start and stop, so
         // we must not invoke that functionality in parallel.
         synchronized (MoonBridge.class) {
+            // Stop sending input before tearing down the connection
+            inputPipeline.stop();
+
             MoonBridge.stopConnection();
             MoonBridge.cleanupBridge();
         }
@@ -84,28 +94,37 @@ public class NvConnection {
         connectionAllowed.release();
     }
     
-    private boolean startApp() throws XmlPullParserException, IOException
+    private boolean startApp(LaunchTimings timings) throws XmlPullParserException, IOException
     {
         NvHTTP h = new NvHTTP(context.serverAddress, uniqueId, context.serverCert, cryptoProvider);
 
-        String serverInfo = h.getServerInfo();
+        // The computer manager has likely polled this host moments ago
+        ServerInfo serverInfo = h.getRecentServerInfo(MAX_SERVER_INFO_AGE_MS);
+        if (serverInfo != null) {
+            LimeLog.info("Using recently polled server info");
+            timings.mark("Server info (polled)");
+        }
+        else {
+            serverInfo = h.getServerInfo();
+            timings.mark("Server info");
+        }
         
-        context.serverAppVersion = h.getServerVersion(serverInfo);
+        context.serverAppVersion = serverInfo.getServerVersion();
         if (context.serverAppVersion == null) {
             context.connListener.displayMessage("Server version malformed");
             return false;
         }
 
         // May be missing for older servers
-        context.serverGfeVersion = h.getGfeVersion(serverInfo);
+        context.serverGfeVersion = serverInfo.getGfeVersion();
                 
-        if (h.getPairState(serverInfo) != PairingManager.PairState.PAIRED) {
+        if (serverInfo.getPairState() != PairingManager.PairState.PAIRED) {
             context.connListener.displayMessage("Device not paired with computer");
             return false;
         }
 
         context.negotiatedHdr = context.streamConfig.getEnableHdr();
-        if ((h.getServerCodecModeSupport(serverInfo) & 0x200) == 0 && context.negotiatedHdr) {
+        if ((serverInfo.getServerCodecModeSupport() & 0x200) == 0 && context.negotiatedHdr) {
             context.connListener.displayTransientMessage("Your GPU does not support streaming HDR. The stream will be SDR.");
             context.negotiatedHdr = false;
         }
@@ -116,7 +135,7 @@ public class NvConnection {
         
         // Check for a supported stream resolution
         if ((context.streamConfig.getWidth() > 4096 || context.streamConfig.getHeight() > 4096) &&
-                (h.getServerCodecModeSupport(serverInfo) & 0x200) == 0) {
+                (serverInfo.getServerCodecModeSupport() & 0x200) == 0) {
             context.connListener.displayMessage("Your host PC does not support streaming at resolutions above 4K.");
             return false;
         }
@@ -125,7 +144,7 @@ public class NvConnection {
             context.connListener.displayMessage("Your streaming device must support HEVC to stream at resolutions above 4K.");
             return false;
         }
-        else if (context.streamConfig.getHeight() >= 2160 && !h.supports4K(serverInfo)) {
+        else if (context.streamConfig.getHeight() >= 2160 && !serverInfo.supports4K()) {
             // Client wants 4K but the server can't do it
             context.connListener.displayTransientMessage("You must update GeForce Experience to stream in 4K. The stream will be 1080p.");
             
@@ -156,9 +175,9 @@ public class NvConnection {
         }
         
         // If there's a game running, resume it
-        if (h.getCurrentGame(serverInfo) != 0) {
+        if (serverInfo.getCurrentGame() != 0) {
             try {
-                if (h.getCurrentGame(serverInfo) == app.getAppId()) {
+                if (serverInfo.getCurrentGame() == app.getAppId()) {
                     if (!h.resumeApp(context)) {
                         context.connListener.displayMessage("Failed to resume existing session");
                         return false;
@@ -227,6 +246,38 @@ public class NvConnection {
         return true;
     }
 
+    private static Thread startRendererPrewarm(final AudioRenderer audioRenderer,
+                                               final VideoDecoderRenderer videoDecoderRenderer,
+                                               final MoonBridge.AudioConfiguration audioConfiguration,
+                                               final LaunchTimings timings) {
+        Thread prewarmThread = new Thread() {
+            @Override
+            public void run() {
+                long startTime = SystemClock.elapsedRealtime();
+                videoDecoderRenderer.prewarm();
+                timings.record("Video prewarm", SystemClock.elapsedRealtime() - startTime);
+
+                startTime = SystemClock.elapsedRealtime();
+                audioRenderer.prewarm(audioConfiguration);
+                timings.record("Audio prewarm", SystemClock.elapsedRealtime() - startTime);
+            }
+        };
+        prewarmThread.setName("Renderer Prewarm");
+        prewarmThread.start();
+        return prewarmThread;
+    }
+
+    private static void discardPrewarmedRenderers(Thread prewarmThread, AudioRenderer audioRenderer,
+                                                  VideoDecoderRenderer videoDecoderRenderer) {
+        try {
+            prewarmThread.join();
+        } catch (InterruptedException ignored) {}
+
+        // The renderers won't be set up, so anything prewarmed must be freed here
+        videoDecoderRenderer.discardPrewarmed();
+        audioRenderer.discardPrewarmed();
+    }
+
     public void start(final AudioRenderer audioRenderer, final VideoDecoderRenderer videoDecoderRenderer, final NvConnectionListener connectionListener)
     {
         new Thread(new Runnable() {
@@ -239,61 +290,92 @@ public class NvConnection {
                 context.serverAddress = host;
                 context.connListener.stageStarting(appName);
 
+                LaunchTimings timings = new LaunchTimings();
+
+                // The renderers do their expensive initialization while the host launches the app
+                Thread prewarmThread = startRendererPrewarm(audioRenderer, videoDecoderRenderer,
+                        context.streamConfig.getAudioConfiguration(), timings);
+                boolean connectionStarted = false;
+
                 try {
-                    if (!startApp()) {
-                        context.connListener.stageFailed(appName, 0, 0);
+                    try {
+                        if (!startApp(timings)) {
+                            context.connListener.stageFailed(appName, 0, 0);
+                            return;
+                        }
+                        timings.mark("App launch");
+                        context.connListener.stageComplete(appName);
+                    } catch (GfeHttpResponseException e) {
+                        e.printStackTrace();
+                        context.connListener.displayMessage(e.getMessage());
+                        context.connListener.stageFailed(appName, 0, e.getErrorCode());
+                        return;
+                    } catch (XmlPullParserException | IOException e) {
+                        e.printStackTrace();
+                        context.connListener.displayMessage(e.getMessage());
+                        context.connListener.stageFailed(appName, MoonBridge.ML_PORT_FLAG_TCP_47984 | MoonBridge.ML_PORT_FLAG_TCP_47989, 0);
                         return;
                     }
-                    context.connListener.stageComplete(appName);
-                } catch (GfeHttpResponseException e) {
-                    e.printStackTrace();
-                    context.connListener.displayMessage(e.getMessage());
-                    context.connListener.stageFailed(appName, 0, e.getErrorCode());
-                    return;
-                } catch (XmlPullParserException | IOException e) {
-                    e.printStackTrace();
-                    context.connListener.displayMessage(e.getMessage());
-                    context.connListener.stageFailed(appName, MoonBridge.ML_PORT_FLAG_TCP_47984 | MoonBridge.ML_PORT_FLAG_TCP_47989, 0);
-                    return;
-                }
 
-                ByteBuffer ib = ByteBuffer.allocate(16);
-                ib.putInt(context.riKeyId);
+                    // The renderers must be finished prewarming before they can be set up
+                    try {
+                        prewarmThread.join();
+                    } catch (InterruptedException ignored) {}
+                    timings.mark("Prewarm wait");
 
-                // Acquire the connection semaphore to ensure we only have one
-                // connection going at once.
-                try {
-                    connectionAllowed.acquire();
-                } catch (InterruptedException e) {
-                    context.connListener.displayMessage(e.getMessage());
-                    context.connListener.stageFailed(appName, 0, 0);
-                    return;
-                }
+                    ByteBuffer ib = ByteBuffer.allocate(16);
+                    ib.putInt(context.riKeyId);
 
-                // Moonlight-core is not thread-safe with respect to connection start and stop, so
-                // we must not invoke that functionality in parallel.
-                synchronized (MoonBridge.class) {
-                    MoonBridge.setupBridge(videoDecoderRenderer, audioRenderer, connectionListener);
-                    int ret = MoonBridge.startConnection(context.serverAddress,
-                            context.serverAppVersion, context.serverGfeVersion, context.rtspSessionUrl,
-                            context.negotiatedWidth, context.negotiatedHeight,
-                            context.streamConfig.getRefreshRate(), context.streamConfig.getBitrate(),
-                            context.streamConfig.getMaxPacketSize(),
-                            context.streamConfig.getRemote(), context.streamConfig.getAudioConfiguration().toInt(),
-                            context.streamConfig.getHevcSupported(),
-                            context.negotiatedHdr,
-                            context.streamConfig.getHevcBitratePercentageMultiplier(),
-                            context.streamConfig.getClientRefreshRateX100(),
-                            context.streamConfig.getEncryptionFlags(),
-                            context.riKey.getEncoded(), ib.array(),
-                            context.videoCapabilities);
-                    if (ret != 0) {
-                        // LiStartConnection() failed, so the caller is not expected
-                        // to stop the connection themselves. We need to release their
-                        // semaphore count for them.
-                        connectionAllowed.release();
+                    // Acquire the connection semaphore to ensure we only have one
+                    // connection going at once.
+                    try {
+                        connectionAllowed.acquire();
+                    } catch (InterruptedException e) {
+                        context.connListener.displayMessage(e.getMessage());
+                        context.connListener.stageFailed(appName, 0, 0);
+                        return;
+                    }
+
+                    // Moonlight-core is not thread-safe with respect to connection start and stop, so
+                    // we must not invoke that functionality in parallel.
+                    synchronized (MoonBridge.class) {
+                        MoonBridge.setupBridge(videoDecoderRenderer, audioRenderer, connectionListener);
+                        int ret = MoonBridge.startConnection(context.serverAddress,
+                                context.serverAppVersion, context.serverGfeVersion, context.rtspSessionUrl,
+                                context.negotiatedWidth, context.negotiatedHeight,
+                                context.streamConfig.getRefreshRate(), context.streamConfig.getBitrate(),
+                                context.streamConfig.getMaxPacketSize(),
+                                context.streamConfig.getRemote(), context.streamConfig.getAudioConfiguration().toInt(),
+                                context.streamConfig.getHevcSupported(),
+                                context.negotiatedHdr,
+                                context.streamConfig.getHevcBitratePercentageMultiplier(),
+                                context.streamConfig.getClientRefreshRateX100(),
+                                context.streamConfig.getEncryptionFlags(),
+                                context.riKey.getEncoded(), ib.array(),
+                                context.videoCapabilities);
+                        timings.mark("Connection start");
+                        if (ret != 0) {
+                            // LiStartConnection() failed, so the caller is not expected
+                            // to stop the connection themselves. We need to release their
+                            // semaphore count for them.
+                            connectionAllowed.release();
+                        }
+                        else {
+                            connectionStarted = true;
+                            inputPipeline.start();
+                        }
+                    }
+                } finally {
+                    // Unless the renderers were set up for a running connection, anything
+                    // prewarmed must be freed here. This covers unexpected exceptions too.
+                    // If the renderers were set up and cleaned up already, they've consumed
+                    // or freed what was prewarmed and this does nothing.
+                    if (!connectionStarted) {
+                        discardPrewarmedRenderers(prewarmThread, audioRenderer, videoDecoderRenderer);
                     }
                 }
+
+                LimeLog.info("Launch timings: "+timings);
             }
         }).start();
     }
@@ -301,28 +383,44 @@ public class NvConnection {
     public void sendMouseMove(final short deltaX, final short deltaY)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseMove(deltaX, deltaY);
+            inputPipeline.sendMouseMove(deltaX, deltaY, true);
+        }
+    }
+
+    // Unlike sendMouseMove(), each sample is sent individually instead of being
+    // merged with adjacent motion that hasn't been sent yet.
+    public void sendMouseMoveSample(final short deltaX, final short deltaY)
+    {
+        if (!isMonkey) {
+            inputPipeline.sendMouseMove(deltaX, deltaY, false);
         }
     }
 
     public void sendMousePosition(short x, short y, short referenceWidth, short referenceHeight)
     {
         if (!isMonkey) {
-            MoonBridge.sendMousePosition(x, y, referenceWidth, referenceHeight);
+            inputPipeline.sendMousePosition(x, y, referenceWidth, referenceHeight, true);
+        }
+    }
+
+    public void sendMousePositionSample(short x, short y, short referenceWidth, short referenceHeight)
+    {
+        if (!isMonkey) {
+            inputPipeline.sendMousePosition(x, y, referenceWidth, referenceHeight, false);
         }
     }
     
     public void sendMouseButtonDown(final byte mouseButton)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseButton(MouseButtonPacket.PRESS_EVENT, mouseButton);
+            inputPipeline.sendMouseButton(MouseButtonPacket.PRESS_EVENT, mouseButton);
         }
     }
     
     public void sendMouseButtonUp(final byte mouseButton)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseButton(MouseButtonPacket.RELEASE_EVENT, mouseButton);
+            inputPipeline.sendMouseButton(MouseButtonPacket.RELEASE_EVENT, mouseButton);
         }
     }
     
@@ -333,7 +431,7 @@ public class NvConnection {
             final short rightStickX, final short rightStickY)
     {
         if (!isMonkey) {
-            MoonBridge.sendMultiControllerInput(controllerNumber, activeGamepadMask, buttonFlags,
+            inputPipeline.sendMultiControllerInput(controllerNumber, activeGamepadMask, buttonFlags,
                     leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
         }
     }
@@ -344,26 +442,26 @@ public class NvConnection {
             final short rightStickX, final short rightStickY)
     {
         if (!isMonkey) {
-            MoonBridge.sendControllerInput(buttonFlags, leftTrigger, rightTrigger, leftStickX,
+            inputPipeline.sendControllerInput(buttonFlags, leftTrigger, rightTrigger, leftStickX,
                     leftStickY, rightStickX, rightStickY);
         }
     }
     
     public void sendKeyboardInput(final short keyMap, final byte keyDirection, final byte modifier) {
         if (!isMonkey) {
-            MoonBridge.sendKeyboardInput(keyMap, keyDirection, modifier);
+            inputPipeline.sendKeyboardInput(keyMap, keyDirection, modifier);
         }
     }
     
     public void sendMouseScroll(final byte scrollClicks) {
         if (!isMonkey) {
-            MoonBridge.sendMouseScroll(scrollClicks);
+            inputPipeline.sendMouseScroll(scrollClicks);
         }
     }
 
     public void sendMouseHighResScroll(final short scrollAmount) {
         if (!isMonkey) {
-            MoonBridge.sendMouseHighResScroll(scrollAmount);
+            inputPipeline.sendMouseHighResScroll(scrollAmount);
         }
     }
 
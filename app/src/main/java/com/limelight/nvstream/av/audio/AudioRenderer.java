@@ -3,8 +3,20 @@ package com.limelight.nvstream.av.audio;
 import com.limelight.nvstream.jni.MoonBridge;
 
 public interface AudioRenderer {
+    // Called while the app is launched on the host with the audio configuration we'll ask for.
+    // This finishes before setup() is called. Anything setup() doesn't use must be freed in
+    // discardPrewarmed(), which is also called if the connection fails.
+    void prewarm(MoonBridge.AudioConfiguration audioConfiguration);
+
+    void discardPrewarmed();
+
     int setup(MoonBridge.AudioConfiguration audioConfiguration, int sampleRate, int samplesPerFrame);
 
+    // Called after a successful setup() to pick how decoded audio is delivered.
+    // Renderers returning AUDIO_CAPABILITY_DIRECT_BUFFER never get playDecodedAudio()
+    // calls and must drain the native ring buffer themselves.
+    int getCapabilities();
+
     void start();
 
     void stop();
@@ -3,12 +3,23 @@ package com.limelight.nvstream.av.video;
 public abstract class VideoDecoderRenderer {
     public abstract int setup(int format, int width, int height, int redrawRate);
 
+    // Called on a separate thread while the app is launched on the host, so the renderer
+    // can get a head start on expensive initialization before setup(). It always finishes
+    // before setup() is called. Anything setup() doesn't consume must be freed in
+    // discardPrewarmed(), which is also called if the connection fails.
+    public void prewarm() {}
+
+    public void discardPrewarmed() {}
+
     public abstract void start();
 
     public abstract void stop();
 
     // This is called once for each frame-start NALU. This means it will be called several times
     // for an IDR frame which contains several parameter sets and the I-frame data.
+    //
+    // For BUFFER_TYPE_PICDATA, decodeUnitData is null and the renderer must fetch the
+    // decodeUnitLength bytes of frame data with MoonBridge.copyPicData() before returning.
     public abstract int submitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
                                          int frameNumber, long receiveTimeMs, long enqueueTimeMs);
     
@@ -23,7 +23,6 @@ public class ComputerDetails {
     public String activeAddress;
     public PairingManager.PairState pairState;
     public int runningGameId;
-    public String rawAppList;
 
     public ComputerDetails() {
         // Use defaults
@@ -63,7 +62,6 @@ public class ComputerDetails {
         }
         this.pairState = details.pairState;
         this.runningGameId = details.runningGameId;
-        this.rawAppList = details.rawAppList;
     }
 
     @Override
@@ -0,0 +1,76 @@
+package com.limelight.nvstream.http;
+
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+// Process-wide cache of HTTP clients keyed by the pinned server certificate and our
+// client certificate. NvHTTP objects are short-lived, so caching the clients here lets
+// polling, asset loading, and app launches reuse TCP connections and TLS sessions.
+class HttpClientRegistry {
+    private static final int MAX_CLIENTS = 32;
+    private static final int MAX_IDLE_CONNECTIONS = 16;
+    private static final int IDLE_CONNECTION_TIMEOUT_MS = 10000;
+
+    // Shared by all clients. Connections are only reused by clients with matching
+    // TLS configuration, so sharing doesn't weaken certificate pinning.
+    private static final ConnectionPool connectionPool =
+            new ConnectionPool(MAX_IDLE_CONNECTIONS, IDLE_CONNECTION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    private static final Dispatcher dispatcher = new Dispatcher();
+
+    private static final LinkedHashMap<ClientKey, OkHttpClient> clients =
+            new LinkedHashMap<ClientKey, OkHttpClient>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ClientKey, OkHttpClient> eldest) {
+                    return size() > MAX_CLIENTS;
+                }
+            };
+
+    static OkHttpClient getHttpClient(X509Certificate serverCert, LimelightCryptoProvider cryptoProvider) {
+        ClientKey key = new ClientKey(serverCert, cryptoProvider.getClientCertificate());
+
+        synchronized (clients) {
+            OkHttpClient client = clients.get(key);
+            if (client == null) {
+                client = NvHTTP.createHttpClient(serverCert, cryptoProvider, connectionPool, dispatcher);
+                clients.put(key, client);
+            }
+            return client;
+        }
+    }
+
+    private static class ClientKey {
+        private final X509Certificate serverCert;
+        private final X509Certificate clientCert;
+
+        ClientKey(X509Certificate serverCert, X509Certificate clientCert) {
+            this.serverCert = serverCert;
+            this.clientCert = clientCert;
+        }
+
+        private static boolean certEquals(X509Certificate a, X509Certificate b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ClientKey)) {
+                return false;
+            }
+
+            ClientKey other = (ClientKey) o;
+            return certEquals(serverCert, other.serverCert) && certEquals(clientCert, other.clientCert);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (serverCert != null ? serverCert.hashCode() : 0) +
+                    (clientCert != null ? clientCert.hashCode() : 0);
+        }
+    }
+}
@@ -52,7 +52,9 @@ import com.limelight.LimeLog;
 import com.limelight.nvstream.ConnectionContext;
 import com.limelight.nvstream.http.PairingManager.PairState;
 
+import okhttp3.Call;
 import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -77,13 +79,18 @@ public class NvHTTP {
     private OkHttpClient httpClient;
     private OkHttpClient httpClientWithReadTimeout;
 
-    private X509TrustManager defaultTrustManager;
-    private X509TrustManager trustManager;
-    private X509KeyManager keyManager;
+    private final LimelightCryptoProvider cryptoProvider;
     private X509Certificate serverCert;
 
+    private final Object callLock = new Object();
+    private Call activeCall;
+    private boolean cancelled;
+
     void setServerCert(X509Certificate serverCert) {
         this.serverCert = serverCert;
+
+        // Switch to clients that pin the new certificate
+        initializeHttpState();
     }
 
     private static X509TrustManager getDefaultTrustManager() {
@@ -105,8 +112,13 @@ public class NvHTTP {
         throw new IllegalStateException("No X509 trust manager found");
     }
 
-    private void initializeHttpState(final LimelightCryptoProvider cryptoProvider) {
-        keyManager = new X509KeyManager() {
+    // Builds a client that authenticates with our client certificate and accepts the
+    // provided pinned server certificate. These are expensive to create, so they are
+    // shared between NvHTTP instances by HttpClientRegistry.
+    static OkHttpClient createHttpClient(final X509Certificate serverCert,
+                                         final LimelightCryptoProvider cryptoProvider,
+                                         ConnectionPool connectionPool, Dispatcher dispatcher) {
+        X509KeyManager keyManager = new X509KeyManager() {
             public String chooseClientAlias(String[] keyTypes,
                     Principal[] issuers, Socket socket) { return "Limelight-RSA"; }
             public String chooseServerAlias(String keyType, Principal[] issuers,
@@ -121,8 +133,8 @@ public class NvHTTP {
             public String[] getServerAliases(String keyType, Principal[] issuers) { return null; }
         };
 
-        defaultTrustManager = getDefaultTrustManager();
-        trustManager = new X509TrustManager() {
+        final X509TrustManager defaultTrustManager = getDefaultTrustManager();
+        X509TrustManager trustManager = new X509TrustManager() {
             public X509Certificate[] getAcceptedIssuers() {
                 return new X509Certificate[0];
             }
@@ -137,8 +149,8 @@ public class NvHTTP {
                     defaultTrustManager.checkServerTrusted(certs, authType);
                 } catch (CertificateException e) {
                     // Check the server certificate if we've paired to this host
-                    if (certs.length == 1 && NvHTTP.this.serverCert != null) {
-                        if (!certs[0].equals(NvHTTP.this.serverCert)) {
+                    if (certs.length == 1 && serverCert != null) {
+                        if (!certs[0].equals(serverCert)) {
                             throw new CertificateException("Certificate mismatch");
                         }
                     }
@@ -155,7 +167,7 @@ public class NvHTTP {
             public boolean verify(String hostname, SSLSession session) {
                 try {
                     Certificate[] certificates = session.getPeerCertificates();
-                    if (certificates.length == 1 && certificates[0].equals(NvHTTP.this.serverCert)) {
+                    if (certificates.length == 1 && certificates[0].equals(serverCert)) {
                         // Allow any hostname if it's our pinned cert
                         return true;
                     }
@@ -168,13 +180,37 @@ public class NvHTTP {
             }
         };
 
-        httpClient = new OkHttpClient.Builder()
-                .connectionPool(new ConnectionPool(0, 1, TimeUnit.MILLISECONDS))
+        SSLContext sc;
+        try {
+            // The SSLContext is kept for the lifetime of the client so its session
+            // cache allows later connections to resume TLS sessions.
+            sc = SSLContext.getInstance("TLS");
+            sc.init(new KeyManager[] { keyManager }, new TrustManager[] { trustManager }, new SecureRandom());
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            throw new RuntimeException(e);
+        }
+
+        // TLS 1.2 is not enabled by default prior to Android 5.0, so we'll need a custom
+        // SSLSocketFactory in order to connect to GFE 3.20.4 which requires TLSv1.2 or later.
+        // We don't just always use TLSv12SocketFactory because explicitly specifying TLS versions
+        // prevents later TLS versions from being negotiated even if client and server otherwise
+        // support them.
+        return new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .sslSocketFactory(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ?
+                                sc.getSocketFactory() : new TLSv12SocketFactory(sc),
+                        trustManager)
                 .hostnameVerifier(hv)
                 .readTimeout(0, TimeUnit.MILLISECONDS)
                 .connectTimeout(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
                 .build();
-        
+    }
+
+    private void initializeHttpState() {
+        httpClient = HttpClientRegistry.getHttpClient(serverCert, cryptoProvider);
+
+        // This shares the connection pool and TLS state of the base client
         httpClientWithReadTimeout = httpClient.newBuilder()
                 .readTimeout(READ_TIMEOUT, TimeUnit.MILLISECONDS)
                 .build();
@@ -186,8 +222,9 @@ public class NvHTTP {
         this.uniqueId = "0123456789ABCDEF";
 
         this.serverCert = serverCert;
+        this.cryptoProvider = cryptoProvider;
 
-        initializeHttpState(cryptoProvider);
+        initializeHttpState();
 
         try {
             // The URI constructor takes care of escaping IPv6 literals
@@ -201,14 +238,37 @@ public class NvHTTP {
         this.pm = new PairingManager(this, cryptoProvider);
     }
     
+    // Aborts the request in progress (including reading its response) and fails any
+    // later requests. Unlike interrupting the calling thread, this unblocks it right away.
+    public void cancel() {
+        synchronized (callLock) {
+            cancelled = true;
+            if (activeCall != null) {
+                activeCall.cancel();
+            }
+        }
+    }
+
     String buildUniqueIdUuidString() {
         return "uniqueid="+uniqueId+"&uuid="+UUID.randomUUID();
     }
     
+    private static XmlPullParserFactory xmlPullParserFactory;
+
+    // Creating the factory is relatively expensive, so we share one for all parsers
+    static XmlPullParser newXmlPullParser() throws XmlPullParserException {
+        synchronized (NvHTTP.class) {
+            if (xmlPullParserFactory == null) {
+                XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+                factory.setNamespaceAware(true);
+                xmlPullParserFactory = factory;
+            }
+            return xmlPullParserFactory.newPullParser();
+        }
+    }
+
     static String getXmlString(Reader r, String tagname) throws XmlPullParserException, IOException {
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        XmlPullParser xpp = factory.newPullParser();
+        XmlPullParser xpp = newXmlPullParser();
 
         xpp.setInput(r);
         int eventType = xpp.getEventType();
@@ -241,7 +301,7 @@ public class NvHTTP {
         return getXmlString(new StringReader(str), tagname);
     }
     
-    private static void verifyResponseStatus(XmlPullParser xpp) throws GfeHttpResponseException {
+    static void verifyResponseStatus(XmlPullParser xpp) throws GfeHttpResponseException {
         // We use Long.parseLong() because in rare cases GFE can send back a status code of
         // 0xFFFFFFFF, which will cause Integer.parseInt() to throw a NumberFormatException due
         // to exceeding Integer.MAX_VALUE. We'll get the desired error code of -1 by just casting
@@ -259,8 +319,8 @@ public class NvHTTP {
         }
     }
     
-    public String getServerInfo() throws IOException, XmlPullParserException {
-        String resp;
+    public ServerInfo getServerInfo() throws IOException, XmlPullParserException {
+        ServerInfo info;
         
         //
         // TODO: Shield Hub uses HTTP for this and is able to get an accurate PairStatus with HTTP.
@@ -272,7 +332,10 @@ public class NvHTTP {
         if (serverCert != null) {
             try {
                 try {
-                    resp = openHttpConnectionToString(baseUrlHttps + "/serverinfo?"+buildUniqueIdUuidString(), true);
+                    // This will throw an exception if the request came back with a failure status.
+                    // We want this because it will throw us into the HTTP case if the client is unpaired.
+                    info = ServerInfo.parse(openHttpConnectionToString(baseUrlHttps + "/serverinfo?"+buildUniqueIdUuidString(), true));
+                    RecentServerInfo.record(baseUrlHttps, serverCert, info);
                 } catch (SSLHandshakeException e) {
                     // Detect if we failed due to a server cert mismatch
                     if (e.getCause() instanceof CertificateException) {
@@ -284,49 +347,54 @@ public class NvHTTP {
                         throw e;
                     }
                 }
-
-                // This will throw an exception if the request came back with a failure status.
-                // We want this because it will throw us into the HTTP case if the client is unpaired.
-                getServerVersion(resp);
             }
             catch (GfeHttpResponseException e) {
                 if (e.getErrorCode() == 401) {
                     // Cert validation error - fall back to HTTP
-                    return openHttpConnectionToString(baseUrlHttp + "/serverinfo", true);
+                    return ServerInfo.parse(openHttpConnectionToString(baseUrlHttp + "/serverinfo", true));
                 }
 
                 // If it's not a cert validation error, throw it
                 throw e;
             }
 
-            return resp;
+            return info;
         }
         else {
             // No pinned cert, so use HTTP
-            return openHttpConnectionToString(baseUrlHttp + "/serverinfo", true);
+            return ServerInfo.parse(openHttpConnectionToString(baseUrlHttp + "/serverinfo", true));
         }
     }
     
+    // Returns a serverinfo response fetched over HTTPS within the last maxAgeMs
+    // (by any NvHTTP object in this process) or null if there isn't one
+    public ServerInfo getRecentServerInfo(long maxAgeMs) {
+        if (serverCert == null) {
+            return null;
+        }
+
+        return RecentServerInfo.get(baseUrlHttps, serverCert, maxAgeMs);
+    }
+    
     public ComputerDetails getComputerDetails() throws IOException, XmlPullParserException {
         ComputerDetails details = new ComputerDetails();
-        String serverInfo = getServerInfo();
+        ServerInfo serverInfo = getServerInfo();
         
-        details.name = getXmlString(serverInfo, "hostname");
+        details.name = serverInfo.getHostname();
         if (details.name == null || details.name.isEmpty()) {
             details.name = "UNKNOWN";
         }
 
-        details.uuid = getXmlString(serverInfo, "uniqueid");
-        details.macAddress = getXmlString(serverInfo, "mac");
-        details.localAddress = getXmlString(serverInfo, "LocalIP");
+        details.uuid = serverInfo.getUniqueId();
+        details.macAddress = serverInfo.getMacAddress();
+        details.localAddress = serverInfo.getLocalAddress();
 
         // This may be null, but that's okay
-        details.remoteAddress = getXmlString(serverInfo, "ExternalIP");
+        details.remoteAddress = serverInfo.getExternalAddress();
 
-        // This has some extra logic to always report unpaired if the pinned cert isn't there
-        details.pairState = getPairState(serverInfo);
+        details.pairState = serverInfo.getPairState();
         
-        details.runningGameId = getCurrentGame(serverInfo);
+        details.runningGameId = serverInfo.getCurrentGame();
         
         // We could reach it so it's online
         details.state = ComputerDetails.State.ONLINE;
@@ -334,44 +402,30 @@ public class NvHTTP {
         return details;
     }
 
-    // This hack is Android-specific but we do it on all platforms
-    // because it doesn't really matter
-    private OkHttpClient performAndroidTlsHack(OkHttpClient client) {
-        // Doing this each time we create a socket is required
-        // to avoid the SSLv3 fallback that causes connection failures
-        try {
-            SSLContext sc = SSLContext.getInstance("TLS");
-            sc.init(new KeyManager[] { keyManager }, new TrustManager[] { trustManager }, new SecureRandom());
-
-            // TLS 1.2 is not enabled by default prior to Android 5.0, so we'll need a custom
-            // SSLSocketFactory in order to connect to GFE 3.20.4 which requires TLSv1.2 or later.
-            // We don't just always use TLSv12SocketFactory because explicitly specifying TLS versions
-            // prevents later TLS versions from being negotiated even if client and server otherwise
-            // support them.
-            return client.newBuilder().sslSocketFactory(
-                    Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ?
-                            sc.getSocketFactory() : new TLSv12SocketFactory(sc),
-                    trustManager).build();
-        } catch (NoSuchAlgorithmException | KeyManagementException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     // Read timeout should be enabled for any HTTP query that requires no outside action
     // on the GFE server. Examples of queries that DO require outside action are launch, resume, and quit.
     // The initial pair query does require outside action (user entering a PIN) but subsequent pairing
     // queries do not.
     private ResponseBody openHttpConnection(String url, boolean enableReadTimeout) throws IOException {
         Request request = new Request.Builder().url(url).get().build();
-        Response response;
+        Call call;
 
         if (enableReadTimeout) {
-            response = performAndroidTlsHack(httpClientWithReadTimeout).newCall(request).execute();
+            call = httpClientWithReadTimeout.newCall(request);
         }
         else {
-            response = performAndroidTlsHack(httpClient).newCall(request).execute();
+            call = httpClient.newCall(request);
         }
 
+        synchronized (callLock) {
+            if (cancelled) {
+                throw new IOException("Canceled");
+            }
+            activeCall = call;
+        }
+
+        Response response = call.execute();
+
         ResponseBody body = response.body();
         
         if (response.isSuccessful()) {
@@ -415,87 +469,8 @@ public class NvHTTP {
         }
     }
 
-    public String getServerVersion(String serverInfo) throws XmlPullParserException, IOException {
-        return getXmlString(serverInfo, "appversion");
-    }
-
     public PairingManager.PairState getPairState() throws IOException, XmlPullParserException {
-        return getPairState(getServerInfo());
-    }
-
-    public PairingManager.PairState getPairState(String serverInfo) throws IOException, XmlPullParserException {
-        if (!NvHTTP.getXmlString(serverInfo, "PairStatus").equals("1")) {
-            return PairState.NOT_PAIRED;
-        }
-
-        return PairState.PAIRED;
-    }
-    
-    public long getMaxLumaPixelsH264(String serverInfo) throws XmlPullParserException, IOException {
-        String str = getXmlString(serverInfo, "MaxLumaPixelsH264");
-        if (str != null) {
-            return Long.parseLong(str);
-        } else {
-            return 0;
-        }
-    }
-    
-    public long getMaxLumaPixelsHEVC(String serverInfo) throws XmlPullParserException, IOException {
-        String str = getXmlString(serverInfo, "MaxLumaPixelsHEVC");
-        if (str != null) {
-            return Long.parseLong(str);
-        } else {
-            return 0;
-        }
-    }
-
-    // Possible meaning of bits
-    // Bit 0: H.264 Baseline
-    // Bit 1: H.264 High
-    // ----
-    // Bit 8: HEVC Main
-    // Bit 9: HEVC Main10
-    // Bit 10: HEVC Main10 4:4:4
-    // Bit 11: ???
-    public long getServerCodecModeSupport(String serverInfo) throws XmlPullParserException, IOException {
-        String str = getXmlString(serverInfo, "ServerCodecModeSupport");
-        if (str != null) {
-            return Long.parseLong(str);
-        } else {
-            return 0;
-        }
-    }
-    
-    public String getGpuType(String serverInfo) throws XmlPullParserException, IOException {
-        return getXmlString(serverInfo, "gputype");
-    }
-
-    public String getGfeVersion(String serverInfo) throws XmlPullParserException, IOException {
-        return getXmlString(serverInfo, "GfeVersion");
-    }
-    
-    public boolean supports4K(String serverInfo) throws XmlPullParserException, IOException {
-        // Only allow 4K on GFE 3.x
-        String gfeVersionStr = getXmlString(serverInfo, "GfeVersion");
-        if (gfeVersionStr == null || gfeVersionStr.startsWith("2.")) {
-            return false;
-        }
-
-        return true;
-    }
-
-    public int getCurrentGame(String serverInfo) throws IOException, XmlPullParserException {
-        // GFE 2.8 started keeping currentgame set to the last game played. As a result, it no longer
-        // has the semantics that its name would indicate. To contain the effects of this change as much
-        // as possible, we'll force the current game to zero if the server isn't in a streaming session.
-        String serverState = getXmlString(serverInfo, "state");
-        if (serverState != null && serverState.endsWith("_SERVER_BUSY")) {
-            String game = getXmlString(serverInfo, "currentgame");
-            return Integer.parseInt(game);
-        }
-        else {
-            return 0;
-        }
+        return getServerInfo().getPairState();
     }
 
     public NvApp getAppById(int appId) throws IOException, XmlPullParserException {
@@ -527,9 +502,7 @@ public class NvHTTP {
     }
     
     public static LinkedList<NvApp> getAppListByReader(Reader r) throws XmlPullParserException, IOException {
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        XmlPullParser xpp = factory.newPullParser();
+        XmlPullParser xpp = newXmlPullParser();
 
         xpp.setInput(r);
         int eventType = xpp.getEventType();
@@ -615,26 +588,6 @@ public class NvHTTP {
         return resp.byteStream();
     }
     
-    public int getServerMajorVersion(String serverInfo) throws XmlPullParserException, IOException {
-        return getServerAppVersionQuad(serverInfo)[0];
-    }
-    
-    public int[] getServerAppVersionQuad(String serverInfo) throws XmlPullParserException, IOException {
-        String serverVersion = getServerVersion(serverInfo);
-        if (serverVersion == null) {
-            throw new IllegalArgumentException("Missing server version field");
-        }
-        String[] serverVersionSplit = serverVersion.split("\\.");
-        if (serverVersionSplit.length != 4) {
-            throw new IllegalArgumentException("Malformed server version field: "+serverVersion);
-        }
-        int[] ret = new int[serverVersionSplit.length];
-        for (int i = 0; i < ret.length; i++) {
-            ret[i] = Integer.parseInt(serverVersionSplit[i]);
-        }
-        return ret;
-    }
-
     final private static char[] hexArray = "0123456789ABCDEF".toCharArray();
     private static String bytesToHex(byte[] bytes) {
         char[] hexChars = new char[bytes.length * 2];
@@ -679,6 +632,7 @@ public class NvHTTP {
             (context.streamConfig.getAttachedGamepadMask() != 0 ? "&remoteControllersBitmap=" + context.streamConfig.getAttachedGamepadMask() : "") +
             (context.streamConfig.getAttachedGamepadMask() != 0 ? "&gcmap=" + context.streamConfig.getAttachedGamepadMask() : ""),
             false);
+        RecentServerInfo.invalidate(baseUrlHttps);
         String gameSession = getXmlString(xmlStr, "gamesession");
         if (gameSession != null && !gameSession.equals("0")) {
             context.rtspSessionUrl = getXmlString(xmlStr, "sessionUrl0");
@@ -695,6 +649,7 @@ public class NvHTTP {
                 "&rikeyid="+context.riKeyId +
                 "&surroundAudioInfo=" + context.streamConfig.getAudioConfiguration().getSurroundAudioInfo(),
                 false);
+        RecentServerInfo.invalidate(baseUrlHttps);
         String resume = getXmlString(xmlStr, "resume");
         if (Integer.parseInt(resume) != 0) {
             context.rtspSessionUrl = getXmlString(xmlStr, "sessionUrl0");
@@ -707,6 +662,7 @@ public class NvHTTP {
     
     public boolean quitApp() throws IOException, XmlPullParserException {
         String xmlStr = openHttpConnectionToString(baseUrlHttps + "/cancel?" + buildUniqueIdUuidString(), false);
+        RecentServerInfo.invalidate(baseUrlHttps);
         String cancel = getXmlString(xmlStr, "cancel");
         if (Integer.parseInt(cancel) == 0) {
             return false;
@@ -714,7 +670,7 @@ public class NvHTTP {
 
         // Newer GFE versions will just return success even if quitting fails
         // if we're not the original requestor.
-        if (getCurrentGame(getServerInfo()) != 0) {
+        if (getServerInfo().getCurrentGame() != 0) {
             // Generate a synthetic GfeResponseException letting the caller know
             // that they can't kill someone else's stream.
             throw new GfeHttpResponseException(599, "");
@@ -724,7 +680,7 @@ public class NvHTTP {
     }
 
     // Based on example code from https://blog.dev-area.net/2015/08/13/android-4-1-enable-tls-1-1-and-tls-1-2/
-    private static class TLSv12SocketFactory extends SSLSocketFactory {
+    static class TLSv12SocketFactory extends SSLSocketFactory {
         private SSLSocketFactory internalSSLSocketFactory;
 
         public TLSv12SocketFactory(SSLContext context) {
@@ -0,0 +1,52 @@
+package com.limelight.nvstream.http;
+
+import android.os.SystemClock;
+
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+
+// Process-wide record of the last serverinfo response fetched over HTTPS from each host.
+// The computer manager polls hosts every few seconds, so a stream launch right after a
+// poll can use the result instead of asking again. Only responses validated against a
+// pinned certificate are kept, because pair state is only accurate over HTTPS.
+class RecentServerInfo {
+    private static final HashMap<String, Entry> entries = new HashMap<>();
+
+    private static class Entry {
+        final ServerInfo serverInfo;
+        final X509Certificate serverCert;
+        final long fetchTime;
+
+        Entry(ServerInfo serverInfo, X509Certificate serverCert, long fetchTime) {
+            this.serverInfo = serverInfo;
+            this.serverCert = serverCert;
+            this.fetchTime = fetchTime;
+        }
+    }
+
+    static void record(String baseUrl, X509Certificate serverCert, ServerInfo serverInfo) {
+        synchronized (entries) {
+            entries.put(baseUrl, new Entry(serverInfo, serverCert, SystemClock.elapsedRealtime()));
+        }
+    }
+
+    // Returns null if we have nothing for this host and certificate within maxAgeMs
+    static ServerInfo get(String baseUrl, X509Certificate serverCert, long maxAgeMs) {
+        synchronized (entries) {
+            Entry entry = entries.get(baseUrl);
+            if (entry == null || !entry.serverCert.equals(serverCert) ||
+                    SystemClock.elapsedRealtime() - entry.fetchTime > maxAgeMs) {
+                return null;
+            }
+
+            return entry.serverInfo;
+        }
+    }
+
+    // Called when we've changed the host's state (like launching or quitting an app)
+    static void invalidate(String baseUrl) {
+        synchronized (entries) {
+            entries.remove(baseUrl);
+        }
+    }
+}
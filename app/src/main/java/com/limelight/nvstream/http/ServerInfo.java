@@ -0,0 +1,209 @@
+package com.limelight.nvstream.http;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+// Values from a /serverinfo response, parsed in a single pass over the document
+public class ServerInfo {
+    private String hostname;
+    private String uniqueId;
+    private String macAddress;
+    private String localAddress;
+    private String externalAddress;
+    private String appVersion;
+    private String gfeVersion;
+    private String gpuType;
+    private String pairStatus;
+    private String state;
+    private String currentGame;
+    private String maxLumaPixelsH264;
+    private String maxLumaPixelsHEVC;
+    private String serverCodecModeSupport;
+
+    private ServerInfo() {}
+
+    // Throws GfeHttpResponseException if the response has a failure status
+    public static ServerInfo parse(String xml) throws XmlPullParserException, IOException {
+        ServerInfo info = new ServerInfo();
+        XmlPullParser xpp = NvHTTP.newXmlPullParser();
+
+        xpp.setInput(new StringReader(xml));
+        int eventType = xpp.getEventType();
+        String currentTag = null;
+
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            switch (eventType) {
+            case (XmlPullParser.START_TAG):
+                currentTag = xpp.getName();
+                if (currentTag.equals("root")) {
+                    NvHTTP.verifyResponseStatus(xpp);
+                }
+                break;
+            case (XmlPullParser.END_TAG):
+                currentTag = null;
+                break;
+            case (XmlPullParser.TEXT):
+                if (currentTag != null) {
+                    info.setField(currentTag, xpp.getText());
+                }
+                break;
+            }
+            eventType = xpp.next();
+        }
+
+        return info;
+    }
+
+    // Only the first occurrence of each tag is used
+    private void setField(String tag, String text) {
+        switch (tag) {
+            case "hostname":
+                if (hostname == null) hostname = text;
+                break;
+            case "uniqueid":
+                if (uniqueId == null) uniqueId = text;
+                break;
+            case "mac":
+                if (macAddress == null) macAddress = text;
+                break;
+            case "LocalIP":
+                if (localAddress == null) localAddress = text;
+                break;
+            case "ExternalIP":
+                if (externalAddress == null) externalAddress = text;
+                break;
+            case "appversion":
+                if (appVersion == null) appVersion = text;
+                break;
+            case "GfeVersion":
+                if (gfeVersion == null) gfeVersion = text;
+                break;
+            case "gputype":
+                if (gpuType == null) gpuType = text;
+                break;
+            case "PairStatus":
+                if (pairStatus == null) pairStatus = text;
+                break;
+            case "state":
+                if (state == null) state = text;
+                break;
+            case "currentgame":
+                if (currentGame == null) currentGame = text;
+                break;
+            case "MaxLumaPixelsH264":
+                if (maxLumaPixelsH264 == null) maxLumaPixelsH264 = text;
+                break;
+            case "MaxLumaPixelsHEVC":
+                if (maxLumaPixelsHEVC == null) maxLumaPixelsHEVC = text;
+                break;
+            case "ServerCodecModeSupport":
+                if (serverCodecModeSupport == null) serverCodecModeSupport = text;
+                break;
+        }
+    }
+
+    public String getHostname() {
+        return hostname;
+    }
+
+    public String getUniqueId() {
+        return uniqueId;
+    }
+
+    public String getMacAddress() {
+        return macAddress;
+    }
+
+    public String getLocalAddress() {
+        return localAddress;
+    }
+
+    // This may be null
+    public String getExternalAddress() {
+        return externalAddress;
+    }
+
+    public String getServerVersion() {
+        return appVersion;
+    }
+
+    // May be missing for older servers
+    public String getGfeVersion() {
+        return gfeVersion;
+    }
+
+    public String getGpuType() {
+        return gpuType;
+    }
+
+    public PairingManager.PairState getPairState() {
+        if (!"1".equals(pairStatus)) {
+            return PairingManager.PairState.NOT_PAIRED;
+        }
+
+        return PairingManager.PairState.PAIRED;
+    }
+
+    public int getCurrentGame() {
+        // GFE 2.8 started keeping currentgame set to the last game played. As a result, it no longer
+        // has the semantics that its name would indicate. To contain the effects of this change as much
+        // as possible, we'll force the current game to zero if the server isn't in a streaming session.
+        if (state != null && state.endsWith("_SERVER_BUSY")) {
+            return Integer.parseInt(currentGame);
+        }
+        else {
+            return 0;
+        }
+    }
+
+    public long getMaxLumaPixelsH264() {
+        return maxLumaPixelsH264 != null ? Long.parseLong(maxLumaPixelsH264) : 0;
+    }
+
+    public long getMaxLumaPixelsHEVC() {
+        return maxLumaPixelsHEVC != null ? Long.parseLong(maxLumaPixelsHEVC) : 0;
+    }
+
+    // Possible meaning of bits
+    // Bit 0: H.264 Baseline
+    // Bit 1: H.264 High
+    // ----
+    // Bit 8: HEVC Main
+    // Bit 9: HEVC Main10
+    // Bit 10: HEVC Main10 4:4:4
+    // Bit 11: ???
+    public long getServerCodecModeSupport() {
+        return serverCodecModeSupport != null ? Long.parseLong(serverCodecModeSupport) : 0;
+    }
+
+    public boolean supports4K() {
+        // Only allow 4K on GFE 3.x
+        if (gfeVersion == null || gfeVersion.startsWith("2.")) {
+            return false;
+        }
+
+        return true;
+    }
+
+    public int getServerMajorVersion() {
+        return getServerAppVersionQuad()[0];
+    }
+
+    public int[] getServerAppVersionQuad() {
+        if (appVersion == null) {
+            throw new IllegalArgumentException("Missing server version field");
+        }
+        String[] serverVersionSplit = appVersion.split("\\.");
+        if (serverVersionSplit.length != 4) {
+            throw new IllegalArgumentException("Malformed server version field: "+appVersion);
+        }
+        int[] ret = new int[serverVersionSplit.length];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = Integer.parseInt(serverVersionSplit[i]);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,286 @@
+package com.limelight.nvstream.input;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Batches input events from the UI and controller threads into a preallocated ring
+// of primitive records. A dedicated sender thread drains the ring, coalesces records
+// that are superseded by later ones, and submits each batch with a single JNI call.
+//
+// Producers claim slots with a CAS on the tail and publish them by advancing the
+// slot's sequence number, so enqueuing never blocks or allocates.
+public class InputPipeline {
+    // Keep these in sync with simplejni.c
+    static final short RECORD_MOUSE_MOVE = 1;
+    static final short RECORD_MOUSE_POSITION = 2;
+    static final short RECORD_MOUSE_BUTTON = 3;
+    static final short RECORD_MULTI_CONTROLLER = 4;
+    static final short RECORD_CONTROLLER = 5;
+    static final short RECORD_KEYBOARD = 6;
+    static final short RECORD_SCROLL = 7;
+    static final short RECORD_HIGH_RES_SCROLL = 8;
+    static final int RECORD_SIZE = 10;
+
+    // Set on records that must be sent individually rather than coalesced
+    static final short RECORD_FLAG_NO_COALESCE = 0x100;
+
+    // Must be a power of 2
+    private static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+
+    // How long a producer waits for the sender when the ring is full before dropping
+    // its record. A full ring means the sender is badly stalled, and the UI thread
+    // must not spin behind it indefinitely.
+    private static final long RING_FULL_YIELD_NS = 1000000;
+    private static final long RING_FULL_TIMEOUT_NS = 20000000;
+    private static final long RING_FULL_PARK_NS = 100000;
+
+    private final short[] records = new short[CAPACITY * RECORD_SIZE];
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final AtomicLong tail = new AtomicLong();
+
+    // Only accessed by the sender thread
+    private final short[] batch = new short[CAPACITY * RECORD_SIZE];
+    private long head;
+
+    private Thread senderThread;
+    private volatile boolean running;
+    private volatile boolean senderWaiting;
+
+    public InputPipeline() {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public void start() {
+        running = true;
+
+        senderThread = new Thread() {
+            @Override
+            public void run() {
+                while (running) {
+                    int count = drainBatch();
+                    if (count > 0) {
+                        MoonBridge.sendInputBatch(batch, count);
+                    }
+                    else {
+                        // Producers will unpark us if they see we're waiting. We must check
+                        // for new records after announcing that to avoid a lost wakeup.
+                        senderWaiting = true;
+                        if (running && !hasPendingRecord()) {
+                            LockSupport.park(this);
+                        }
+                        senderWaiting = false;
+                    }
+                }
+
+                // Send anything queued before we were stopped, like the last key and
+                // button releases, since the connection is torn down right after this
+                int count;
+                while ((count = drainBatch()) > 0) {
+                    MoonBridge.sendInputBatch(batch, count);
+                }
+            }
+        };
+        senderThread.setName("Input - Sender");
+        senderThread.setPriority(Thread.NORM_PRIORITY + 2);
+        senderThread.start();
+    }
+
+    public void stop() {
+        running = false;
+
+        if (senderThread != null) {
+            LockSupport.unpark(senderThread);
+            try {
+                senderThread.join();
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    private boolean enqueue(short type, short a0, short a1, short a2, short a3,
+                            short a4, short a5, short a6, short a7, short a8) {
+        long pos;
+        long fullSinceNs = 0;
+
+        for (;;) {
+            if (!running) {
+                return false;
+            }
+
+            pos = tail.get();
+            long diff = sequences.get((int)(pos & MASK)) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            }
+            else if (diff < 0) {
+                // The ring is full, so give the sender a chance to catch up
+                long nowNs = System.nanoTime();
+                if (fullSinceNs == 0) {
+                    fullSinceNs = nowNs;
+                }
+
+                if (nowNs - fullSinceNs < RING_FULL_YIELD_NS) {
+                    Thread.yield();
+                }
+                else if (nowNs - fullSinceNs < RING_FULL_TIMEOUT_NS) {
+                    LockSupport.parkNanos(RING_FULL_PARK_NS);
+                }
+                else {
+                    LimeLog.warning("Input ring is full. Dropping input record of type: "+type);
+                    return false;
+                }
+            }
+        }
+
+        int slot = (int)(pos & MASK);
+        int i = slot * RECORD_SIZE;
+        records[i] = type;
+        records[i + 1] = a0;
+        records[i + 2] = a1;
+        records[i + 3] = a2;
+        records[i + 4] = a3;
+        records[i + 5] = a4;
+        records[i + 6] = a5;
+        records[i + 7] = a6;
+        records[i + 8] = a7;
+        records[i + 9] = a8;
+
+        // Publish the record to the sender thread
+        sequences.set(slot, pos + 1);
+
+        if (senderWaiting) {
+            LockSupport.unpark(senderThread);
+        }
+
+        return true;
+    }
+
+    private boolean hasPendingRecord() {
+        return sequences.get((int)(head & MASK)) == head + 1;
+    }
+
+    private int drainBatch() {
+        int count = 0;
+
+        while (count < CAPACITY && hasPendingRecord()) {
+            int slot = (int)(head & MASK);
+            int src = slot * RECORD_SIZE;
+            int prev = (count - 1) * RECORD_SIZE;
+
+            if (count == 0 || !coalesce(src, prev)) {
+                System.arraycopy(records, src, batch, count * RECORD_SIZE, RECORD_SIZE);
+                count++;
+            }
+
+            // Release the slot back to producers
+            sequences.set(slot, head + CAPACITY);
+            head++;
+        }
+
+        return count;
+    }
+
+    // Attempts to merge the record at src into the batched record at prev
+    private boolean coalesce(int src, int prev) {
+        short type = records[src];
+        if (batch[prev] != type || (type & RECORD_FLAG_NO_COALESCE) != 0) {
+            return false;
+        }
+
+        switch (type) {
+            case RECORD_MOUSE_MOVE:
+                // Relative motion can be summed as long as it fits
+                int deltaX = batch[prev + 1] + records[src + 1];
+                int deltaY = batch[prev + 2] + records[src + 2];
+                if (deltaX != (short)deltaX || deltaY != (short)deltaY) {
+                    return false;
+                }
+                batch[prev + 1] = (short)deltaX;
+                batch[prev + 2] = (short)deltaY;
+                return true;
+
+            case RECORD_MOUSE_POSITION:
+                // The newer absolute position supersedes the older one
+                System.arraycopy(records, src, batch, prev, RECORD_SIZE);
+                return true;
+
+            case RECORD_MULTI_CONTROLLER:
+                // Only analog changes may be superseded. Merging records with different
+                // buttons or gamepad masks could swallow a quick press and release.
+                if (batch[prev + 1] != records[src + 1] ||
+                        batch[prev + 2] != records[src + 2] ||
+                        batch[prev + 3] != records[src + 3]) {
+                    return false;
+                }
+                System.arraycopy(records, src, batch, prev, RECORD_SIZE);
+                return true;
+
+            case RECORD_CONTROLLER:
+                if (batch[prev + 1] != records[src + 1]) {
+                    return false;
+                }
+                System.arraycopy(records, src, batch, prev, RECORD_SIZE);
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    public boolean sendMouseMove(short deltaX, short deltaY, boolean coalesce) {
+        return enqueue(coalesce ? RECORD_MOUSE_MOVE : (short)(RECORD_MOUSE_MOVE | RECORD_FLAG_NO_COALESCE),
+                deltaX, deltaY,
+                (short)0, (short)0, (short)0, (short)0, (short)0, (short)0, (short)0);
+    }
+
+    public boolean sendMousePosition(short x, short y, short referenceWidth, short referenceHeight, boolean coalesce) {
+        return enqueue(coalesce ? RECORD_MOUSE_POSITION : (short)(RECORD_MOUSE_POSITION | RECORD_FLAG_NO_COALESCE),
+                x, y, referenceWidth, referenceHeight,
+                (short)0, (short)0, (short)0, (short)0, (short)0);
+    }
+
+    public boolean sendMouseButton(byte buttonEvent, byte mouseButton) {
+        return enqueue(RECORD_MOUSE_BUTTON, buttonEvent, mouseButton,
+                (short)0, (short)0, (short)0, (short)0, (short)0, (short)0, (short)0);
+    }
+
+    public boolean sendMultiControllerInput(short controllerNumber,
+                                            short activeGamepadMask, short buttonFlags,
+                                            byte leftTrigger, byte rightTrigger,
+                                            short leftStickX, short leftStickY,
+                                            short rightStickX, short rightStickY) {
+        return enqueue(RECORD_MULTI_CONTROLLER, controllerNumber, activeGamepadMask, buttonFlags,
+                leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
+    }
+
+    public boolean sendControllerInput(short buttonFlags,
+                                       byte leftTrigger, byte rightTrigger,
+                                       short leftStickX, short leftStickY,
+                                       short rightStickX, short rightStickY) {
+        return enqueue(RECORD_CONTROLLER, buttonFlags, leftTrigger, rightTrigger,
+                leftStickX, leftStickY, rightStickX, rightStickY, (short)0, (short)0);
+    }
+
+    public boolean sendKeyboardInput(short keyMap, byte keyDirection, byte modifier) {
+        return enqueue(RECORD_KEYBOARD, keyMap, keyDirection, modifier,
+                (short)0, (short)0, (short)0, (short)0, (short)0, (short)0);
+    }
+
+    public boolean sendMouseScroll(byte scrollClicks) {
+        return enqueue(RECORD_SCROLL, scrollClicks,
+                (short)0, (short)0, (short)0, (short)0, (short)0, (short)0, (short)0, (short)0);
+    }
+
+    public boolean sendMouseHighResScroll(short scrollAmount) {
+        return enqueue(RECORD_HIGH_RES_SCROLL, scrollAmount,
+                (short)0, (short)0, (short)0, (short)0, (short)0, (short)0, (short)0, (short)0);
+    }
+}
@@ -1,5 +1,7 @@
 package com.limelight.nvstream.jni;
 
+import java.nio.ByteBuffer;
+
 import com.limelight.nvstream.NvConnectionListener;
 import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
@@ -31,6 +33,8 @@ public class MoonBridge {
     public static final int CAPABILITY_REFERENCE_FRAME_INVALIDATION_AVC = 2;
     public static final int CAPABILITY_REFERENCE_FRAME_INVALIDATION_HEVC = 4;
 
+    public static final int AUDIO_CAPABILITY_DIRECT_BUFFER = 1;
+
     public static final int DR_OK = 0;
     public static final int DR_NEED_IDR = -1;
 
@@ -174,6 +178,15 @@ public class MoonBridge {
         }
     }
 
+    public static int bridgeArGetCapabilities() {
+        if (audioRenderer != null) {
+            return audioRenderer.getCapabilities();
+        }
+        else {
+            return 0;
+        }
+    }
+
     public static void bridgeArStart() {
         if (audioRenderer != null) {
             audioRenderer.start();
@@ -291,6 +304,10 @@ public class MoonBridge {
 
     public static native void sendMouseHighResScroll(short scrollAmount);
 
+    // Sends the first recordCount input records from the provided array. See InputPipeline
+    // for the record layout.
+    public static native void sendInputBatch(short[] records, int recordCount);
+
     public static native String getStageName(int stage);
 
     public static native String findExternalAddressIP4(String stunHostName, int stunPort);
@@ -299,6 +316,27 @@ public class MoonBridge {
 
     public static native int getPendingVideoFrames();
 
+    // The following are only valid for audio renderers with AUDIO_CAPABILITY_DIRECT_BUFFER
+    // between their start() and cleanup() calls.
+
+    // Returns the direct buffer containing all slots of the decoded audio ring
+    public static native ByteBuffer getAudioRingBuffer();
+
+    public static native int getAudioRingSlotSize();
+
+    // Waits for a decoded frame, skipping the oldest frames if more than maxQueuedFrames
+    // are waiting. Returns (length in bytes << 8) | slot index, -1 on timeout, or -2 if
+    // audio is stopping. The frame must be released before waiting for the next one.
+    public static native int waitForAudioFrame(int timeoutMs, int maxQueuedFrames);
+
+    public static native void releaseAudioFrame();
+
+    // Copies the picture data of the decode unit currently being submitted into the
+    // provided direct buffer at the specified offset. This may only be called from
+    // within VideoDecoderRenderer.submitDecodeUnit() for BUFFER_TYPE_PICDATA. Returns
+    // the number of bytes written or -1 if the buffer is not direct or too small.
+    public static native int copyPicData(ByteBuffer buffer, int offset);
+
     public static native int testClientConnectivity(String testServerHostName, int referencePort, int testFlags);
 
     public static native int getPortFlagsFromStage(int stage);
@@ -501,6 +501,21 @@ public class StreamSettings extends Activity {
                 });
             }
 
+            // Remove frame pacing preference for devices below Lollipop, since they
+            // can't schedule frame presentation times
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                PreferenceCategory category =
+                        (PreferenceCategory) findPreference("category_advanced_settings");
+                category.removePreference(findPreference("frame_pacing"));
+            }
+
+            // Remove asynchronous decoder preference for devices below Marshmallow
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+                PreferenceCategory category =
+                        (PreferenceCategory) findPreference("category_advanced_settings");
+                category.removePreference(findPreference("checkbox_async_decoder"));
+            }
+
             // Remove HDR preference for devices below Nougat
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
                 LimeLog.info("Excluding HDR toggle based on OS");
@@ -1,7 +1,9 @@
 #include <jni.h>
 
 #include <pthread.h>
+#include <stdlib.h>
 #include <string.h>
+#include <time.h>
 
 #include <Limelight.h>
 
@@ -25,6 +27,7 @@ static jmethodID BridgeArStartMethod;
 static jmethodID BridgeArStopMethod;
 static jmethodID BridgeArCleanupMethod;
 static jmethodID BridgeArPlaySampleMethod;
+static jmethodID BridgeArGetCapabilitiesMethod;
 static jmethodID BridgeClStageStartingMethod;
 static jmethodID BridgeClStageCompleteMethod;
 static jmethodID BridgeClStageFailedMethod;
@@ -35,6 +38,27 @@ static jmethodID BridgeClConnectionStatusUpdateMethod;
 static jbyteArray DecodedFrameBuffer;
 static jshortArray DecodedAudioBuffer;
 
+// Must match MoonBridge.AUDIO_CAPABILITY_DIRECT_BUFFER
+#define AUDIO_CAPABILITY_DIRECT_BUFFER 0x1
+
+// In direct buffer mode, audio is decoded into this ring of fixed size slots and
+// drained by the renderer's own thread without any upcalls from the audio thread.
+// The read and write counters only increase, and slot N is at N % AUDIO_RING_SLOTS.
+#define AUDIO_RING_SLOTS 16
+static int UseDirectAudioBuffer;
+static char* AudioRingBuffer;
+static jobject AudioRingByteBuffer;
+static int AudioRingSlotSize;
+static int AudioRingSlotLengths[AUDIO_RING_SLOTS];
+static unsigned int AudioRingReadIndex;
+static unsigned int AudioRingWriteIndex;
+static int AudioRingStopping;
+static pthread_mutex_t AudioRingLock = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t AudioRingCond = PTHREAD_COND_INITIALIZER;
+
+// Only valid on the decoder thread while a picture data upcall is in progress
+static PLENTRY PendingPicDataEntries;
+
 void DetachThread(void* context) {
     (*JVM)->DetachCurrentThread(JVM);
 }
@@ -85,6 +109,7 @@ Java_com_limelight_nvstream_jni_MoonBridge_init(JNIEnv *env, jclass clazz) {
     BridgeArStopMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArStop", "()V");
     BridgeArCleanupMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArCleanup", "()V");
     BridgeArPlaySampleMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArPlaySample", "([S)V");
+    BridgeArGetCapabilitiesMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArGetCapabilities", "()I");
     BridgeClStageStartingMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeClStageStarting", "(I)V");
     BridgeClStageCompleteMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeClStageComplete", "(I)V");
     BridgeClStageFailedMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeClStageFailed", "(II)V");
@@ -107,7 +132,8 @@ int BridgeDrSetup(int videoFormat, int width, int height, int redrawRate, void*
         return err;
     }
 
-    // Use a 32K frame buffer that will increase if needed
+    // Use a 32K parameter set buffer that will increase if needed. Picture data
+    // bypasses this buffer and is copied directly into the decoder's input buffer.
     DecodedFrameBuffer = (*env)->NewGlobalRef(env, (*env)->NewByteArray(env, 32768));
 
     return 0;
@@ -137,20 +163,20 @@ int BridgeDrSubmitDecodeUnit(PDECODE_UNIT decodeUnit) {
     JNIEnv* env = GetThreadEnv();
     int ret;
 
-    // Increase the size of our frame data buffer if our frame won't fit
-    if ((*env)->GetArrayLength(env, DecodedFrameBuffer) < decodeUnit->fullLength) {
-        (*env)->DeleteGlobalRef(env, DecodedFrameBuffer);
-        DecodedFrameBuffer = (*env)->NewGlobalRef(env, (*env)->NewByteArray(env, decodeUnit->fullLength));
-    }
-
     PLENTRY currentEntry;
-    int offset;
+    int picDataLength;
 
     currentEntry = decodeUnit->bufferList;
-    offset = 0;
+    picDataLength = 0;
     while (currentEntry != NULL) {
         // Submit parameter set NALUs separately from picture data
         if (currentEntry->bufferType != BUFFER_TYPE_PICDATA) {
+            // Increase the size of our parameter set buffer if this NALU won't fit
+            if ((*env)->GetArrayLength(env, DecodedFrameBuffer) < currentEntry->length) {
+                (*env)->DeleteGlobalRef(env, DecodedFrameBuffer);
+                DecodedFrameBuffer = (*env)->NewGlobalRef(env, (*env)->NewByteArray(env, currentEntry->length));
+            }
+
             // Use the beginning of the buffer each time since this is a separate
             // invocation of the decoder each time.
             (*env)->SetByteArrayRegion(env, DecodedFrameBuffer, 0, currentEntry->length, (jbyte*)currentEntry->data);
@@ -169,17 +195,20 @@ int BridgeDrSubmitDecodeUnit(PDECODE_UNIT decodeUnit) {
             }
         }
         else {
-            (*env)->SetByteArrayRegion(env, DecodedFrameBuffer, offset, currentEntry->length, (jbyte*)currentEntry->data);
-            offset += currentEntry->length;
+            picDataLength += currentEntry->length;
         }
 
         currentEntry = currentEntry->next;
     }
 
+    // Picture data is not copied into a Java array. Instead, the renderer calls
+    // copyPicData() during this upcall to write it straight into its input buffer.
+    PendingPicDataEntries = decodeUnit->bufferList;
     ret = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeDrSubmitDecodeUnitMethod,
-                                       DecodedFrameBuffer, offset, BUFFER_TYPE_PICDATA,
+                                       NULL, picDataLength, BUFFER_TYPE_PICDATA,
                                        decodeUnit->frameNumber,
                                        (jlong)decodeUnit->receiveTimeMs, (jlong)decodeUnit->enqueueTimeMs);
+    PendingPicDataEntries = NULL;
     if ((*env)->ExceptionCheck(env)) {
         // We will crash here
         (*JVM)->DetachCurrentThread(JVM);
@@ -190,6 +219,36 @@ int BridgeDrSubmitDecodeUnit(PDECODE_UNIT decodeUnit) {
     }
 }
 
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_copyPicData(JNIEnv *env, jclass clazz, jobject buffer, jint offset) {
+    char* bufferAddress = (*env)->GetDirectBufferAddress(env, buffer);
+    jlong bufferCapacity = (*env)->GetDirectBufferCapacity(env, buffer);
+    PLENTRY currentEntry;
+    jint length;
+
+    // Non-direct buffers have no stable address we can write to
+    if (bufferAddress == NULL || bufferCapacity < 0) {
+        return -1;
+    }
+
+    currentEntry = PendingPicDataEntries;
+    length = 0;
+    while (currentEntry != NULL) {
+        if (currentEntry->bufferType == BUFFER_TYPE_PICDATA) {
+            if (offset + length + currentEntry->length > bufferCapacity) {
+                return -1;
+            }
+
+            memcpy(bufferAddress + offset + length, currentEntry->data, currentEntry->length);
+            length += currentEntry->length;
+        }
+
+        currentEntry = currentEntry->next;
+    }
+
+    return length;
+}
+
 int BridgeArInit(int audioConfiguration, POPUS_MULTISTREAM_CONFIGURATION opusConfig, void* context, int flags) {
     JNIEnv* env = GetThreadEnv();
     int err;
@@ -212,8 +271,25 @@ int BridgeArInit(int audioConfiguration, POPUS_MULTISTREAM_CONFIGURATION opusCon
             return -1;
         }
 
-        // We know ahead of time what the buffer size will be for decoded audio, so pre-allocate it
-        DecodedAudioBuffer = (*env)->NewGlobalRef(env, (*env)->NewShortArray(env, opusConfig->channelCount * opusConfig->samplesPerFrame));
+        UseDirectAudioBuffer = ((*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeArGetCapabilitiesMethod) &
+                AUDIO_CAPABILITY_DIRECT_BUFFER) != 0;
+        if (UseDirectAudioBuffer) {
+            AudioRingSlotSize = opusConfig->channelCount * opusConfig->samplesPerFrame * sizeof(short);
+            AudioRingBuffer = malloc(AudioRingSlotSize * AUDIO_RING_SLOTS);
+            if (AudioRingBuffer == NULL) {
+                opus_multistream_decoder_destroy(Decoder);
+                (*env)->CallStaticVoidMethod(env, GlobalBridgeClass, BridgeArCleanupMethod);
+                return -1;
+            }
+            AudioRingByteBuffer = (*env)->NewGlobalRef(env, (*env)->NewDirectByteBuffer(env, AudioRingBuffer,
+                                                                                  AudioRingSlotSize * AUDIO_RING_SLOTS));
+            AudioRingReadIndex = AudioRingWriteIndex = 0;
+            AudioRingStopping = 0;
+        }
+        else {
+            // We know ahead of time what the buffer size will be for decoded audio, so pre-allocate it
+            DecodedAudioBuffer = (*env)->NewGlobalRef(env, (*env)->NewShortArray(env, opusConfig->channelCount * opusConfig->samplesPerFrame));
+        }
     }
 
     return err;
@@ -228,6 +304,12 @@ void BridgeArStart(void) {
 void BridgeArStop(void) {
     JNIEnv* env = GetThreadEnv();
 
+    // Wake the renderer's thread so it can exit
+    pthread_mutex_lock(&AudioRingLock);
+    AudioRingStopping = 1;
+    pthread_cond_broadcast(&AudioRingCond);
+    pthread_mutex_unlock(&AudioRingLock);
+
     (*env)->CallStaticVoidMethod(env, GlobalBridgeClass, BridgeArStopMethod);
 }
 
@@ -236,13 +318,121 @@ void BridgeArCleanup() {
 
     opus_multistream_decoder_destroy(Decoder);
 
-    (*env)->DeleteGlobalRef(env, DecodedAudioBuffer);
-
     (*env)->CallStaticVoidMethod(env, GlobalBridgeClass, BridgeArCleanupMethod);
+
+    // The renderer is done with the ring buffer after cleanup
+    if (UseDirectAudioBuffer) {
+        (*env)->DeleteGlobalRef(env, AudioRingByteBuffer);
+        AudioRingByteBuffer = NULL;
+        free(AudioRingBuffer);
+        AudioRingBuffer = NULL;
+    }
+    else {
+        (*env)->DeleteGlobalRef(env, DecodedAudioBuffer);
+    }
+}
+
+static void DecodeSampleToRing(char* sampleData, int sampleLength) {
+    unsigned int slot;
+    int decodeLen;
+
+    pthread_mutex_lock(&AudioRingLock);
+    if (AudioRingWriteIndex - AudioRingReadIndex >= AUDIO_RING_SLOTS) {
+        // The renderer isn't keeping up, so drop this sample rather than wait
+        pthread_mutex_unlock(&AudioRingLock);
+        return;
+    }
+    slot = AudioRingWriteIndex % AUDIO_RING_SLOTS;
+    pthread_mutex_unlock(&AudioRingLock);
+
+    // The slot isn't visible to the renderer until we advance the write index,
+    // so we can decode into it without holding the lock.
+    decodeLen = opus_multistream_decode(Decoder,
+                                        (const unsigned char*)sampleData,
+                                        sampleLength,
+                                        (opus_int16*)(AudioRingBuffer + (slot * AudioRingSlotSize)),
+                                        OpusConfig.samplesPerFrame,
+                                        0);
+    if (decodeLen <= 0) {
+        return;
+    }
+
+    pthread_mutex_lock(&AudioRingLock);
+    AudioRingSlotLengths[slot] = decodeLen * OpusConfig.channelCount * sizeof(short);
+    AudioRingWriteIndex++;
+    pthread_cond_signal(&AudioRingCond);
+    pthread_mutex_unlock(&AudioRingLock);
+}
+
+JNIEXPORT jobject JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_getAudioRingBuffer(JNIEnv *env, jclass clazz) {
+    return AudioRingByteBuffer;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_getAudioRingSlotSize(JNIEnv *env, jclass clazz) {
+    return AudioRingSlotSize;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_waitForAudioFrame(JNIEnv *env, jclass clazz, jint timeoutMs, jint maxQueuedFrames) {
+    struct timespec deadline;
+    jint ret;
+
+    clock_gettime(CLOCK_REALTIME, &deadline);
+    deadline.tv_sec += timeoutMs / 1000;
+    deadline.tv_nsec += (timeoutMs % 1000) * 1000000L;
+    if (deadline.tv_nsec >= 1000000000L) {
+        deadline.tv_sec++;
+        deadline.tv_nsec -= 1000000000L;
+    }
+
+    pthread_mutex_lock(&AudioRingLock);
+    while (AudioRingReadIndex == AudioRingWriteIndex && !AudioRingStopping) {
+        if (pthread_cond_timedwait(&AudioRingCond, &AudioRingLock, &deadline) != 0) {
+            break;
+        }
+    }
+
+    if (AudioRingStopping) {
+        ret = -2;
+    }
+    else if (AudioRingReadIndex == AudioRingWriteIndex) {
+        ret = -1;
+    }
+    else {
+        // Bound latency by skipping the oldest frames if we've fallen behind
+        while (AudioRingWriteIndex - AudioRingReadIndex > (unsigned int)maxQueuedFrames) {
+            AudioRingReadIndex++;
+        }
+
+        ret = (AudioRingSlotLengths[AudioRingReadIndex % AUDIO_RING_SLOTS] << 8) |
+              (AudioRingReadIndex % AUDIO_RING_SLOTS);
+    }
+    pthread_mutex_unlock(&AudioRingLock);
+
+    return ret;
+}
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_releaseAudioFrame(JNIEnv *env, jclass clazz) {
+    pthread_mutex_lock(&AudioRingLock);
+    if (AudioRingReadIndex != AudioRingWriteIndex) {
+        AudioRingReadIndex++;
+    }
+    pthread_mutex_unlock(&AudioRingLock);
 }
 
 void BridgeArDecodeAndPlaySample(char* sampleData, int sampleLength) {
-    JNIEnv* env = GetThreadEnv();
+    JNIEnv* env;
+
+    if (UseDirectAudioBuffer) {
+        // No upcall is needed for direct buffer renderers
+        DecodeSampleToRing(sampleData, sampleLength);
+        return;
+    }
+
+    env = GetThreadEnv();
 
     jshort* decodedData = (*env)->GetPrimitiveArrayCritical(env, DecodedAudioBuffer, NULL);
 
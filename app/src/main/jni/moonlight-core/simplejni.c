@@ -54,6 +54,65 @@ Java_com_limelight_nvstream_jni_MoonBridge_sendMouseHighResScroll(JNIEnv *env, j
     LiSendHighResScrollEvent(scrollAmount);
 }
 
+// Keep these in sync with InputPipeline.java
+#define INPUT_RECORD_MOUSE_MOVE         1
+#define INPUT_RECORD_MOUSE_POSITION     2
+#define INPUT_RECORD_MOUSE_BUTTON       3
+#define INPUT_RECORD_MULTI_CONTROLLER   4
+#define INPUT_RECORD_CONTROLLER         5
+#define INPUT_RECORD_KEYBOARD           6
+#define INPUT_RECORD_SCROLL             7
+#define INPUT_RECORD_HIGH_RES_SCROLL    8
+#define INPUT_RECORD_SIZE               10
+#define INPUT_RECORD_TYPE_MASK          0xFF
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_sendInputBatch(JNIEnv *env, jclass clazz, jshortArray records, jint recordCount) {
+    jshort* recordsBase;
+    jshort* record;
+    int i;
+
+    recordsBase = (*env)->GetShortArrayElements(env, records, NULL);
+    if (recordsBase == NULL) {
+        return;
+    }
+
+    for (i = 0, record = recordsBase; i < recordCount; i++, record += INPUT_RECORD_SIZE) {
+        switch (record[0] & INPUT_RECORD_TYPE_MASK) {
+        case INPUT_RECORD_MOUSE_MOVE:
+            LiSendMouseMoveEvent(record[1], record[2]);
+            break;
+        case INPUT_RECORD_MOUSE_POSITION:
+            LiSendMousePositionEvent(record[1], record[2], record[3], record[4]);
+            break;
+        case INPUT_RECORD_MOUSE_BUTTON:
+            LiSendMouseButtonEvent((char)record[1], (char)record[2]);
+            break;
+        case INPUT_RECORD_MULTI_CONTROLLER:
+            LiSendMultiControllerEvent(record[1], record[2], record[3],
+                (unsigned char)record[4], (unsigned char)record[5],
+                record[6], record[7], record[8], record[9]);
+            break;
+        case INPUT_RECORD_CONTROLLER:
+            LiSendControllerEvent(record[1], (unsigned char)record[2], (unsigned char)record[3],
+                record[4], record[5], record[6], record[7]);
+            break;
+        case INPUT_RECORD_KEYBOARD:
+            LiSendKeyboardEvent(record[1], (char)record[2], (char)record[3]);
+            break;
+        case INPUT_RECORD_SCROLL:
+            LiSendScrollEvent((signed char)record[1]);
+            break;
+        case INPUT_RECORD_HIGH_RES_SCROLL:
+            LiSendHighResScrollEvent(record[1]);
+            break;
+        }
+    }
+
+    // We didn't modify the array, so there's nothing to copy back
+    (*env)->ReleaseShortArrayElements(env, records, recordsBase, JNI_ABORT);
+}
+
 JNIEXPORT void JNICALL
 Java_com_limelight_nvstream_jni_MoonBridge_stopConnection(JNIEnv *env, jclass clazz) {
     LiStopConnection();